@@ -7,6 +7,7 @@ import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 import com.diary.manager.controllers.DashboardController;
+import com.diary.manager.models.DiaryManager;
 
 import java.io.IOException;
 import java.util.Objects;
@@ -40,6 +41,11 @@ public class Main extends Application {
         dashboardController.applySavedTheme();
     }
 
+    @Override
+    public void stop() {
+        DiaryManager.getInstance().saveSearchIndex();
+    }
+
     public static Stage getPrimaryStage() {
         return primaryStage;
     }
@@ -2,7 +2,7 @@ package com.diary.manager.controllers;
 
 import com.diary.manager.models.DiaryEntry;
 import com.diary.manager.models.DiaryManager;
-import com.diary.manager.services.SearchService;
+import com.diary.manager.models.SearchBackend;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -13,11 +13,16 @@ import javafx.scene.layout.VBox;
 import java.net.URL;
 import java.time.LocalDate;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SearchController implements Initializable {
 
+    // A search waits this long for the next keystroke or filter change before it starts
+    private static final long SEARCH_DELAY_MS = 150;
+
     @FXML private TextField txtSearch;
     @FXML private TableView<DiaryEntry> searchResults;
     @FXML private TableColumn<DiaryEntry, String> colResultTitle;
@@ -37,15 +42,18 @@ public class SearchController implements Initializable {
     @FXML private VBox searchPanel;
 
     private DiaryManager diaryManager;
-    private SearchService searchService;
-    private ExecutorService searchExecutor;
+    private SearchBackend searchBackend;
+    private ScheduledThreadPoolExecutor searchExecutor;
+    private Future<?> pendingSearch;    // scheduled or running search, cancelled by the next one
+    private long searchGeneration;      // number of the latest search; older results are dropped
     private String lastSearchQuery = "";
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         diaryManager = DiaryManager.getInstance();
-        searchService = new SearchService();
-        searchExecutor = Executors.newSingleThreadExecutor();
+        searchBackend = diaryManager.getSearchBackend();
+        searchExecutor = new ScheduledThreadPoolExecutor(1);
+        searchExecutor.setRemoveOnCancelPolicy(true);
 
         setupSearchTable();
         setupSearchOptions();
@@ -117,9 +125,18 @@ public class SearchController implements Initializable {
         });
     }
 
+    /**
+     * Search for what the view shows now, latest wins: a pending search is
+     * cancelled, interrupting it if it already runs, and the new one starts
+     * after a short delay unless yet another change comes first. Called on
+     * the JavaFX thread.
+     */
     private void performSearch() {
         String query = txtSearch.getText().trim();
 
+        cancelPendingSearch();
+        long generation = searchGeneration;
+
         if (query.isEmpty()) {
             // Show all entries if search is empty
             searchResults.getItems().setAll(diaryManager.getAllEntries());
@@ -133,21 +150,20 @@ public class SearchController implements Initializable {
         lblSearchStatus.setText("Searching...");
         searchProgress.setProgress(-1); // Indeterminate progress
 
-        // Submit search task to executor
-        searchExecutor.submit(() -> {
+        // Get search options here, on the JavaFX thread
+        boolean searchTitle = chkSearchTitle.isSelected();
+        boolean searchContent = chkSearchContent.isSelected();
+        boolean searchTags = chkSearchTags.isSelected();
+        LocalDate fromDate = dateFrom.getValue();
+        LocalDate toDate = dateTo.getValue();
+        boolean favoritesOnly = chkFavoritesOnly.isSelected();
+
+        // Schedule the search on the executor
+        pendingSearch = searchExecutor.schedule(() -> {
             try {
-                // Get search options
-                boolean searchTitle = chkSearchTitle.isSelected();
-                boolean searchContent = chkSearchContent.isSelected();
-                boolean searchTags = chkSearchTags.isSelected();
-                LocalDate fromDate = dateFrom.getValue();
-                LocalDate toDate = dateTo.getValue();
-                boolean favoritesOnly = chkFavoritesOnly.isSelected();
-
-                // Perform search
-                var results = searchService.search(
+                // Perform search against the index
+                var results = searchBackend.search(
                         query,
-                        diaryManager.getAllEntries(),
                         searchTitle,
                         searchContent,
                         searchTags,
@@ -156,8 +172,11 @@ public class SearchController implements Initializable {
                         favoritesOnly
                 );
 
-                // Update UI on JavaFX thread
+                // Update UI on JavaFX thread, unless a newer search was asked for meanwhile
                 Platform.runLater(() -> {
+                    if (generation != searchGeneration) {
+                        return;
+                    }
                     searchResults.getItems().setAll(results);
                     updateResultCount(results.size());
                     lblSearchStatus.setText("Search completed");
@@ -172,13 +191,18 @@ public class SearchController implements Initializable {
                     }
                 });
 
+            } catch (CancellationException e) {
+                // Superseded by a newer search, which reports instead
             } catch (Exception e) {
                 Platform.runLater(() -> {
+                    if (generation != searchGeneration) {
+                        return;
+                    }
                     lblSearchStatus.setText("Search error: " + e.getMessage());
                     searchProgress.setProgress(0);
                 });
             }
-        });
+        }, SEARCH_DELAY_MS, TimeUnit.MILLISECONDS);
     }
 
     private void sortResults() {
@@ -251,8 +275,18 @@ public class SearchController implements Initializable {
         }
     }
 
+    // Drop the scheduled or running search and any results it still delivers
+    private void cancelPendingSearch() {
+        searchGeneration++;
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
+    }
+
     @FXML
     private void clearSearch() {
+        cancelPendingSearch();
         txtSearch.clear();
         searchResults.getItems().clear();
         resultDetail.clear();
@@ -315,7 +349,7 @@ public class SearchController implements Initializable {
 
     public void cleanup() {
         if (searchExecutor != null && !searchExecutor.isShutdown()) {
-            searchExecutor.shutdown();
+            searchExecutor.shutdownNow();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.diary.manager.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the words of titles and content into index terms. The tokenizer
+ * splits the text and lower-cases it (unless search is case-sensitive);
+ * each word then passes through a chain of {@link TermFilter}s, such as a
+ * stemmer or a synonym map, that rewrite it in place.
+ *
+ * The work is done once, when an entry is indexed. A query runs its words
+ * through the analyzer of the index it searches, so "walked" meets the
+ * stored stem "walk" directly and nothing is expanded per query.
+ *
+ * Tags and moods are labels rather than text and are only normalised.
+ *
+ * Immutable and thread-safe: the filters keep no state between terms.
+ */
+final class Analyzer {
+
+    /**
+     * One step of the chain
+     */
+    interface TermFilter {
+        /**
+         * Rewrite the term held in the buffer
+         */
+        void apply(TermBuffer term);
+
+        /**
+         * Identifies what the filter does, so a saved index can tell whether
+         * it was built with the same chain
+         */
+        default String signature() {
+            return getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * A term being analysed. Filters may replace the array to make room.
+     */
+    static final class TermBuffer {
+        char[] chars = new char[32];
+        int length;
+
+        void set(char[] source, int sourceLength) {
+            ensureCapacity(sourceLength);
+            System.arraycopy(source, 0, chars, 0, sourceLength);
+            length = sourceLength;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > chars.length) {
+                chars = new char[Math.max(capacity, chars.length * 2)];
+            }
+        }
+    }
+
+    private static final TermFilter[] NO_FILTERS = new TermFilter[0];
+
+    private final boolean lowerCase;
+    private final TermFilter[] filters;
+
+    private Analyzer(boolean lowerCase, TermFilter[] filters) {
+        this.lowerCase = lowerCase;
+        this.filters = filters;
+    }
+
+    /**
+     * Tokenize and lower-case only
+     */
+    static Analyzer plain(boolean lowerCase) {
+        return new Analyzer(lowerCase, NO_FILTERS);
+    }
+
+    /**
+     * The standard chain: Porter stemming, then the built-in synonym groups,
+     * whichever are switched on. Synonyms are looked up by stem, so every
+     * inflection of a listed word is covered.
+     */
+    static Analyzer create(boolean lowerCase, boolean stemming, boolean synonyms) {
+        List<TermFilter> chain = new ArrayList<>(2);
+        if (stemming) {
+            chain.add(new PorterStemmer());
+        }
+        if (synonyms) {
+            chain.add(SynonymFilter.standard(plain(lowerCase).then(chain)));
+        }
+        return new Analyzer(lowerCase, chain.toArray(NO_FILTERS));
+    }
+
+    /**
+     * This analyzer with more filters at the end of the chain
+     */
+    Analyzer then(List<TermFilter> more) {
+        List<TermFilter> chain = new ArrayList<>(List.of(filters));
+        chain.addAll(more);
+        return new Analyzer(lowerCase, chain.toArray(NO_FILTERS));
+    }
+
+    boolean lowerCase() {
+        return lowerCase;
+    }
+
+    /**
+     * Whether index terms are exactly the tokenizer's words
+     */
+    boolean isPlain() {
+        return filters.length == 0;
+    }
+
+    /**
+     * Describes the case handling and the filter chain; two analyzers with
+     * the same signature produce the same terms
+     */
+    String signature() {
+        StringBuilder signature = new StringBuilder(lowerCase ? "lowercase" : "exact");
+        for (TermFilter filter : filters) {
+            signature.append(',').append(filter.signature());
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Run a word through the filters, in place
+     */
+    void apply(TermBuffer term) {
+        for (TermFilter filter : filters) {
+            filter.apply(term);
+        }
+    }
+
+    /**
+     * The index term for one normalised word
+     */
+    String analyze(String word) {
+        if (filters.length == 0) {
+            return word;
+        }
+        TermBuffer term = new TermBuffer();
+        term.set(word.toCharArray(), word.length());
+        apply(term);
+        return new String(term.chars, 0, term.length);
+    }
+}
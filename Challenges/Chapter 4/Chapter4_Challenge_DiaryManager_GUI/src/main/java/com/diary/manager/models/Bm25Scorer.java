@@ -0,0 +1,74 @@
+package com.diary.manager.models;
+
+/**
+ * BM25F relevance scoring. Term frequencies from each field are length
+ * normalised, weighted by field and summed before the usual BM25 saturation,
+ * so a term in a short title counts for more than the same term buried in
+ * a long entry. Everything here works on numbers captured at index time.
+ */
+final class Bm25Scorer {
+
+    enum Field {
+        TITLE(2.5, 0.75),
+        CONTENT(1.0, 0.75),
+        TAGS(2.0, 0.0);     // tag lists are short and unordered, so no length normalisation
+
+        private final double weight;
+        private final double lengthNormalization;
+
+        Field(double weight, double lengthNormalization) {
+            this.weight = weight;
+            this.lengthNormalization = lengthNormalization;
+        }
+    }
+
+    // Term frequency saturation
+    private static final double K1 = 1.2;
+
+    // Small nudges applied on top of the text score
+    private static final double FAVORITE_BOOST = 1.10;
+    private static final double RECENCY_BOOST = 1.05;
+
+    private Bm25Scorer() {
+    }
+
+    /**
+     * Inverse document frequency (BM25 variant that never goes negative)
+     */
+    static double idf(int docFreq, int docCount) {
+        return Math.log(1.0 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * Weighted, length-normalised contribution of one field to a term's frequency
+     */
+    static double fieldFrequency(Field field, int termFreq, int fieldLength, double averageFieldLength) {
+        if (termFreq == 0) {
+            return 0.0;
+        }
+        double relativeLength = averageFieldLength > 0 ? fieldLength / averageFieldLength : 1.0;
+        double norm = 1.0 - field.lengthNormalization + field.lengthNormalization * relativeLength;
+        return field.weight * termFreq / norm;
+    }
+
+    /**
+     * Score for one term given its combined field frequency
+     */
+    static double termScore(double idf, double combinedFrequency) {
+        return idf * combinedFrequency / (K1 + combinedFrequency);
+    }
+
+    /**
+     * Apply the favorite and recency nudges to a text score. A query without
+     * terms scores every doc at 1 so the nudges alone decide the order.
+     */
+    static double boost(double score, boolean favorite, boolean recent) {
+        if (favorite) {
+            score *= FAVORITE_BOOST;
+        }
+        if (recent) {
+            score *= RECENCY_BOOST;
+        }
+        return score;
+    }
+}
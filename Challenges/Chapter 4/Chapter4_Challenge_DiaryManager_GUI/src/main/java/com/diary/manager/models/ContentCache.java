@@ -0,0 +1,288 @@
+package com.diary.manager.models;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decoded entry content, bounded by the memory it takes, so only the entries
+ * being read or edited stay on the heap.
+ *
+ * Eviction is W-TinyLFU, as in Caffeine. New content goes to a small LRU
+ * window (1% of the capacity). What falls out of the window joins the main
+ * area, a segmented LRU, only if it has been asked for more often than the
+ * entry the main area would evict for it. How often is estimated with a
+ * count-min sketch of 4-bit counters, halved every ten lookups per counter
+ * so that old popularity fades. A pass over every entry, such as indexing or
+ * the linear search, asks for each one once, so it goes through the window
+ * without pushing out what is read again and again.
+ *
+ * Weights are two bytes per char, the most a String takes. Content heavier
+ * than the main area (99% of the cache) is returned but not kept.
+ *
+ * Thread-safe. Content is loaded outside the lock, so two threads missing
+ * the same key may both load it. A load that a key was invalidated during is
+ * returned but not kept, as it may have read the file before it changed.
+ */
+public final class ContentCache<K> {
+
+    /**
+     * Loads the content of a key that is not cached
+     */
+    @FunctionalInterface
+    public interface Loader<K> {
+        String load(K key) throws IOException;
+    }
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int[] SKETCH_SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+    private static final long BYTES_PER_ENTRY = 4 * 1024;      // a guess at the mean, to size the sketch
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+
+    // Each in LRU order, eldest first
+    private final LinkedHashMap<K, String> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, String> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, String> protectedArea = new LinkedHashMap<>();
+    private final Map<K, LinkedHashMap<K, String>> areas = new HashMap<>();
+    // Loads in progress per key, and the keys invalidated while loading
+    private final Map<K, Integer> loading = new HashMap<>();
+    private final Set<K> invalidatedWhileLoading = new HashSet<>();
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    private final byte[][] sketch;
+    private final int sketchMask;
+    private final int sampleSize;
+    private int samples;
+
+    private long hits;
+    private long misses;
+
+    public ContentCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.windowMax = Math.max(1, maxWeight / 100);
+        this.protectedMax = (maxWeight - windowMax) * 4 / 5;
+
+        int width = Integer.highestOneBit((int) Math.min(1 << 20, Math.max(1024, maxWeight / BYTES_PER_ENTRY)));
+        this.sketch = new byte[SKETCH_DEPTH][width];
+        this.sketchMask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * The content for a key, loading and caching it on a miss
+     */
+    public String get(K key, Loader<K> loader) throws IOException {
+        synchronized (this) {
+            String cached = lookUp(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            loading.merge(key, 1, Integer::sum);
+        }
+
+        String loaded = null;
+        try {
+            loaded = loader.load(key);
+        } finally {
+            synchronized (this) {
+                boolean stale = invalidatedWhileLoading.contains(key);
+                if (loading.merge(key, -1, Integer::sum) == 0) {
+                    loading.remove(key);
+                    invalidatedWhileLoading.remove(key);
+                }
+                if (loaded != null && !stale && !areas.containsKey(key)) {
+                    add(key, loaded);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The content cached for a key, or null. Unlike {@link #get}, this
+     * counts neither as a use of the key nor as a hit or miss.
+     */
+    public synchronized String peek(K key) {
+        LinkedHashMap<K, String> area = areas.get(key);
+        return area == null ? null : area.get(key);
+    }
+
+    /**
+     * Forget a key's content, as it has been rewritten or deleted
+     */
+    public synchronized void invalidate(K key) {
+        if (loading.containsKey(key)) {
+            invalidatedWhileLoading.add(key);
+        }
+        LinkedHashMap<K, String> area = areas.remove(key);
+        if (area != null) {
+            adjustWeight(area, -weight(area.remove(key)));
+        }
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedArea.clear();
+        areas.clear();
+        windowWeight = probationWeight = protectedWeight = 0;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return areas.size();
+    }
+
+    /**
+     * The memory taken by the cached content, in bytes
+     */
+    public synchronized long weight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    private String lookUp(K key) {
+        recordAccess(key);
+        LinkedHashMap<K, String> area = areas.get(key);
+        if (area == null) {
+            return null;
+        }
+
+        String content = area.remove(key);
+        if (area == probation) {
+            // Asked for twice while in the main area: protect it
+            probationWeight -= weight(content);
+            move(key, content, protectedArea);
+            while (protectedWeight > protectedMax) {
+                Map.Entry<K, String> demoted = removeEldest(protectedArea);
+                move(demoted.getKey(), demoted.getValue(), probation);
+            }
+        } else {
+            area.put(key, content);     // most recently used
+        }
+        return content;
+    }
+
+    private void add(K key, String content) {
+        if (weight(content) > maxWeight - windowMax) {
+            return;     // could never be admitted to the main area
+        }
+        move(key, content, window);
+        while (windowWeight > windowMax) {
+            Map.Entry<K, String> candidate = removeEldest(window);
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Move content evicted from the window into the main area, if it is
+     * used more often than what would be evicted to make room for it
+     */
+    private void admit(K candidate, String content) {
+        long mainMax = maxWeight - windowMax;
+        int candidateFrequency = frequency(candidate);
+        while (probationWeight + protectedWeight + weight(content) > mainMax) {
+            LinkedHashMap<K, String> victims = probation.isEmpty() ? protectedArea : probation;
+            if (victims.isEmpty()) {
+                return;
+            }
+            K victim = victims.keySet().iterator().next();
+            if (candidateFrequency <= frequency(victim)) {
+                return;
+            }
+            removeEldest(victims);
+        }
+        move(candidate, content, probation);
+    }
+
+    private void move(K key, String content, LinkedHashMap<K, String> area) {
+        area.put(key, content);
+        areas.put(key, area);
+        adjustWeight(area, weight(content));
+    }
+
+    private Map.Entry<K, String> removeEldest(LinkedHashMap<K, String> area) {
+        Iterator<Map.Entry<K, String>> iterator = area.entrySet().iterator();
+        Map.Entry<K, String> eldest = iterator.next();
+        K key = eldest.getKey();
+        String content = eldest.getValue();
+        iterator.remove();
+        areas.remove(key);
+        adjustWeight(area, -weight(content));
+        return Map.entry(key, content);
+    }
+
+    private void adjustWeight(LinkedHashMap<K, String> area, long delta) {
+        if (area == window) {
+            windowWeight += delta;
+        } else if (area == probation) {
+            probationWeight += delta;
+        } else {
+            protectedWeight += delta;
+        }
+    }
+
+    private static long weight(String content) {
+        return 2L * content.length();
+    }
+
+    private void recordAccess(K key) {
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (sketch[row][index] < 15) {
+                sketch[row][index]++;
+            }
+        }
+        if (++samples >= sampleSize) {
+            // Age every count, so what was popular long ago can be evicted
+            for (byte[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+            }
+            samples /= 2;
+        }
+    }
+
+    private int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            frequency = Math.min(frequency, sketch[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SKETCH_SEEDS[row]) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & sketchMask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        return hash ^ (hash >>> 11);
+    }
+}
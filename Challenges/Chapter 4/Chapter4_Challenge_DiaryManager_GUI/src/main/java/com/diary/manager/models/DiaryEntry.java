@@ -6,9 +6,12 @@ import java.util.List;
 import java.util.UUID;
 
 public class DiaryEntry {
+    private static final int PREVIEW_LENGTH = 150;
+
     private String id;
     private String title;
-    private String content;
+    private String content;                 // null while only in storedContent
+    private EntryContent storedContent;     // the saved content, read when first needed
     private LocalDateTime createdDate;
     private LocalDateTime modifiedDate;
     private List<String> tags;
@@ -44,12 +47,31 @@ public class DiaryEntry {
         this.modifiedDate = LocalDateTime.now();
     }
 
-    public String getContent() { return content; }
+    public String getContent() {
+        return content != null || storedContent == null ? content : storedContent.get();
+    }
     public void setContent(String content) {
         this.content = content;
+        this.storedContent = null;
         this.modifiedDate = LocalDateTime.now();
     }
 
+    /**
+     * Back this entry with content saved in a file, read when first asked
+     * for. Not an edit: the modification time is kept.
+     */
+    public void setStoredContent(EntryContent storedContent) {
+        this.content = null;
+        this.storedContent = storedContent;
+    }
+
+    /**
+     * Whether the content is in memory rather than only in its file
+     */
+    public boolean isContentLoaded() {
+        return storedContent == null;
+    }
+
     public LocalDateTime getCreatedDate() { return createdDate; }
     public void setCreatedDate(LocalDateTime createdDate) { this.createdDate = createdDate; }
 
@@ -90,10 +112,14 @@ public class DiaryEntry {
     }
 
     public String getPreview() {
-        if (content.length() > 150) {
-            return content.substring(0, 150) + "...";
+        // Read no more of a saved entry than the preview shows
+        String start = content != null || storedContent == null
+                ? content
+                : storedContent.preview(PREVIEW_LENGTH + 1);
+        if (start.length() > PREVIEW_LENGTH) {
+            return start.substring(0, PREVIEW_LENGTH) + "...";
         }
-        return content;
+        return start;
     }
 
     public String getFormattedDate() {
@@ -5,6 +5,7 @@ import com.diary.manager.services.FileIOService;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -35,12 +36,24 @@ public class DiaryManager {
         try {
             List<DiaryEntry> loadedEntries = fileIOService.loadAllEntries();
             entries.setAll(loadedEntries);
-            searchEngine.indexEntries(loadedEntries);
+            // Start from the index saved on the last exit; only entries changed since are indexed
+            searchEngine.loadIndex(fileIOService.getIndexFile(), loadedEntries);
         } catch (DiaryException e) {
             System.err.println("Failed to load entries: " + e.getMessage());
         }
     }
 
+    /**
+     * Save the search index for the next start, if it changed. Called on exit.
+     */
+    public void saveSearchIndex() {
+        try {
+            searchEngine.saveIndex(fileIOService.getIndexFile());
+        } catch (IOException e) {
+            System.err.println("Failed to save search index: " + e.getMessage());
+        }
+    }
+
     public void saveEntry(DiaryEntry entry) throws DiaryException {
         if (entry == null) {
             throw new DiaryException("Entry cannot be null");
@@ -49,6 +62,9 @@ public class DiaryManager {
         if (!entries.contains(entry)) {
             entries.add(entry);
             searchEngine.addToIndex(entry);
+        } else {
+            // The editor (and its autosave) edits the entry in place; only its own small segment is rewritten
+            searchEngine.updateIndex(entry, entry);
         }
 
         fileIOService.saveEntry(entry);
@@ -96,6 +112,13 @@ public class DiaryManager {
         return searchEngine.search(query);
     }
 
+    /**
+     * The indexed search over all entries, kept up to date as they are saved and deleted
+     */
+    public SearchBackend getSearchBackend() {
+        return searchEngine;
+    }
+
     public List<String> getAllTags() {
         List<String> allTags = new ArrayList<>();
         for (DiaryEntry entry : entries) {
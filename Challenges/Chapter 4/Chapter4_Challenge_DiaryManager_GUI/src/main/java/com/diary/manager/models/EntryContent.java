@@ -0,0 +1,114 @@
+package com.diary.manager.models;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * An entry's content as saved in its file, read only when it is asked for.
+ * The full text goes through a shared {@link ContentCache}; a preview reads
+ * just the start of the file, and is kept, so a list of entries never holds
+ * their whole text.
+ *
+ * A missing file reads as empty content, as before content was loaded
+ * lazily. A file that cannot be read throws {@link UncheckedIOException}
+ * rather than passing for empty, which a later save would write back.
+ */
+public final class EntryContent {
+
+    static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final ContentCache<Path> CACHE = new ContentCache<>(DEFAULT_CACHE_BYTES);
+
+    private final Path file;
+    private final long length;
+    private volatile String preview;
+    private volatile int previewChars;
+
+    /**
+     * The content saved in a file, of the given length in UTF-8 bytes, or -1
+     * if that is not known
+     */
+    public EntryContent(Path file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * The content cache shared by every entry
+     */
+    public static ContentCache<Path> cache() {
+        return CACHE;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * The content's length in UTF-8 bytes, from the file if it was not known
+     */
+    public long length() {
+        if (length >= 0) {
+            return length;
+        }
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The whole content
+     */
+    public String get() {
+        try {
+            return CACHE.get(file, EntryContent::read);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read entry content: " + file, e);
+        }
+    }
+
+    /**
+     * Up to the first maxChars chars of the content
+     */
+    public String preview(int maxChars) {
+        String cached = CACHE.peek(file);
+        if (cached != null) {
+            return cached.length() > maxChars ? cached.substring(0, maxChars) : cached;
+        }
+
+        String start = preview;
+        if (start == null || (previewChars < maxChars && start.length() == previewChars)) {
+            start = readStart(maxChars);
+            preview = start;
+            previewChars = maxChars;
+        }
+        return start.length() > maxChars ? start.substring(0, maxChars) : start;
+    }
+
+    private String readStart(int maxChars) {
+        char[] chars = new char[maxChars];
+        int read = 0;
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            int count;
+            while (read < maxChars && (count = reader.read(chars, read, maxChars - read)) != -1) {
+                read += count;
+            }
+        } catch (NoSuchFileException e) {
+            return "";
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read entry content: " + file, e);
+        }
+        return new String(chars, 0, read);
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.exists(file) ? Files.readString(file) : "";
+    }
+}
@@ -0,0 +1,112 @@
+package com.diary.manager.models;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * What the metadata file keeps about an entry: everything but its content,
+ * which is in the entry's own file. The content's length in bytes and its
+ * CRC32C are kept instead, so its size is known without reading the file
+ * and a file changed outside the application can be told apart.
+ */
+public final class EntryMetadata {
+
+    private String id;
+    private String title;
+    private LocalDateTime createdDate;
+    private LocalDateTime modifiedDate;
+    private List<String> tags;
+    private String mood;
+    private boolean favorite;
+    private long contentLength;     // UTF-8 bytes
+    private String contentHash;     // CRC32C of those bytes, in hex
+
+    // For Gson
+    private EntryMetadata() {
+        this.tags = new ArrayList<>();
+        this.mood = "Neutral";
+    }
+
+    public EntryMetadata(String id, String title, LocalDateTime createdDate, LocalDateTime modifiedDate,
+                         List<String> tags, String mood, boolean favorite, long contentLength, String contentHash) {
+        this.id = id;
+        this.title = title;
+        this.createdDate = createdDate;
+        this.modifiedDate = modifiedDate;
+        this.tags = tags;
+        this.mood = mood;
+        this.favorite = favorite;
+        this.contentLength = contentLength;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * An entry's metadata as saved under its current ID
+     */
+    public static EntryMetadata of(DiaryEntry entry) {
+        return of(entry, entry.getId());
+    }
+
+    /**
+     * An entry's metadata as saved under the given ID
+     */
+    public static EntryMetadata of(DiaryEntry entry, String id) {
+        return of(entry, id, entry.getContent().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * An entry's metadata as saved under the given ID, with the content its
+     * file holds, so content already read is not read again
+     */
+    public static EntryMetadata of(DiaryEntry entry, String id, byte[] content) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(content);
+
+        return new EntryMetadata(id, entry.getTitle(), entry.getCreatedDate(), entry.getModifiedDate(),
+                new ArrayList<>(entry.getTags()), entry.getMood(), entry.isFavorite(),
+                content.length, String.format("%08x", checksum.getValue()));
+    }
+
+    /**
+     * A new entry with this metadata and no content yet
+     */
+    public DiaryEntry toEntry() {
+        DiaryEntry entry = new DiaryEntry();
+        entry.setId(id);
+        entry.setTitle(title);
+        entry.setCreatedDate(createdDate);
+        entry.setTags(tags == null ? new ArrayList<>() : new ArrayList<>(tags));
+        entry.setMood(mood);
+        entry.setFavorite(favorite);
+        // Last, as the setters above count as edits
+        entry.setModifiedDate(modifiedDate);
+        return entry;
+    }
+
+    public String getId() { return id; }
+
+    public String getTitle() { return title; }
+
+    public LocalDateTime getCreatedDate() { return createdDate; }
+
+    public LocalDateTime getModifiedDate() { return modifiedDate; }
+
+    public List<String> getTags() { return tags; }
+
+    public String getMood() { return mood; }
+
+    public boolean isFavorite() { return favorite; }
+
+    /**
+     * The content's length in UTF-8 bytes; 0 if saved before this was kept
+     */
+    public long getContentLength() { return contentLength; }
+
+    /**
+     * The content's CRC32C in hex; null if saved before this was kept
+     */
+    public String getContentHash() { return contentHash; }
+}
@@ -0,0 +1,1151 @@
+package com.diary.manager.models;
+
+import com.diary.manager.models.Bm25Scorer.Field;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * One self-contained inverted index: term postings per field, the forward
+ * index used for removals, per-doc columns for scoring and the date and
+ * favorite lists. An {@link IndexSnapshot} is a list of segments. A segment
+ * is not modified once published, so the read methods take the set of its
+ * docs deleted since instead.
+ *
+ * A bulk build tokenizes contiguous shards of the entry list on the
+ * ForkJoinPool, each into its own segment with local doc IDs, then merges
+ * them by appending every shard's postings shifted by the shard's first doc
+ * ID. Shards are merged in entry order, so the result is the same segment a
+ * sequential build would produce.
+ *
+ * Dates are kept both ways: a sorted map from epoch day to docs, so a date
+ * range is one sub-map scan, and a per-doc column of epoch days, so checking
+ * the date of a few candidates never touches the map.
+ *
+ * Title and content postings can also record the word position of every
+ * occurrence, which lets phrase and NEAR queries be checked by intersecting
+ * position lists instead of reading the text again.
+ *
+ * Words pass through the segment's {@link Analyzer} before they are stored,
+ * so with stemming or synonyms on, a title or content term is a stem or a
+ * canonical synonym rather than the word as written. The surface words of
+ * titles are then kept too, for autocomplete.
+ *
+ * A segment can be saved to and read back from a {@link SegmentFile}. One
+ * read back has no forward index, since published segments are only read
+ * and merged, never edited.
+ *
+ * Not thread-safe while being written; safe to read from any number of
+ * threads once published.
+ */
+final class IndexSegment {
+
+    // Below this many entries per shard, splitting costs more than it saves
+    private static final int MIN_SHARD_SIZE = 1024;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    // Inverted index for fast searching
+    private final TermIndex titleIndex;                       // word -> doc IDs (and positions)
+    private final TermIndex contentIndex;                     // word -> doc IDs (and positions)
+    private final TermIndex tagIndex = new TermIndex();       // tag -> doc IDs
+    private final TermIndex moodIndex = new TermIndex();      // mood -> doc IDs
+    private final TermIndex titleWords;                       // title word as written -> doc IDs; null if
+                                                              // the analyzer leaves words unchanged
+    private final Analyzer analyzer;
+
+    // Dense int doc IDs; a doc ID is never reused until the index is compacted
+    // An entry is found by the object indexed, as saving renames it, else by
+    // the ID it had when indexed, for another copy of the same entry
+    private final Map<DiaryEntry, Integer> docsByEntry;     // entry -> doc ID
+    private final Map<String, Integer> docIdsByEntry;       // entry ID when indexed -> doc ID
+    private DiaryEntry[] docs;                              // doc ID -> entry (null once removed)
+    private String[] entryIds;                              // doc ID -> entry ID when indexed
+    private IndexedTerms[] termsByDoc;                      // doc ID -> indexed terms (forward index)
+    private int[][] fieldLengths;                           // field -> doc ID -> length in words
+    private long[] createdAt;                               // doc ID -> creation time (epoch seconds)
+    private LocalDateTime[] modifiedAt;                     // doc ID -> modification time of the indexed version
+    private int[] epochDays;                                // doc ID -> creation day, or NO_DATE
+    private int maxDoc;
+    private int liveDocs;
+
+    // Additional indexes for metadata
+    private final NavigableMap<Integer, PostingList> dateIndex = new TreeMap<>();  // epoch day -> doc IDs
+    private final PostingList favoriteDocs = new PostingList();             // favorite doc IDs
+
+    // Field lengths summed over live docs, for BM25 length normalisation
+    private final long[] fieldLengthTotals = new long[Field.values().length];
+
+    // Title and tag vocabulary by weight, for autocomplete
+    private volatile SuggestionIndex suggestions;
+
+    // Sorted title and content vocabulary, for fuzzy queries
+    private volatile TermDictionary termDictionary;
+
+    // Reused by the single writer of this segment
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final FieldIndexer fieldIndexer;
+
+    IndexSegment() {
+        this(Analyzer.plain(true), true);
+    }
+
+    IndexSegment(Analyzer analyzer, boolean positional) {
+        this(16, analyzer, positional);
+    }
+
+    private IndexSegment(int capacity, Analyzer analyzer, boolean positional) {
+        capacity = Math.max(capacity, 16);
+        this.analyzer = analyzer;
+        this.titleIndex = new TermIndex(positional);
+        this.contentIndex = new TermIndex(positional);
+        this.titleWords = analyzer.isPlain() ? null : new TermIndex();
+        this.fieldIndexer = new FieldIndexer(analyzer);
+        this.docsByEntry = new IdentityHashMap<>(capacity);
+        this.docIdsByEntry = new HashMap<>(capacity * 4 / 3 + 1);
+        this.docs = new DiaryEntry[capacity];
+        this.entryIds = new String[capacity];
+        this.termsByDoc = new IndexedTerms[capacity];
+        this.fieldLengths = new int[Field.values().length][capacity];
+        this.createdAt = new long[capacity];
+        this.modifiedAt = new LocalDateTime[capacity];
+        this.epochDays = new int[capacity];
+    }
+
+    /**
+     * Index a list of entries from scratch, in parallel when it is large enough.
+     * An entry ID listed twice keeps its last occurrence, as if each had been
+     * added in turn.
+     */
+    static IndexSegment build(List<DiaryEntry> entries, Analyzer analyzer, boolean positional) {
+        List<DiaryEntry> unique = lastOccurrences(entries);
+
+        int parallelism = ForkJoinTask.inForkJoinPool()
+                ? ForkJoinTask.getPool().getParallelism()
+                : ForkJoinPool.getCommonPoolParallelism();
+        int shardCount = Math.min(parallelism, unique.size() / MIN_SHARD_SIZE);
+        if (shardCount <= 1) {
+            return buildShard(unique, analyzer, positional);
+        }
+
+        List<ForkJoinTask<IndexSegment>> shards = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            List<DiaryEntry> slice = unique.subList(
+                    (int) ((long) unique.size() * shard / shardCount),
+                    (int) ((long) unique.size() * (shard + 1) / shardCount));
+            shards.add(ForkJoinTask.adapt(() -> buildShard(slice, analyzer, positional)));
+        }
+        ForkJoinTask.invokeAll(shards);
+
+        IndexSegment[] parts = new IndexSegment[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            parts[shard] = shards.get(shard).join();
+        }
+        return merge(parts, new BitSet[shardCount]);
+    }
+
+    /**
+     * Add an entry, replacing its previous doc if it is already indexed
+     */
+    void add(DiaryEntry entry) {
+        if (entry == null || entry.getId() == null) {
+            return;
+        }
+
+        Integer oldDoc = docOf(entry);
+        if (oldDoc != null) {
+            // Re-adding an indexed entry must not leave its old terms behind
+            removeDoc(oldDoc);
+        }
+        addDoc(entry);
+    }
+
+    void remove(DiaryEntry entry) {
+        if (entry == null || entry.getId() == null) {
+            return;
+        }
+
+        Integer doc = docOf(entry);
+        if (doc != null) {
+            removeDoc(doc);
+        }
+    }
+
+    int liveDocs() {
+        return liveDocs;
+    }
+
+    Analyzer analyzer() {
+        return analyzer;
+    }
+
+    boolean isPositional() {
+        return contentIndex.isPositional();
+    }
+
+    int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * The doc of an entry: the one indexed for this object, whatever its ID
+     * is now, else the one indexed under its ID
+     */
+    Integer docOf(DiaryEntry entry) {
+        Integer doc = docsByEntry.get(entry);
+        return doc != null ? doc : docIdsByEntry.get(entry.getId());
+    }
+
+    long fieldLengthTotal(Field field) {
+        return fieldLengthTotals[field.ordinal()];
+    }
+
+    int fieldLength(Field field, int doc) {
+        return fieldLengths[field.ordinal()][doc];
+    }
+
+    void collectLiveEntries(BitSet deleted, List<DiaryEntry> into) {
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (docs[doc] != null && (deleted == null || !deleted.get(doc))) {
+                into.add(docs[doc]);
+            }
+        }
+    }
+
+    void collectEntries(PostingList entryDocs, List<DiaryEntry> into) {
+        for (int i = 0; i < entryDocs.size(); i++) {
+            DiaryEntry entry = docs[entryDocs.get(i)];
+            if (entry != null) {
+                into.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Docs created between the dates, inclusive; a null bound is open. Deleted
+     * docs are included.
+     */
+    PostingList docsInDateRange(LocalDate fromDate, LocalDate toDate) {
+        Collection<PostingList> days = dateRange(fromDate, toDate).values();
+        if (days.size() == 1) {
+            return days.iterator().next();
+        }
+
+        // Concatenate and sort once rather than merging the days pairwise
+        int total = 0;
+        for (PostingList dayDocs : days) {
+            total += dayDocs.size();
+        }
+        int[] rangeDocs = new int[total];
+        int count = 0;
+        for (PostingList dayDocs : days) {
+            for (int i = 0; i < dayDocs.size(); i++) {
+                rangeDocs[count++] = dayDocs.get(i);
+            }
+        }
+        Arrays.sort(rangeDocs);
+        return PostingList.of(rangeDocs, count);
+    }
+
+    /**
+     * Number of docs created between the dates, deleted ones included
+     */
+    int dateRangeCount(LocalDate fromDate, LocalDate toDate) {
+        int count = 0;
+        for (PostingList dayDocs : dateRange(fromDate, toDate).values()) {
+            count += dayDocs.size();
+        }
+        return count;
+    }
+
+    PostingList docsWithTag(String normalizedTag) {
+        return tagIndex.getOrDefault(normalizedTag, PostingList.EMPTY);
+    }
+
+    PostingList favoriteDocs() {
+        return favoriteDocs;
+    }
+
+    /**
+     * The autocomplete dictionary, built on first use. Only call on a published segment.
+     */
+    SuggestionIndex suggestionIndex() {
+        SuggestionIndex dictionary = suggestions;
+        if (dictionary == null) {
+            // Building it twice in a race is harmless: both copies are the same
+            dictionary = new SuggestionIndex(titleWords != null ? titleWords : titleIndex, tagIndex);
+            suggestions = dictionary;
+        }
+        return dictionary;
+    }
+
+    /**
+     * The sorted title and content terms, built on first use. Only call on a
+     * published segment.
+     */
+    TermDictionary termDictionary() {
+        TermDictionary dictionary = termDictionary;
+        if (dictionary == null) {
+            dictionary = new TermDictionary(titleIndex, contentIndex);
+            termDictionary = dictionary;
+        }
+        return dictionary;
+    }
+
+    int liveTermCount(Field field, BitSet deleted) {
+        if (deleted == null || deleted.isEmpty()) {
+            return index(field).size();
+        }
+        int[] count = new int[1];
+        index(field).forEach(postings -> {
+            if (PostingList.hasLive(postings, deleted)) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Terms of a field that still have a live doc
+     */
+    void collectLiveTerms(Field field, BitSet deleted, Set<String> into) {
+        index(field).forEach(postings -> {
+            if (PostingList.hasLive(postings, deleted)) {
+                into.add(postings.term());
+            }
+        });
+    }
+
+    void collectLiveDates(BitSet deleted, Set<LocalDate> into) {
+        dateIndex.forEach((day, dayDocs) -> {
+            if (PostingList.hasLive(dayDocs, deleted)) {
+                into.add(LocalDate.ofEpochDay(day));
+            }
+        });
+    }
+
+    /**
+     * Live docs containing the term in any of the given fields
+     * ({@link SearchQuery} field bits). Titles and content are looked up by
+     * the analysed term, tags and moods by the label, the normalised word.
+     */
+    PostingList termDocs(String term, String label, int fields, BitSet deleted) {
+        PostingList docs = PostingList.EMPTY;
+        for (PostingList postings : postings(term, label, fields)) {
+            docs = PostingList.union(docs, postings);
+        }
+        return PostingList.without(docs, deleted);
+    }
+
+    /**
+     * The candidates that contain the term in any of the given fields. Cheaper
+     * than {@link #termDocs} when the candidates are few and the term common.
+     */
+    PostingList termDocsIn(String term, String label, int fields, PostingList candidates) {
+        PostingList docs = PostingList.EMPTY;
+        for (PostingList postings : postings(term, label, fields)) {
+            docs = PostingList.union(docs, PostingList.intersect(candidates, postings));
+        }
+        return docs;
+    }
+
+    /**
+     * Upper bound on the docs containing the term in the given fields, from
+     * list sizes alone
+     */
+    long termDocBound(String term, String label, int fields) {
+        long bound = 0;
+        for (PostingList postings : postings(term, label, fields)) {
+            bound += postings.size();
+        }
+        return bound;
+    }
+
+    /**
+     * Live docs containing the term in any of the given fields, counted
+     * without building the union of the (typically one large) field lists
+     */
+    int termDocCount(String term, String label, int fields, BitSet deleted) {
+        if (deleted != null && !deleted.isEmpty()) {
+            return termDocs(term, label, fields, deleted).size();
+        }
+
+        PostingList largest = PostingList.EMPTY;
+        PostingList others = PostingList.EMPTY;
+        for (PostingList postings : postings(term, label, fields)) {
+            if (postings.size() > largest.size()) {
+                others = PostingList.union(others, largest);
+                largest = postings;
+            } else {
+                others = PostingList.union(others, postings);
+            }
+        }
+        return largest.size() + PostingList.difference(others, largest).size();
+    }
+
+    PostingList allLiveDocs(BitSet deleted) {
+        int[] live = new int[liveDocs];
+        int count = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (docs[doc] != null && (deleted == null || !deleted.get(doc))) {
+                live[count++] = doc;
+            }
+        }
+        return PostingList.of(live, count);
+    }
+
+    PostingList applyFilters(PostingList candidateDocs,
+                             LocalDate fromDate,
+                             LocalDate toDate,
+                             boolean favoritesOnly) {
+
+        if (candidateDocs.isEmpty()) {
+            return candidateDocs;
+        }
+
+        PostingList filteredDocs = candidateDocs;
+
+        // Apply date filter
+        if (fromDate != null || toDate != null) {
+            int from = fromDate == null ? NO_DATE + 1 : epochDay(fromDate);
+            int to = toDate == null ? Integer.MAX_VALUE : epochDay(toDate);
+            int[] kept = new int[filteredDocs.size()];
+            int count = 0;
+            for (int i = 0; i < filteredDocs.size(); i++) {
+                int doc = filteredDocs.get(i);
+                int day = epochDays[doc];
+                if (day >= from && day <= to) {
+                    kept[count++] = doc;
+                }
+            }
+            filteredDocs = PostingList.of(kept, count);
+        }
+
+        // Apply favorites filter
+        if (favoritesOnly) {
+            filteredDocs = PostingList.intersect(filteredDocs, favoriteDocs);
+        }
+
+        return filteredDocs;
+    }
+
+    /**
+     * Keep the candidates in which a phrase or NEAR clause holds within one
+     * of its fields, by intersecting the stored position lists of its terms.
+     * Only titles and content have positions. A segment indexed without them
+     * cannot check, so there the clause only requires its terms.
+     */
+    PostingList applyProximity(PostingList candidateDocs, SearchQuery.Proximity proximity, int fields) {
+        if (candidateDocs.isEmpty() || !contentIndex.isPositional()) {
+            return candidateDocs;
+        }
+
+        // The clause's term lists per field, looked up once for all candidates
+        PostingList[] titleLists = (fields & SearchQuery.TITLE) != 0 ? termLists(proximity, titleIndex) : null;
+        PostingList[] contentLists = (fields & SearchQuery.CONTENT) != 0 ? termLists(proximity, contentIndex) : null;
+
+        int[] kept = new int[candidateDocs.size()];
+        int count = 0;
+        for (int i = 0; i < candidateDocs.size(); i++) {
+            int doc = candidateDocs.get(i);
+            if (holdsIn(proximity, titleLists, doc) || holdsIn(proximity, contentLists, doc)) {
+                kept[count++] = doc;
+            }
+        }
+        return count == candidateDocs.size() ? candidateDocs : PostingList.of(kept, count);
+    }
+
+    /**
+     * Score the candidates into hits[from, from + candidates.size()), using
+     * statistics gathered over every segment of the snapshot
+     */
+    void calculateRelevanceScores(PostingList candidateDocs, Scoring scoring, int docBase,
+                                  DiaryEntry[] entries, int[] hitDocs, double[] scores, int from) {
+
+        int candidates = candidateDocs.size();
+        List<String> searchTerms = scoring.terms;
+
+        if (searchTerms.isEmpty()) {
+            // No search terms, only the favorite/recency nudges apply
+            Arrays.fill(scores, from, from + candidates, 1.0);
+        }
+
+        double[] termFrequencies = new double[candidates];
+        for (int t = 0; t < searchTerms.size(); t++) {
+            SearchCancellation.check();
+            String term = searchTerms.get(t);
+            Arrays.fill(termFrequencies, 0.0);
+
+            int fields = scoring.fields[t];
+            if ((fields & SearchQuery.TITLE) != 0) {
+                addFieldFrequencies(Field.TITLE, titleIndex.get(term), candidateDocs, scoring, termFrequencies);
+            }
+            if ((fields & SearchQuery.CONTENT) != 0) {
+                addFieldFrequencies(Field.CONTENT, contentIndex.get(term), candidateDocs, scoring, termFrequencies);
+            }
+            if ((fields & SearchQuery.TAGS) != 0) {
+                addFieldFrequencies(Field.TAGS, tagIndex.get(scoring.labels.get(t)), candidateDocs, scoring,
+                        termFrequencies);
+            }
+
+            double idf = scoring.idf[t];
+            for (int i = 0; i < candidates; i++) {
+                scores[from + i] += Bm25Scorer.termScore(idf, termFrequencies[i]);
+            }
+        }
+
+        // Nudges come from per-doc columns so scoring never touches the entry objects
+        int favoritePosition = 0;
+        for (int i = 0; i < candidates; i++) {
+            int doc = candidateDocs.get(i);
+            favoritePosition = favoriteDocs.seek(favoritePosition, doc);
+            boolean favorite = favoritePosition < favoriteDocs.size() && favoriteDocs.get(favoritePosition) == doc;
+
+            entries[from + i] = docs[doc];
+            hitDocs[from + i] = docBase + doc;
+            scores[from + i] = Bm25Scorer.boost(scores[from + i], favorite, createdAt[doc] > scoring.recentCutoff);
+        }
+    }
+
+    // Private helper methods
+
+    private void addDoc(DiaryEntry entry) {
+        int doc = maxDoc++;
+        if (doc == docs.length) {
+            docs = Arrays.copyOf(docs, doc * 2);
+            entryIds = Arrays.copyOf(entryIds, doc * 2);
+            termsByDoc = Arrays.copyOf(termsByDoc, doc * 2);
+            for (int field = 0; field < fieldLengths.length; field++) {
+                fieldLengths[field] = Arrays.copyOf(fieldLengths[field], doc * 2);
+            }
+            createdAt = Arrays.copyOf(createdAt, doc * 2);
+            modifiedAt = Arrays.copyOf(modifiedAt, doc * 2);
+            epochDays = Arrays.copyOf(epochDays, doc * 2);
+        }
+
+        docs[doc] = entry;
+        entryIds[doc] = entry.getId();
+        docsByEntry.put(entry, doc);
+        docIdsByEntry.put(entry.getId(), doc);
+        modifiedAt[doc] = entry.getModifiedDate();
+        liveDocs++;
+        IndexedTerms terms = new IndexedTerms();
+
+        List<PostingList> touched = new ArrayList<>();
+        List<PostingList> touchedWords = new ArrayList<>();
+
+        // Index title
+        if (entry.getTitle() != null) {
+            fieldLengths[Field.TITLE.ordinal()][doc] = indexText(entry.getTitle(), doc, titleIndex, titleWords,
+                    touched, touchedWords);
+            terms.titlePostings = drain(touched);
+            terms.titleWordPostings = drain(touchedWords);
+        }
+
+        // Index content
+        if (entry.getContent() != null) {
+            fieldLengths[Field.CONTENT.ordinal()][doc] = indexText(entry.getContent(), doc, contentIndex, null,
+                    touched, touchedWords);
+            terms.contentPostings = drain(touched);
+        }
+
+        // Index tags (each tag is one term)
+        int tagCount = 0;
+        if (entry.getTags() != null) {
+            for (String tag : entry.getTags()) {
+                if (tag != null && !tag.trim().isEmpty()) {
+                    PostingList postings = tagIndex.getOrCreate(Tokenizer.normalize(tag, analyzer.lowerCase()));
+                    if (postings.addOccurrence(doc)) {
+                        touched.add(postings);
+                    }
+                    tagCount++;
+                }
+            }
+            terms.tagPostings = drain(touched);
+        }
+        fieldLengths[Field.TAGS.ordinal()][doc] = tagCount;
+
+        // Index mood (one term, like a tag)
+        if (entry.getMood() != null && !entry.getMood().trim().isEmpty()) {
+            PostingList postings = moodIndex.getOrCreate(Tokenizer.normalize(entry.getMood(), analyzer.lowerCase()));
+            postings.addOccurrence(doc);
+            terms.moodPostings = new PostingList[]{postings};
+        }
+
+        for (int field = 0; field < fieldLengths.length; field++) {
+            fieldLengthTotals[field] += fieldLengths[field][doc];
+        }
+
+        // Index date
+        if (entry.getCreatedDate() != null) {
+            int day = epochDay(entry.getCreatedDate().toLocalDate());
+            dateIndex.computeIfAbsent(day, k -> new PostingList()).add(doc);
+            epochDays[doc] = day;
+            createdAt[doc] = entry.getCreatedDate().toEpochSecond(ZoneOffset.UTC);
+        } else {
+            epochDays[doc] = NO_DATE;
+            createdAt[doc] = Long.MIN_VALUE;
+        }
+
+        // Index favorite status
+        if (entry.isFavorite()) {
+            favoriteDocs.add(doc);
+        }
+
+        termsByDoc[doc] = terms;
+    }
+
+    /**
+     * Remove a doc using the terms recorded when it was indexed. The entry object
+     * may have been edited in place since then, so its current title, content and
+     * tags cannot be trusted to find the old postings.
+     */
+    private void removeDoc(int doc) {
+        DiaryEntry entry = docs[doc];
+        IndexedTerms terms = termsByDoc[doc];
+        docs[doc] = null;
+        termsByDoc[doc] = null;
+        docsByEntry.remove(entry, doc);
+        docIdsByEntry.remove(entryIds[doc], doc);
+        entryIds[doc] = null;
+        favoriteDocs.remove(doc);
+        liveDocs--;
+
+        for (int field = 0; field < fieldLengths.length; field++) {
+            fieldLengthTotals[field] -= fieldLengths[field][doc];
+        }
+
+        removePostings(doc, terms.titlePostings, titleIndex);
+        removePostings(doc, terms.titleWordPostings, titleWords);
+        removePostings(doc, terms.contentPostings, contentIndex);
+        removePostings(doc, terms.tagPostings, tagIndex);
+        removePostings(doc, terms.moodPostings, moodIndex);
+
+        // Remove from date index
+        if (epochDays[doc] != NO_DATE) {
+            PostingList dayDocs = dateIndex.get(epochDays[doc]);
+            if (dayDocs != null) {
+                dayDocs.remove(doc);
+                if (dayDocs.isEmpty()) {
+                    dateIndex.remove(epochDays[doc]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the words of one field, and optionally the words as written,
+     * collecting the posting lists the doc was added to. Returns the field
+     * length in indexed words.
+     */
+    private int indexText(String text, int doc, TermIndex index, TermIndex words,
+                          List<PostingList> touched, List<PostingList> touchedWords) {
+        fieldIndexer.start(doc, index, words, touched, touchedWords);
+        tokenizer.tokenize(text, analyzer.lowerCase(), fieldIndexer);
+        return fieldIndexer.length;
+    }
+
+    private static PostingList[] drain(List<PostingList> touched) {
+        PostingList[] postings = touched.toArray(IndexedTerms.NONE);
+        touched.clear();
+        return postings;
+    }
+
+    private void removePostings(int doc, PostingList[] postings, TermIndex index) {
+        for (PostingList termDocs : postings) {
+            termDocs.remove(doc);
+            if (termDocs.isEmpty()) {
+                index.remove(termDocs);
+            }
+        }
+    }
+
+    /**
+     * Walk one field's postings for a term alongside the (sorted) candidates,
+     * adding the stored term frequency of every candidate that has it.
+     */
+    private void addFieldFrequencies(Field field,
+                                     PostingList postings,
+                                     PostingList candidateDocs,
+                                     Scoring scoring,
+                                     double[] termFrequencies) {
+        if (postings == null) {
+            return;
+        }
+
+        double averageLength = scoring.averageFieldLength[field.ordinal()];
+        int[] lengths = fieldLengths[field.ordinal()];
+        int position = 0;
+        for (int i = 0; i < candidateDocs.size() && position < postings.size(); i++) {
+            int doc = candidateDocs.get(i);
+            position = postings.seek(position, doc);
+            if (position < postings.size() && postings.get(position) == doc) {
+                termFrequencies[i] += Bm25Scorer.fieldFrequency(field, postings.freq(position),
+                        lengths[doc], averageLength);
+            }
+        }
+    }
+
+    // The clause's term lists in one field, or null if a term is missing from it
+    private static PostingList[] termLists(SearchQuery.Proximity proximity, TermIndex index) {
+        PostingList[] lists = new PostingList[proximity.size()];
+        for (int t = 0; t < lists.length; t++) {
+            lists[t] = index.get(proximity.term(t));
+            if (lists[t] == null) {
+                return null;
+            }
+        }
+        return lists;
+    }
+
+    private static boolean holdsIn(SearchQuery.Proximity proximity, PostingList[] lists, int doc) {
+        if (lists == null) {
+            return false;
+        }
+        int[][] positions = new int[lists.length][];
+        int[] counts = new int[lists.length];
+        for (int t = 0; t < lists.length; t++) {
+            int index = lists[t].indexOf(doc);
+            if (index < 0) {
+                return false;
+            }
+            positions[t] = new int[lists[t].freq(index)];
+            counts[t] = lists[t].positions(index, positions[t]);
+        }
+        return proximity.matches(positions, counts);
+    }
+
+    // A term's posting lists in a set of SearchQuery fields; tags and moods are keyed by label
+    private List<PostingList> postings(String term, String label, int fields) {
+        List<PostingList> lists = new ArrayList<>(4);
+        addIfPresent(lists, (fields & SearchQuery.TITLE) != 0 ? titleIndex.get(term) : null);
+        addIfPresent(lists, (fields & SearchQuery.CONTENT) != 0 ? contentIndex.get(term) : null);
+        addIfPresent(lists, (fields & SearchQuery.TAGS) != 0 ? tagIndex.get(label) : null);
+        addIfPresent(lists, (fields & SearchQuery.MOOD) != 0 ? moodIndex.get(label) : null);
+        return lists;
+    }
+
+    private static void addIfPresent(List<PostingList> lists, PostingList postings) {
+        if (postings != null) {
+            lists.add(postings);
+        }
+    }
+
+    private TermIndex index(Field field) {
+        switch (field) {
+            case TITLE:
+                return titleIndex;
+            case CONTENT:
+                return contentIndex;
+            default:
+                return tagIndex;
+        }
+    }
+
+    // The days between two dates, inclusive; null bounds are open
+    private NavigableMap<Integer, PostingList> dateRange(LocalDate fromDate, LocalDate toDate) {
+        int from = fromDate == null ? NO_DATE + 1 : epochDay(fromDate);
+        int to = toDate == null ? Integer.MAX_VALUE : epochDay(toDate);
+        if (from > to) {
+            return Collections.emptyNavigableMap();
+        }
+        return dateIndex.subMap(from, true, to, true);
+    }
+
+    // Clamped, so LocalDate.MIN and MAX work as open bounds
+    private static int epochDay(LocalDate date) {
+        return (int) Math.max(Math.min(date.toEpochDay(), Integer.MAX_VALUE), NO_DATE + 1);
+    }
+
+    // Bulk building
+
+    private static List<DiaryEntry> lastOccurrences(List<DiaryEntry> entries) {
+        Map<String, Integer> lastIndex = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (int i = 0; i < entries.size(); i++) {
+            DiaryEntry entry = entries.get(i);
+            if (entry != null && entry.getId() != null) {
+                lastIndex.put(entry.getId(), i);
+            }
+        }
+
+        List<DiaryEntry> unique = new ArrayList<>(lastIndex.size());
+        for (int i = 0; i < entries.size(); i++) {
+            DiaryEntry entry = entries.get(i);
+            if (entry != null && entry.getId() != null && lastIndex.get(entry.getId()) == i) {
+                unique.add(entry);
+            }
+        }
+        return unique;
+    }
+
+    private static IndexSegment buildShard(List<DiaryEntry> entries, Analyzer analyzer, boolean positional) {
+        IndexSegment segment = new IndexSegment(entries.size(), analyzer, positional);
+        for (DiaryEntry entry : entries) {
+            segment.addDoc(entry);
+        }
+        return segment;
+    }
+
+    /**
+     * Concatenate segments into one dense segment, dropping removed and deleted
+     * docs. Surviving docs are renumbered in order, part by part, so every
+     * appended posting lands after the previous part's and the merged lists
+     * stay sorted without comparing. The parts themselves are left untouched.
+     * They are all analysed alike, so the merged segment takes the first's analyzer.
+     */
+    static IndexSegment merge(IndexSegment[] parts, BitSet[] deleted) {
+        int[][] newDocs = mergeMapping(parts, deleted);
+        int total = 0;
+        for (IndexSegment segment : parts) {
+            total += segment.liveDocs;
+        }
+        for (BitSet partDeletes : deleted) {
+            total -= partDeletes == null ? 0 : partDeletes.cardinality();
+        }
+
+        // Positions survive a merge only if every part has them
+        boolean positional = true;
+        for (IndexSegment segment : parts) {
+            positional &= segment.contentIndex.isPositional();
+        }
+
+        IndexSegment merged = new IndexSegment(total, parts[0].analyzer, positional);
+        for (int part = 0; part < parts.length; part++) {
+            IndexSegment segment = parts[part];
+            int[] mapping = newDocs[part];
+
+            for (int doc = 0; doc < segment.maxDoc; doc++) {
+                int newDoc = mapping[doc];
+                if (newDoc < 0) {
+                    continue;
+                }
+                merged.docs[newDoc] = segment.docs[doc];
+                merged.entryIds[newDoc] = segment.entryIds[doc];
+                merged.docsByEntry.put(segment.docs[doc], newDoc);
+                merged.docIdsByEntry.put(segment.entryIds[doc], newDoc);
+                merged.createdAt[newDoc] = segment.createdAt[doc];
+                merged.modifiedAt[newDoc] = segment.modifiedAt[doc];
+                merged.epochDays[newDoc] = segment.epochDays[doc];
+                for (int field = 0; field < merged.fieldLengths.length; field++) {
+                    int length = segment.fieldLengths[field][doc];
+                    merged.fieldLengths[field][newDoc] = length;
+                    merged.fieldLengthTotals[field] += length;
+                }
+            }
+            for (Map.Entry<Integer, PostingList> dayDocs : segment.dateIndex.entrySet()) {
+                PostingList mergedDocs = merged.dateIndex.computeIfAbsent(dayDocs.getKey(), k -> new PostingList());
+                mergedDocs.appendMapped(dayDocs.getValue(), mapping);
+                if (mergedDocs.isEmpty()) {
+                    merged.dateIndex.remove(dayDocs.getKey());
+                }
+            }
+            merged.favoriteDocs.appendMapped(segment.favoriteDocs, mapping);
+        }
+        merged.maxDoc = total;
+        merged.liveDocs = total;
+
+        if (total < MIN_SHARD_SIZE) {
+            mergeTerms(merged.titleIndex, parts, newDocs, s -> s.titleIndex);
+            mergeTerms(merged.contentIndex, parts, newDocs, s -> s.contentIndex);
+            mergeTerms(merged.tagIndex, parts, newDocs, s -> s.tagIndex);
+            mergeTerms(merged.moodIndex, parts, newDocs, s -> s.moodIndex);
+            if (merged.titleWords != null) {
+                mergeTerms(merged.titleWords, parts, newDocs, s -> s.titleWords);
+            }
+            merged.buildForwardIndex(parts, newDocs, 0, parts.length);
+            return merged;
+        }
+
+        // The fields share nothing, so their term tables are merged side by side
+        ForkJoinTask.invokeAll(
+                ForkJoinTask.adapt(() -> mergeTerms(merged.titleIndex, parts, newDocs, s -> s.titleIndex)),
+                ForkJoinTask.adapt(() -> mergeTerms(merged.contentIndex, parts, newDocs, s -> s.contentIndex)),
+                ForkJoinTask.adapt(() -> mergeTerms(merged.tagIndex, parts, newDocs, s -> s.tagIndex)),
+                ForkJoinTask.adapt(() -> mergeTerms(merged.moodIndex, parts, newDocs, s -> s.moodIndex)),
+                ForkJoinTask.adapt(() -> {
+                    if (merged.titleWords != null) {
+                        mergeTerms(merged.titleWords, parts, newDocs, s -> s.titleWords);
+                    }
+                }));
+
+        List<ForkJoinTask<?>> forwardIndexes = new ArrayList<>(parts.length);
+        for (int part = 0; part < parts.length; part++) {
+            int only = part;
+            forwardIndexes.add(ForkJoinTask.adapt(() -> merged.buildForwardIndex(parts, newDocs, only, only + 1)));
+        }
+        ForkJoinTask.invokeAll(forwardIndexes);
+
+        return merged;
+    }
+
+    /**
+     * Per part, the doc ID each doc gets in {@link #merge}, or -1 if it is dropped
+     */
+    static int[][] mergeMapping(IndexSegment[] parts, BitSet[] deleted) {
+        int[][] newDocs = new int[parts.length][];
+        int total = 0;
+        for (int part = 0; part < parts.length; part++) {
+            IndexSegment segment = parts[part];
+            int[] mapping = new int[segment.maxDoc];
+            for (int doc = 0; doc < segment.maxDoc; doc++) {
+                boolean live = segment.docs[doc] != null && (deleted[part] == null || !deleted[part].get(doc));
+                mapping[doc] = live ? total++ : -1;
+            }
+            newDocs[part] = mapping;
+        }
+        return newDocs;
+    }
+
+    private static void mergeTerms(TermIndex target,
+                                   IndexSegment[] parts,
+                                   int[][] newDocs,
+                                   Function<IndexSegment, TermIndex> field) {
+        for (int part = 0; part < parts.length; part++) {
+            int[] mapping = newDocs[part];
+            field.apply(parts[part]).forEach(postings -> {
+                PostingList merged = target.getOrCreate(postings.term());
+                merged.appendMapped(postings, mapping);
+                if (merged.isEmpty()) {
+                    target.remove(merged); // every doc with the term was deleted
+                }
+            });
+        }
+    }
+
+    /**
+     * Give the surviving docs of parts [fromPart, toPart) forward index records
+     * pointing at this segment's lists
+     */
+    private void buildForwardIndex(IndexSegment[] parts, int[][] newDocs, int fromPart, int toPart) {
+        for (int part = fromPart; part < toPart; part++) {
+            IndexSegment segment = parts[part];
+            for (int doc = 0; doc < segment.maxDoc; doc++) {
+                int newDoc = newDocs[part][doc];
+                if (newDoc < 0) {
+                    continue;
+                }
+                IndexedTerms old = segment.termsByDoc[doc];
+                if (old == null) {
+                    continue; // the part was read from a file
+                }
+                IndexedTerms terms = new IndexedTerms();
+                terms.titlePostings = remap(old.titlePostings, titleIndex);
+                terms.titleWordPostings = remap(old.titleWordPostings, titleWords);
+                terms.contentPostings = remap(old.contentPostings, contentIndex);
+                terms.tagPostings = remap(old.tagPostings, tagIndex);
+                terms.moodPostings = remap(old.moodPostings, moodIndex);
+                termsByDoc[newDoc] = terms;
+            }
+        }
+    }
+
+    private static PostingList[] remap(PostingList[] postings, TermIndex index) {
+        if (postings.length == 0) {
+            return IndexedTerms.NONE;
+        }
+        PostingList[] remapped = new PostingList[postings.length];
+        for (int i = 0; i < postings.length; i++) {
+            remapped[i] = index.get(postings[i].term());
+        }
+        return remapped;
+    }
+
+    // Saving and loading
+
+    /**
+     * Save the docs and postings for {@link SegmentFile}. Only a dense
+     * segment, one without removed docs, can be saved.
+     */
+    void writeTo(SegmentFile.Output out) throws IOException {
+        if (liveDocs != maxDoc) {
+            throw new IllegalStateException("Only a compacted segment can be saved");
+        }
+
+        out.varint(maxDoc);
+        for (int doc = 0; doc < maxDoc; doc++) {
+            out.string(docs[doc].getId());
+            LocalDateTime modified = modifiedAt[doc];
+            out.data.writeLong(modified != null ? modified.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE);
+            out.data.writeInt(modified != null ? modified.getNano() : 0);
+            out.data.writeLong(createdAt[doc]);
+            out.data.writeInt(epochDays[doc]);
+            for (int[] lengths : fieldLengths) {
+                out.varint(lengths[doc]);
+            }
+        }
+
+        out.varint(favoriteDocs.size());
+        int previous = 0;
+        for (int i = 0; i < favoriteDocs.size(); i++) {
+            out.varint(favoriteDocs.get(i) - previous);
+            previous = favoriteDocs.get(i);
+        }
+
+        titleIndex.writeTo(out);
+        contentIndex.writeTo(out);
+        tagIndex.writeTo(out);
+        moodIndex.writeTo(out);
+        if (titleWords != null) {
+            titleWords.writeTo(out);
+        }
+    }
+
+    /**
+     * Load a segment saved by {@link #writeTo}, attaching each doc to the
+     * entry with its ID. Docs whose entry is missing, or was modified after
+     * the doc was indexed, are marked in {@code stale}; the missing ones get
+     * a placeholder entry so doc counts stay consistent until they are deleted.
+     */
+    static IndexSegment readFrom(SegmentFile.Input in, Analyzer analyzer, boolean positional,
+                                 Map<String, DiaryEntry> entries, BitSet stale) {
+        int count = in.varint();
+        IndexSegment segment = new IndexSegment(count, analyzer, positional);
+        for (int doc = 0; doc < count; doc++) {
+            String id = in.string();
+            long modifiedSeconds = in.data.getLong();
+            int modifiedNanos = in.data.getInt();
+            DiaryEntry entry = entries.get(id);
+            if (entry != null && isVersion(entry.getModifiedDate(), modifiedSeconds, modifiedNanos)) {
+                segment.modifiedAt[doc] = entry.getModifiedDate();
+            } else {
+                if (entry == null) {
+                    entry = new DiaryEntry();
+                    entry.setId(id);
+                }
+                segment.modifiedAt[doc] = modifiedSeconds == Long.MIN_VALUE ? null
+                        : LocalDateTime.ofEpochSecond(modifiedSeconds, modifiedNanos, ZoneOffset.UTC);
+                stale.set(doc);
+            }
+            segment.docs[doc] = entry;
+            segment.entryIds[doc] = id;
+            segment.docsByEntry.put(entry, doc);
+            segment.docIdsByEntry.put(id, doc);
+            segment.createdAt[doc] = in.data.getLong();
+            int day = in.data.getInt();
+            segment.epochDays[doc] = day;
+            if (day != NO_DATE) {
+                segment.dateIndex.computeIfAbsent(day, k -> new PostingList()).add(doc);
+            }
+            for (int field = 0; field < segment.fieldLengths.length; field++) {
+                int length = in.varint();
+                segment.fieldLengths[field][doc] = length;
+                segment.fieldLengthTotals[field] += length;
+            }
+        }
+
+        int favorites = in.varint();
+        int doc = 0;
+        for (int i = 0; i < favorites; i++) {
+            doc += in.varint();
+            segment.favoriteDocs.add(doc);
+        }
+
+        segment.titleIndex.readFrom(in);
+        segment.contentIndex.readFrom(in);
+        segment.tagIndex.readFrom(in);
+        segment.moodIndex.readFrom(in);
+        if (segment.titleWords != null) {
+            segment.titleWords.readFrom(in);
+        }
+        segment.maxDoc = count;
+        segment.liveDocs = count;
+        return segment;
+    }
+
+    // Whether a stored modification time (Long.MIN_VALUE seconds for none) is the entry's
+    private static boolean isVersion(LocalDateTime modified, long seconds, int nanos) {
+        if (modified == null) {
+            return seconds == Long.MIN_VALUE;
+        }
+        return modified.toEpochSecond(ZoneOffset.UTC) == seconds && modified.getNano() == nanos;
+    }
+
+    // Per-query numbers that must be the same in every segment for scores to compare
+    static final class Scoring {
+        final List<String> terms;               // analysed, for titles and content
+        final List<String> labels;              // normalised, for tags
+        final int[] fields;                     // per search term, SearchQuery field bits
+        final double[] idf;                     // per search term
+        final double[] averageFieldLength;      // per field
+        final long recentCutoff;                // epoch seconds
+
+        Scoring(List<String> terms, List<String> labels, int[] fields, double[] idf, double[] averageFieldLength) {
+            this.terms = terms;
+            this.labels = labels;
+            this.fields = fields;
+            this.idf = idf;
+            this.averageFieldLength = averageFieldLength;
+            this.recentCutoff = LocalDateTime.now().minusDays(7).toEpochSecond(ZoneOffset.UTC);
+        }
+    }
+
+    // Feeds tokenizer output through the analyzer straight into a field's term index
+    private static final class FieldIndexer implements Tokenizer.TermSink {
+        private final Analyzer analyzer;
+        private final Analyzer.TermBuffer term = new Analyzer.TermBuffer();
+        private int doc;
+        private TermIndex index;
+        private TermIndex words;
+        private List<PostingList> touched;
+        private List<PostingList> touchedWords;
+        private int length;
+
+        FieldIndexer(Analyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+
+        void start(int doc, TermIndex index, TermIndex words, List<PostingList> touched,
+                   List<PostingList> touchedWords) {
+            this.doc = doc;
+            this.index = index;
+            this.words = words;
+            this.touched = touched;
+            this.touchedWords = touchedWords;
+            this.length = 0;
+        }
+
+        @Override
+        public void accept(char[] buffer, int termLength) {
+            if (termLength <= 1) {
+                return; // Ignore single characters
+            }
+            if (words != null) {
+                PostingList word = words.getOrCreate(buffer, termLength);
+                if (word.addOccurrence(doc)) {
+                    touchedWords.add(word);
+                }
+            }
+
+            PostingList postings;
+            if (analyzer.isPlain()) {
+                postings = index.getOrCreate(buffer, termLength);
+            } else {
+                term.set(buffer, termLength);
+                analyzer.apply(term);
+                postings = index.getOrCreate(term.chars, term.length);
+            }
+            if (postings.addOccurrence(doc, length)) {
+                touched.add(postings);
+            }
+            length++;
+        }
+    }
+
+    // Postings a doc was added to, per field. Holding the lists themselves rather
+    // than term strings keeps one shared key per term instead of one per doc.
+    private static class IndexedTerms {
+        private static final PostingList[] NONE = new PostingList[0];
+
+        private PostingList[] titlePostings = NONE;
+        private PostingList[] titleWordPostings = NONE;
+        private PostingList[] contentPostings = NONE;
+        private PostingList[] tagPostings = NONE;
+        private PostingList[] moodPostings = NONE;
+    }
+}
@@ -0,0 +1,566 @@
+package com.diary.manager.models;
+
+import com.diary.manager.models.Bm25Scorer.Field;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable view of the whole index, read by searches without locking.
+ *
+ * A snapshot is a list of segments, oldest first, each with the set of its
+ * docs deleted since it was built. Published segments and deletion sets are
+ * never modified: a writer collects a batch of {@link Changes} (new entries
+ * go into one fresh segment, removals copy the affected deletion set) and
+ * publishes the result as the next generation. Doc IDs are numbered across
+ * segments in order, so results tie-break exactly as in a single index.
+ *
+ * A write therefore costs one small segment for its own entries plus
+ * copies of the deletion sets it touches, however large the index is.
+ * Merging is left to a background merger ({@link #findMerge}): whenever
+ * {@link #MERGE_FACTOR} of the newest segments have reached the same size
+ * tier they are merged into one, and any segment that is mostly deleted is
+ * rewritten. Each entry is thus copied O(log n) times over its life instead
+ * of once per write.
+ *
+ * Scores use document counts, term frequencies and field lengths summed
+ * over all segments with deleted docs left out, so they are the same as for
+ * an index built from scratch.
+ *
+ * A merge keeps the generation but renumbers docs, so every snapshot also
+ * has an ID of its own; doc IDs only carry over between searches on the
+ * same one.
+ */
+final class IndexSnapshot {
+
+    // Segments per size tier before they are merged into one of the next tier
+    static final int MERGE_FACTOR = 8;
+
+    // Rewrite a segment once its deleted docs outnumber live ones (and there are enough to matter)
+    private static final int MIN_DEAD_DOCS_TO_COMPACT = 1024;
+
+    // Past this many segments, writers merge themselves instead of waiting for the merger
+    static final int MAX_SEGMENTS = MERGE_FACTOR * MERGE_FACTOR;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final Analyzer analyzer;            // shared by every segment
+    private final IndexSegment[] segments;
+    private final BitSet[] deletes;             // per segment, null if nothing was deleted
+    private final long[] fieldLengthTotals;     // field -> length summed over live docs
+    private final long generation;
+    private final long id = NEXT_ID.incrementAndGet();
+    private final int[] segmentLiveDocs;        // per segment, counted once as deletes are immutable
+    private final int liveDocs;
+
+    private IndexSnapshot(Analyzer analyzer, IndexSegment[] segments, BitSet[] deletes, long[] fieldLengthTotals,
+                          long generation) {
+        this.analyzer = analyzer;
+        this.segments = segments;
+        this.deletes = deletes;
+        this.fieldLengthTotals = fieldLengthTotals;
+        this.generation = generation;
+
+        this.segmentLiveDocs = new int[segments.length];
+        int live = 0;
+        for (int i = 0; i < segments.length; i++) {
+            segmentLiveDocs[i] = segments[i].liveDocs() - deletedDocs(deletes[i]);
+            live += segmentLiveDocs[i];
+        }
+        this.liveDocs = live;
+    }
+
+    /**
+     * A snapshot of a single freshly built segment
+     */
+    static IndexSnapshot of(IndexSegment segment, long generation) {
+        long[] fieldLengthTotals = new long[Field.values().length];
+        for (Field field : Field.values()) {
+            fieldLengthTotals[field.ordinal()] = segment.fieldLengthTotal(field);
+        }
+        return new IndexSnapshot(segment.analyzer(), new IndexSegment[]{segment}, new BitSet[1], fieldLengthTotals,
+                generation);
+    }
+
+    /**
+     * A snapshot of a segment loaded from disk, with the docs that are out of
+     * date already deleted
+     */
+    static IndexSnapshot of(IndexSegment segment, BitSet deleted, long generation) {
+        long[] fieldLengthTotals = new long[Field.values().length];
+        for (Field field : Field.values()) {
+            long total = segment.fieldLengthTotal(field);
+            for (int doc = deleted.nextSetBit(0); doc >= 0; doc = deleted.nextSetBit(doc + 1)) {
+                total -= segment.fieldLength(field, doc);
+            }
+            fieldLengthTotals[field.ordinal()] = total;
+        }
+        return new IndexSnapshot(segment.analyzer(), new IndexSegment[]{segment},
+                new BitSet[]{deleted.isEmpty() ? null : deleted}, fieldLengthTotals, generation);
+    }
+
+    /**
+     * The live docs as one dense segment, for saving: the only segment if it
+     * has no deletions, otherwise a merge of all of them. Null if there are
+     * no segments.
+     */
+    IndexSegment compacted() {
+        if (segments.length == 0) {
+            return null;
+        }
+        if (segments.length == 1 && deletes[0] == null && segments[0].liveDocs() == segments[0].maxDoc()) {
+            return segments[0];
+        }
+        return IndexSegment.merge(segments, deletes);
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    long id() {
+        return id;
+    }
+
+    /**
+     * How the words of this index were analysed, and so how a query against it must be
+     */
+    Analyzer analyzer() {
+        return analyzer;
+    }
+
+    int liveDocs() {
+        return liveDocs;
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * The merge the policy asks for next, or null if there is none: a mostly
+     * deleted segment to rewrite, else the oldest run of {@link #MERGE_FACTOR}
+     * adjacent segments in the same size tier. A segment's tier is that of
+     * the docs it was built with, as deletes moving segments down a tier would
+     * break up runs that are otherwise due. Past {@link #MAX_SEGMENTS}, the
+     * adjacent run with the fewest docs is merged whatever its tiers.
+     *
+     * Segments arrive at the end while merges are in flight, so more than
+     * MERGE_FACTOR small ones can pile up there; taking the oldest run keeps
+     * the leftovers at the end, where the next run picks them up.
+     */
+    Merge findMerge() {
+        for (int i = segments.length - 1; i >= 0; i--) {
+            int dead = segments[i].liveDocs() - liveDocs(i);
+            if (dead >= MIN_DEAD_DOCS_TO_COMPACT && dead >= liveDocs(i)) {
+                return new Merge(this, i, i + 1);
+            }
+        }
+
+        int runStart = 0;
+        for (int i = 1; i < segments.length; i++) {
+            if (tier(segments[i].liveDocs()) != tier(segments[runStart].liveDocs())) {
+                runStart = i;
+            } else if (i - runStart + 1 == MERGE_FACTOR) {
+                return new Merge(this, runStart, i + 1);
+            }
+        }
+
+        if (segments.length <= MAX_SEGMENTS) {
+            return null;
+        }
+        int from = 0;
+        long fewest = Long.MAX_VALUE;
+        for (int start = 0; start + MERGE_FACTOR <= segments.length; start++) {
+            long docs = 0;
+            for (int i = start; i < start + MERGE_FACTOR; i++) {
+                docs += liveDocs(i);
+            }
+            if (docs < fewest) {
+                fewest = docs;
+                from = start;
+            }
+        }
+        return new Merge(this, from, from + MERGE_FACTOR);
+    }
+
+    /**
+     * Start a batch of changes on top of this snapshot
+     */
+    Changes edit() {
+        return new Changes(this);
+    }
+
+    List<DiaryEntry> liveEntries() {
+        List<DiaryEntry> entries = new ArrayList<>(liveDocs);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].collectLiveEntries(deletes[i], entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Compile a query against this snapshot, with words that have no field
+     * prefix searched in the given fields
+     */
+    QueryPlan plan(SearchQuery query, int defaultFields) {
+        return QueryPlan.compile(query, segments, deletes, liveDocs, defaultFields);
+    }
+
+    /**
+     * Score every entry that matches the query and passes the filters.
+     *
+     * The hits of a wider query may be given (or null), one whose matches
+     * include all of this one's, with the rest of this query: the clauses
+     * those hits were not matched against. If they were found on this
+     * snapshot and are fewer than the docs the query would read itself, only
+     * they are checked, and only against the rest, so narrowing a search down
+     * as the user types costs in proportion to what it found so far.
+     */
+    ScoredHits search(SearchQuery query,
+                      boolean searchTitle,
+                      boolean searchContent,
+                      boolean searchTags,
+                      LocalDate fromDate,
+                      LocalDate toDate,
+                      boolean favoritesOnly,
+                      ScoredHits wider,
+                      SearchQuery rest) {
+
+        QueryPlan plan = plan(query, SearchQuery.fields(searchTitle, searchContent, searchTags));
+
+        // A date range narrower than the query is read first, from the sorted
+        // date index, and the query only probes its docs; otherwise the dates
+        // of the query's matches are checked
+        long readCost = plan.estimate();
+        boolean startFromDates = false;
+        if (fromDate != null || toDate != null) {
+            int inRange = dateRangeCount(fromDate, toDate);
+            startFromDates = inRange < readCost;
+            readCost = Math.min(readCost, inRange);
+        }
+        boolean refine = wider != null && wider.foundOn(this) && wider.size() < readCost;
+        QueryPlan matching = refine ? plan(rest, SearchQuery.fields(searchTitle, searchContent, searchTags))
+                : plan;
+
+        // Run the plan and filter per segment, all before scoring
+        PostingList[] candidates = new PostingList[segments.length];
+        int hitCount = 0;
+        int docBase = 0;
+        for (int i = 0; i < segments.length; i++) {
+            SearchCancellation.check();
+            if (refine) {
+                PostingList found = wider.docsBetween(docBase, docBase + segments[i].maxDoc());
+                candidates[i] = segments[i].applyFilters(matching.run(i, found), fromDate, toDate, favoritesOnly);
+            } else if (startFromDates) {
+                PostingList inRange = PostingList.without(segments[i].docsInDateRange(fromDate, toDate), deletes[i]);
+                candidates[i] = segments[i].applyFilters(plan.run(i, inRange), null, null, favoritesOnly);
+            } else {
+                candidates[i] = segments[i].applyFilters(plan.run(i), fromDate, toDate, favoritesOnly);
+            }
+            hitCount += candidates[i].size();
+            docBase += segments[i].maxDoc();
+        }
+        if (hitCount == 0) {
+            return new ScoredHits(id, refine, new DiaryEntry[0], new int[0], new double[0]);
+        }
+
+        // Statistics over the whole snapshot
+        int[] docFreqs = plan.docFreqs();
+        double[] weights = plan.scoringWeights();
+        double[] idf = new double[docFreqs.length];
+        for (int t = 0; t < idf.length; t++) {
+            idf[t] = Bm25Scorer.idf(docFreqs[t], liveDocs) * weights[t];
+        }
+        double[] averageFieldLength = new double[Field.values().length];
+        if (liveDocs > 0) {
+            for (Field field : Field.values()) {
+                averageFieldLength[field.ordinal()] = (double) fieldLengthTotals[field.ordinal()] / liveDocs;
+            }
+        }
+        IndexSegment.Scoring scoring = new IndexSegment.Scoring(plan.scoringTerms(), plan.scoringLabels(),
+                plan.scoringFields(),
+                idf, averageFieldLength);
+
+        // Calculate relevance scores, numbering each segment's docs after the previous one's
+        DiaryEntry[] entries = new DiaryEntry[hitCount];
+        int[] docs = new int[hitCount];
+        double[] scores = new double[hitCount];
+        docBase = 0;
+        int hit = 0;
+        for (int i = 0; i < segments.length; i++) {
+            SearchCancellation.check();
+            segments[i].calculateRelevanceScores(candidates[i], scoring, docBase, entries, docs, scores, hit);
+            docBase += segments[i].maxDoc();
+            hit += candidates[i].size();
+        }
+
+        return new ScoredHits(id, refine, entries, docs, scores);
+    }
+
+    List<DiaryEntry> entriesInDateRange(LocalDate fromDate, LocalDate toDate) {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].collectEntries(PostingList.without(segments[i].docsInDateRange(fromDate, toDate),
+                    deletes[i]), entries);
+        }
+        return entries;
+    }
+
+    List<DiaryEntry> entriesWithTag(String normalizedTag) {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].collectEntries(PostingList.without(segments[i].docsWithTag(normalizedTag), deletes[i]),
+                    entries);
+        }
+        return entries;
+    }
+
+    List<DiaryEntry> favoriteEntries() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].collectEntries(PostingList.without(segments[i].favoriteDocs(), deletes[i]), entries);
+        }
+        return entries;
+    }
+
+    /**
+     * The most frequent title words and tags starting with the prefix
+     */
+    List<String> collectSuggestions(String normalizedPartial, int maxSuggestions) {
+        SuggestionIndex[] dictionaries = new SuggestionIndex[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            dictionaries[i] = segments[i].suggestionIndex();
+        }
+        return SuggestionIndex.top(dictionaries, deletes, normalizedPartial, maxSuggestions);
+    }
+
+    Map<String, Integer> statistics() {
+        int docIdRange = 0;
+        int favorites = 0;
+        Set<LocalDate> dates = new HashSet<>();
+        for (int i = 0; i < segments.length; i++) {
+            docIdRange += segments[i].maxDoc();
+            favorites += PostingList.without(segments[i].favoriteDocs(), deletes[i]).size();
+            segments[i].collectLiveDates(deletes[i], dates);
+        }
+
+        Map<String, Integer> stats = new HashMap<>();
+        stats.put("Total Entries", liveDocs);
+        stats.put("Doc ID Range", docIdRange);
+        stats.put("Title Index Size", liveTermCount(Field.TITLE));
+        stats.put("Content Index Size", liveTermCount(Field.CONTENT));
+        stats.put("Tag Index Size", liveTermCount(Field.TAGS));
+        stats.put("Date Index Size", dates.size());
+        stats.put("Favorites", favorites);
+        stats.put("Segments", segments.length);
+        return stats;
+    }
+
+    private int liveTermCount(Field field) {
+        if (segments.length == 1) {
+            return segments[0].liveTermCount(field, deletes[0]);
+        }
+        Set<String> terms = new HashSet<>();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].collectLiveTerms(field, deletes[i], terms);
+        }
+        return terms.size();
+    }
+
+    private int dateRangeCount(LocalDate fromDate, LocalDate toDate) {
+        int count = 0;
+        for (IndexSegment segment : segments) {
+            count += segment.dateRangeCount(fromDate, toDate);
+        }
+        return count;
+    }
+
+    private boolean isDeleted(int segment, int doc) {
+        return deletes[segment] != null && deletes[segment].get(doc);
+    }
+
+    private int liveDocs(int segment) {
+        return segmentLiveDocs[segment];
+    }
+
+    private static int deletedDocs(BitSet deleted) {
+        return deleted == null ? 0 : deleted.cardinality();
+    }
+
+    // Size tier of a segment: 0 up to MERGE_FACTOR - 1 docs, 1 up to MERGE_FACTOR^2 - 1, ...
+    private static int tier(int docs) {
+        int tier = 0;
+        for (long limit = MERGE_FACTOR; docs >= limit; limit *= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * One writer's batch of changes. Nothing is visible to searches until
+     * {@link #publish()} returns the new snapshot.
+     */
+    static final class Changes {
+        private final IndexSnapshot origin;
+        private final BitSet[] deletes;
+        private final boolean[] copied;         // deletes[i] is already this batch's own copy
+        private final long[] fieldLengthTotals;
+        private IndexSegment added;
+
+        private Changes(IndexSnapshot origin) {
+            this.origin = origin;
+            this.deletes = origin.deletes.clone();
+            this.copied = new boolean[deletes.length];
+            this.fieldLengthTotals = origin.fieldLengthTotals.clone();
+        }
+
+        /**
+         * Add an entry, replacing its previous version if it is already indexed
+         */
+        void add(DiaryEntry entry, boolean positional) {
+            if (entry == null || entry.getId() == null) {
+                return;
+            }
+            deleteFromSegments(entry);
+            if (added == null) {
+                added = new IndexSegment(origin.analyzer, positional);
+            }
+            added.add(entry);
+        }
+
+        void remove(DiaryEntry entry) {
+            if (entry == null || entry.getId() == null) {
+                return;
+            }
+            deleteFromSegments(entry);
+            if (added != null) {
+                added.remove(entry);
+            }
+        }
+
+        IndexSnapshot publish() {
+            List<IndexSegment> segments = new ArrayList<>(Arrays.asList(origin.segments));
+            List<BitSet> segmentDeletes = new ArrayList<>(Arrays.asList(deletes));
+            if (added != null && added.liveDocs() > 0) {
+                segments.add(added);
+                segmentDeletes.add(null);
+                for (Field field : Field.values()) {
+                    fieldLengthTotals[field.ordinal()] += added.fieldLengthTotal(field);
+                }
+            }
+
+            // Drop segments this batch emptied; merges are planned by findMerge
+            for (int i = copied.length - 1; i >= 0; i--) {
+                if (copied[i] && segments.get(i).liveDocs() == deletedDocs(deletes[i])) {
+                    segments.remove(i);
+                    segmentDeletes.remove(i);
+                }
+            }
+
+            return new IndexSnapshot(origin.analyzer, segments.toArray(new IndexSegment[0]),
+                    segmentDeletes.toArray(new BitSet[0]), fieldLengthTotals, origin.generation + 1);
+        }
+
+        private void deleteFromSegments(DiaryEntry entry) {
+            // An entry is live in at most one segment; newer ones are likelier
+            for (int i = origin.segments.length - 1; i >= 0; i--) {
+                Integer doc = origin.segments[i].docOf(entry);
+                if (doc == null) {
+                    continue;
+                }
+                if (deletes[i] != null && deletes[i].get(doc)) {
+                    if (copied[i] && !origin.isDeleted(i, doc)) {
+                        return;     // this batch deleted it already, so it is live nowhere else
+                    }
+                    continue;
+                }
+                if (!copied[i]) {
+                    deletes[i] = deletes[i] == null ? new BitSet() : (BitSet) deletes[i].clone();
+                    copied[i] = true;
+                }
+                deletes[i].set(doc);
+                for (Field field : Field.values()) {
+                    fieldLengthTotals[field.ordinal()] -= origin.segments[i].fieldLength(field, doc);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A range of a snapshot's segments to be merged into one. The merge itself
+     * runs without the writer lock; {@link #applyTo} then swaps the result
+     * into whatever snapshot is current by then, under the lock.
+     */
+    static final class Merge {
+        private final IndexSegment[] sources;
+        private final BitSet[] sourceDeletes;   // as of when the merge was planned
+        private IndexSegment merged;
+
+        private Merge(IndexSnapshot origin, int from, int to) {
+            this.sources = Arrays.copyOfRange(origin.segments, from, to);
+            this.sourceDeletes = Arrays.copyOfRange(origin.deletes, from, to);
+        }
+
+        void run() {
+            merged = IndexSegment.merge(sources, sourceDeletes);
+        }
+
+        /**
+         * The current snapshot with the sources replaced by the merged segment.
+         * Docs deleted from the sources in the meantime are deleted from the
+         * merged segment too. If a source is gone, because it emptied or the
+         * index was rebuilt or merged by someone else, the merge is dropped
+         * and the snapshot returned as it is.
+         */
+        IndexSnapshot applyTo(IndexSnapshot current) {
+            // Segments are only ever appended after existing ones, so the sources are still in one run
+            int from = -1;
+            for (int i = 0; i < current.segments.length && from < 0; i++) {
+                if (current.segments[i] == sources[0]) {
+                    from = i;
+                }
+            }
+            if (from < 0 || from + sources.length > current.segments.length) {
+                return current;
+            }
+            for (int k = 0; k < sources.length; k++) {
+                if (current.segments[from + k] != sources[k]) {
+                    return current;
+                }
+            }
+
+            BitSet mergedDeletes = null;
+            int[][] newDocs = IndexSegment.mergeMapping(sources, sourceDeletes);
+            for (int k = 0; k < sources.length; k++) {
+                BitSet now = current.deletes[from + k];
+                if (now == null || now == sourceDeletes[k]) {
+                    continue;
+                }
+                for (int doc = now.nextSetBit(0); doc >= 0; doc = now.nextSetBit(doc + 1)) {
+                    int newDoc = newDocs[k][doc];
+                    if (newDoc >= 0) {
+                        if (mergedDeletes == null) {
+                            mergedDeletes = new BitSet();
+                        }
+                        mergedDeletes.set(newDoc);
+                    }
+                }
+            }
+
+            List<IndexSegment> segments = new ArrayList<>(Arrays.asList(current.segments));
+            List<BitSet> segmentDeletes = new ArrayList<>(Arrays.asList(current.deletes));
+            segments.subList(from, from + sources.length).clear();
+            segmentDeletes.subList(from, from + sources.length).clear();
+            if (merged.liveDocs() > deletedDocs(mergedDeletes)) {
+                segments.add(from, merged);
+                segmentDeletes.add(from, mergedDeletes);
+            }
+            // Same entries, so the same generation: cached results stay valid
+            return new IndexSnapshot(current.analyzer, segments.toArray(new IndexSegment[0]),
+                    segmentDeletes.toArray(new BitSet[0]), current.fieldLengthTotals, current.generation);
+        }
+    }
+}
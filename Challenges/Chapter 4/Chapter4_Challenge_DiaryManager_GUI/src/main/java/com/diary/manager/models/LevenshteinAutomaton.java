@@ -0,0 +1,77 @@
+package com.diary.manager.models;
+
+/**
+ * Accepts the strings within a given edit distance (insertions, deletions
+ * and substitutions) of one word, read a character at a time.
+ *
+ * A state is a row of the edit distance table: for each prefix of the word,
+ * the distance to the characters read so far, capped at one more than the
+ * allowed edits. Stepping computes the next row from the last, so the state
+ * reached by a prefix is shared by every string that starts with it, and a
+ * state whose whole row is over the limit is dead: nothing that continues
+ * that prefix can match. {@link TermDictionary} relies on that to skip
+ * whole ranges of terms.
+ *
+ * Immutable; states are plain arrays owned by the caller, who may reuse them.
+ */
+final class LevenshteinAutomaton {
+
+    private final char[] word;
+    private final int maxEdits;
+
+    LevenshteinAutomaton(String word, int maxEdits) {
+        this.word = word.toCharArray();
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * The state before any character is read
+     */
+    int[] start() {
+        int[] row = new int[word.length + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = Math.min(i, maxEdits + 1);
+        }
+        return row;
+    }
+
+    /**
+     * The state after reading one more character, written into next
+     */
+    int[] step(int[] row, char c, int[] next) {
+        next[0] = Math.min(row[0] + 1, maxEdits + 1);
+        for (int i = 1; i < row.length; i++) {
+            int cost = row[i - 1] + (word[i - 1] == c ? 0 : 1);
+            cost = Math.min(cost, row[i] + 1);
+            cost = Math.min(cost, next[i - 1] + 1);
+            next[i] = Math.min(cost, maxEdits + 1);
+        }
+        return next;
+    }
+
+    /**
+     * Whether the characters read so far are within the distance of the word
+     */
+    boolean isMatch(int[] row) {
+        return row[row.length - 1] <= maxEdits;
+    }
+
+    /**
+     * Whether some continuation of the characters read so far can still match
+     */
+    boolean canMatch(int[] row) {
+        for (int distance : row) {
+            if (distance <= maxEdits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Edit distance of the characters read so far from the word, for a matching state
+     */
+    int distance(int[] row) {
+        return row[row.length - 1];
+    }
+}
@@ -0,0 +1,352 @@
+package com.diary.manager.models;
+
+/**
+ * Martin Porter's suffix-stripping stemmer (1980), so that "walks",
+ * "walked" and "walking" all index as "walk". Works in place on a term
+ * buffer: a stem is never longer than its word, so nothing is allocated.
+ *
+ * Only words made of lower-case ASCII letters are stemmed; anything else
+ * (numbers, apostrophes, accented or case-sensitive words) is left alone.
+ *
+ * Stateless apart from the word being stemmed, which is passed around
+ * explicitly, so one instance can be shared by any number of threads.
+ */
+public final class PorterStemmer implements Analyzer.TermFilter {
+
+    /**
+     * Stem a single word
+     */
+    public String stem(String word) {
+        char[] buffer = word.toCharArray();
+        int length = stem(buffer, buffer.length);
+        return new String(buffer, 0, length);
+    }
+
+    @Override
+    public void apply(Analyzer.TermBuffer term) {
+        term.length = stem(term.chars, term.length);
+    }
+
+    /**
+     * Stem the word in buffer[0, length) in place, returning the stem's length
+     */
+    int stem(char[] buffer, int length) {
+        if (length <= 2) {
+            return length;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] < 'a' || buffer[i] > 'z') {
+                return length;
+            }
+        }
+
+        Word word = new Word(buffer, length - 1);
+        word.step1ab();
+        if (word.k > 0) {
+            word.step1c();
+            word.step2();
+            word.step3();
+            word.step4();
+            word.step5();
+        }
+        return word.k + 1;
+    }
+
+    // The word b[0..k] being stemmed; j marks the end of the stem when a suffix matches
+    private static final class Word {
+        private final char[] b;
+        private int k;
+        private int j;
+
+        Word(char[] b, int k) {
+            this.b = b;
+            this.k = k;
+        }
+
+        // b[i] is a consonant
+        private boolean cons(int i) {
+            switch (b[i]) {
+                case 'a':
+                case 'e':
+                case 'i':
+                case 'o':
+                case 'u':
+                    return false;
+                case 'y':
+                    return i == 0 || !cons(i - 1);
+                default:
+                    return true;
+            }
+        }
+
+        // Number of vowel-consonant sequences in b[0..j]: <c>(vc)^m<v>
+        private int m() {
+            int n = 0;
+            int i = 0;
+            while (true) {
+                if (i > j) {
+                    return n;
+                }
+                if (!cons(i)) {
+                    break;
+                }
+                i++;
+            }
+            i++;
+            while (true) {
+                while (true) {
+                    if (i > j) {
+                        return n;
+                    }
+                    if (cons(i)) {
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                n++;
+                while (true) {
+                    if (i > j) {
+                        return n;
+                    }
+                    if (!cons(i)) {
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+            }
+        }
+
+        // b[0..j] contains a vowel
+        private boolean vowelInStem() {
+            for (int i = 0; i <= j; i++) {
+                if (!cons(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // b[i-1..i] is a double consonant
+        private boolean doubleConsonant(int i) {
+            return i >= 1 && b[i] == b[i - 1] && cons(i);
+        }
+
+        // b[i-2..i] is consonant-vowel-consonant and the last one is not w, x or y,
+        // as in "hop" (so "hoping" keeps its e: hope)
+        private boolean cvc(int i) {
+            if (i < 2 || !cons(i) || cons(i - 1) || !cons(i - 2)) {
+                return false;
+            }
+            char ch = b[i];
+            return ch != 'w' && ch != 'x' && ch != 'y';
+        }
+
+        private boolean ends(String suffix) {
+            int length = suffix.length();
+            if (length > k + 1 || suffix.charAt(length - 1) != b[k]) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (b[k - length + 1 + i] != suffix.charAt(i)) {
+                    return false;
+                }
+            }
+            j = k - length;
+            return true;
+        }
+
+        // Replace b[j+1..k] with the string
+        private void setTo(String replacement) {
+            for (int i = 0; i < replacement.length(); i++) {
+                b[j + 1 + i] = replacement.charAt(i);
+            }
+            k = j + replacement.length();
+        }
+
+        private void replaceIfMeasured(String replacement) {
+            if (m() > 0) {
+                setTo(replacement);
+            }
+        }
+
+        // Plurals and -ed or -ing: caresses -> caress, ponies -> poni, meetings -> meet
+        void step1ab() {
+            if (b[k] == 's') {
+                if (ends("sses")) {
+                    k -= 2;
+                } else if (ends("ies")) {
+                    setTo("i");
+                } else if (b[k - 1] != 's') {
+                    k--;
+                }
+            }
+            if (ends("eed")) {
+                if (m() > 0) {
+                    k--;
+                }
+            } else if ((ends("ed") || ends("ing")) && vowelInStem()) {
+                k = j;
+                if (ends("at")) {
+                    setTo("ate");
+                } else if (ends("bl")) {
+                    setTo("ble");
+                } else if (ends("iz")) {
+                    setTo("ize");
+                } else if (doubleConsonant(k)) {
+                    k--;
+                    char ch = b[k];
+                    if (ch == 'l' || ch == 's' || ch == 'z') {
+                        k++;
+                    }
+                } else if (m() == 1 && cvc(k)) {
+                    setTo("e");
+                }
+            }
+        }
+
+        // Terminal y to i when there is another vowel in the stem
+        void step1c() {
+            if (ends("y") && vowelInStem()) {
+                b[k] = 'i';
+            }
+        }
+
+        // Double suffixes to single ones: -ization -> -ize, -fulness -> -ful, ...
+        void step2() {
+            switch (b[k - 1]) {
+                case 'a':
+                    if (ends("ational")) { replaceIfMeasured("ate"); break; }
+                    if (ends("tional")) { replaceIfMeasured("tion"); break; }
+                    break;
+                case 'c':
+                    if (ends("enci")) { replaceIfMeasured("ence"); break; }
+                    if (ends("anci")) { replaceIfMeasured("ance"); break; }
+                    break;
+                case 'e':
+                    if (ends("izer")) { replaceIfMeasured("ize"); break; }
+                    break;
+                case 'l':
+                    if (ends("bli")) { replaceIfMeasured("ble"); break; }
+                    if (ends("alli")) { replaceIfMeasured("al"); break; }
+                    if (ends("entli")) { replaceIfMeasured("ent"); break; }
+                    if (ends("eli")) { replaceIfMeasured("e"); break; }
+                    if (ends("ousli")) { replaceIfMeasured("ous"); break; }
+                    break;
+                case 'o':
+                    if (ends("ization")) { replaceIfMeasured("ize"); break; }
+                    if (ends("ation")) { replaceIfMeasured("ate"); break; }
+                    if (ends("ator")) { replaceIfMeasured("ate"); break; }
+                    break;
+                case 's':
+                    if (ends("alism")) { replaceIfMeasured("al"); break; }
+                    if (ends("iveness")) { replaceIfMeasured("ive"); break; }
+                    if (ends("fulness")) { replaceIfMeasured("ful"); break; }
+                    if (ends("ousness")) { replaceIfMeasured("ous"); break; }
+                    break;
+                case 't':
+                    if (ends("aliti")) { replaceIfMeasured("al"); break; }
+                    if (ends("iviti")) { replaceIfMeasured("ive"); break; }
+                    if (ends("biliti")) { replaceIfMeasured("ble"); break; }
+                    break;
+                case 'g':
+                    if (ends("logi")) { replaceIfMeasured("log"); break; }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // -ic-, -full, -ness and the like
+        void step3() {
+            switch (b[k]) {
+                case 'e':
+                    if (ends("icate")) { replaceIfMeasured("ic"); break; }
+                    if (ends("ative")) { replaceIfMeasured(""); break; }
+                    if (ends("alize")) { replaceIfMeasured("al"); break; }
+                    break;
+                case 'i':
+                    if (ends("iciti")) { replaceIfMeasured("ic"); break; }
+                    break;
+                case 'l':
+                    if (ends("ical")) { replaceIfMeasured("ic"); break; }
+                    if (ends("ful")) { replaceIfMeasured(""); break; }
+                    break;
+                case 's':
+                    if (ends("ness")) { replaceIfMeasured(""); break; }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // -ant, -ence and the like, in context <c>vcvc<v>
+        void step4() {
+            switch (b[k - 1]) {
+                case 'a':
+                    if (ends("al")) break;
+                    return;
+                case 'c':
+                    if (ends("ance")) break;
+                    if (ends("ence")) break;
+                    return;
+                case 'e':
+                    if (ends("er")) break;
+                    return;
+                case 'i':
+                    if (ends("ic")) break;
+                    return;
+                case 'l':
+                    if (ends("able")) break;
+                    if (ends("ible")) break;
+                    return;
+                case 'n':
+                    if (ends("ant")) break;
+                    if (ends("ement")) break;
+                    if (ends("ment")) break;
+                    if (ends("ent")) break;
+                    return;
+                case 'o':
+                    if (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) break;
+                    if (ends("ou")) break;
+                    return;
+                case 's':
+                    if (ends("ism")) break;
+                    return;
+                case 't':
+                    if (ends("ate")) break;
+                    if (ends("iti")) break;
+                    return;
+                case 'u':
+                    if (ends("ous")) break;
+                    return;
+                case 'v':
+                    if (ends("ive")) break;
+                    return;
+                case 'z':
+                    if (ends("ize")) break;
+                    return;
+                default:
+                    return;
+            }
+            if (m() > 1) {
+                k = j;
+            }
+        }
+
+        // A final -e, and -ll to -l, when the stem is long enough
+        void step5() {
+            j = k;
+            if (b[k] == 'e') {
+                int measure = m();
+                if (measure > 1 || (measure == 1 && !cvc(k - 1))) {
+                    k--;
+                }
+            }
+            if (b[k] == 'l' && doubleConsonant(k) && m() > 1) {
+                k--;
+            }
+        }
+    }
+}
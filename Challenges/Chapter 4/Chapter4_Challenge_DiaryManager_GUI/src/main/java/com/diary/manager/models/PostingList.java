@@ -0,0 +1,571 @@
+package com.diary.manager.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Sorted list of int document IDs for one term. Backed by a plain int array,
+ * so each posting costs 4 bytes instead of a boxed String in a hash set.
+ * Doc IDs are handed out in increasing order, which keeps add() an append
+ * in the common case. Term lists also carry a parallel array with the
+ * number of times the term occurs in each doc.
+ *
+ * Positional term lists additionally record where in the field each
+ * occurrence is, as word offsets. A doc's offsets are stored as varint
+ * gaps (the first one from zero) in one shared byte array, so the usual
+ * small gaps cost a byte each; a parallel array holds where each doc's
+ * run of bytes starts.
+ *
+ * A list read from a {@link SegmentFile} starts out as a stub holding only
+ * its term and where its encoded form is; {@link TermIndex} decodes it the
+ * first time the term is looked up.
+ */
+final class PostingList {
+
+    static final PostingList EMPTY = new PostingList(null, new int[0], null, 0);
+
+    private final String term;
+    private int[] docs;
+    private int[] freqs;        // null for lists without term frequencies
+    private int size;
+
+    private byte[] positions;       // null for lists without positions
+    private int[] positionStarts;   // per doc, where its gaps start in positions
+    private int positionBytes;
+    private int lastPosition;       // of the last doc, while it is being indexed
+
+    private int savedAt = -1;                   // for a stub, where the encoded list starts
+    private volatile PostingList decoded;       // for a stub, the list once decoded
+
+    /**
+     * Create an empty list for an indexed term, tracking term frequencies
+     */
+    PostingList(String term) {
+        this(term, new int[4], new int[4], 0);
+    }
+
+    /**
+     * Create an empty list for an indexed term, tracking term frequencies
+     * and, if asked to, word positions
+     */
+    PostingList(String term, boolean positional) {
+        this(term);
+        if (positional) {
+            positions = new byte[8];
+            positionStarts = new int[4];
+        }
+    }
+
+    /**
+     * Create an empty list of doc IDs only (dates, favorites)
+     */
+    PostingList() {
+        this(null, new int[4], null, 0);
+    }
+
+    private PostingList(String term, int[] docs, int[] freqs, int size) {
+        this.term = term;
+        this.docs = docs;
+        this.freqs = freqs;
+        this.size = size;
+    }
+
+    /**
+     * Wrap an already sorted, duplicate-free array as an anonymous result list
+     */
+    static PostingList of(int[] sortedDocs, int size) {
+        return new PostingList(null, sortedDocs, null, size);
+    }
+
+    /**
+     * A stub for a saved list, decoded by {@link #decode} when first needed
+     */
+    static PostingList saved(String term, int savedAt) {
+        PostingList stub = new PostingList(term, null, null, 0);
+        stub.savedAt = savedAt;
+        return stub;
+    }
+
+    /**
+     * The indexed term this list belongs to, or null for a computed result
+     */
+    String term() {
+        return term;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int index) {
+        return docs[index];
+    }
+
+    /**
+     * Occurrences of the term in the doc at the given position
+     */
+    int freq(int index) {
+        return freqs != null ? freqs[index] : 1;
+    }
+
+    boolean hasPositions() {
+        return positions != null;
+    }
+
+    /**
+     * Decode the word positions of the doc at the given index into the array,
+     * which must hold at least freq(index) values. Returns how many there are.
+     */
+    int positions(int index, int[] into) {
+        int end = index + 1 < size ? positionStarts[index + 1] : positionBytes;
+        int count = 0;
+        int position = 0;
+        for (int p = positionStarts[index]; p < end; ) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = positions[p++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += gap;
+            into[count++] = position;
+        }
+        return count;
+    }
+
+    /**
+     * Index of a doc in the list, or a negative value if it is not there
+     */
+    int indexOf(int doc) {
+        return Arrays.binarySearch(docs, 0, size, doc);
+    }
+
+    /**
+     * First position at or after {@code from} holding a doc >= target, or size() if none
+     */
+    int seek(int from, int target) {
+        return gallop(docs, from, size, target);
+    }
+
+    /**
+     * Record one occurrence of the term in a doc. Docs are indexed one at a
+     * time with increasing IDs, so the doc is either the last one in the list
+     * or new. Returns true if the doc was added to the list.
+     */
+    boolean addOccurrence(int doc) {
+        if (size > 0 && docs[size - 1] == doc) {
+            freqs[size - 1]++;
+            return false;
+        }
+        if (!add(doc)) {
+            return false;
+        }
+        int index = size - 1;
+        if (docs[index] != doc) {
+            index = Arrays.binarySearch(docs, 0, size, doc);
+        }
+        freqs[index] = 1;
+        return true;
+    }
+
+    /**
+     * Record one occurrence of the term at a word position. Positions of a
+     * doc must arrive in increasing order, and its doc must be the newest
+     * one in the list, as they are while a segment indexes a doc.
+     */
+    boolean addOccurrence(int doc, int position) {
+        boolean added = addOccurrence(doc);
+        if (positions != null) {
+            if (docs[size - 1] != doc) {
+                throw new IllegalStateException("Positions must be added in doc order");
+            }
+            if (added) {
+                positionStarts[size - 1] = positionBytes;
+                writeGap(position);
+            } else {
+                writeGap(position - lastPosition);
+            }
+            lastPosition = position;
+        }
+        return added;
+    }
+
+    /**
+     * Add a doc ID, keeping the list sorted. Returns false if it was already present.
+     */
+    boolean add(int doc) {
+        if (size > 0 && docs[size - 1] >= doc) {
+            int index = Arrays.binarySearch(docs, 0, size, doc);
+            if (index >= 0) {
+                return false;
+            }
+            insertAt(-index - 1, doc);
+            return true;
+        }
+
+        if (size == docs.length) {
+            grow(Math.max(4, size + (size >> 1)));
+        }
+        docs[size++] = doc;
+        return true;
+    }
+
+    /**
+     * Append the docs of another list renumbered through newDocs, dropping
+     * those mapped to -1. The mapping must keep the other list's order and
+     * put every doc after this list's last one.
+     */
+    void appendMapped(PostingList other, int[] newDocs) {
+        int needed = size + other.size;
+        if (needed > docs.length) {
+            grow(Math.max(needed, size + (size >> 1)));
+        }
+        for (int i = 0; i < other.size; i++) {
+            int doc = newDocs[other.docs[i]];
+            if (doc >= 0) {
+                docs[size] = doc;
+                if (freqs != null) {
+                    freqs[size] = other.freqs[i];
+                }
+                if (positions != null) {
+                    copyPositions(other, i);
+                }
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Bytes {@link #writeTo} will take
+     */
+    int encodedLength() {
+        int length = SegmentFile.varintLength(size);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            length += SegmentFile.varintLength(docs[i] - previous) + SegmentFile.varintLength(freq(i));
+            previous = docs[i];
+        }
+        if (positions != null) {
+            for (int i = 0; i < size; i++) {
+                int end = i + 1 < size ? positionStarts[i + 1] : positionBytes;
+                length += SegmentFile.varintLength(end - positionStarts[i]);
+            }
+            length += positionBytes;
+        }
+        return length;
+    }
+
+    /**
+     * Save the docs as gaps, then their frequencies and, for a positional
+     * list, each doc's run of position bytes. The term is the caller's to save.
+     */
+    void writeTo(SegmentFile.Output out) throws IOException {
+        out.varint(size);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            out.varint(docs[i] - previous);
+            previous = docs[i];
+        }
+        for (int i = 0; i < size; i++) {
+            out.varint(freq(i));
+        }
+        if (positions != null) {
+            for (int i = 0; i < size; i++) {
+                int end = i + 1 < size ? positionStarts[i + 1] : positionBytes;
+                out.varint(end - positionStarts[i]);
+            }
+            out.data.write(positions, 0, positionBytes);
+        }
+    }
+
+    /**
+     * Read back a term list saved by {@link #writeTo}
+     */
+    static PostingList readFrom(String term, SegmentFile.Input in, boolean positional) {
+        int size = in.varint();
+        int capacity = Math.max(size, 4);
+        PostingList list = new PostingList(term, new int[capacity], new int[capacity], size);
+        int doc = 0;
+        for (int i = 0; i < size; i++) {
+            doc += in.varint();
+            list.docs[i] = doc;
+        }
+        for (int i = 0; i < size; i++) {
+            list.freqs[i] = in.varint();
+        }
+        if (positional) {
+            list.positionStarts = new int[capacity];
+            int bytes = 0;
+            for (int i = 0; i < size; i++) {
+                list.positionStarts[i] = bytes;
+                bytes += in.varint();
+            }
+            list.positions = new byte[Math.max(bytes, 8)];
+            in.data.get(list.positions, 0, bytes);
+            list.positionBytes = bytes;
+        }
+        return list;
+    }
+
+    /**
+     * The list this stub stands for, decoded from the saved lists on first use
+     */
+    PostingList decode(ByteBuffer saved, boolean positional) {
+        PostingList list = decoded;
+        if (list == null) {
+            // Two readers may decode the same list at once; either copy will do
+            list = readFrom(term, new SegmentFile.Input(saved.duplicate().position(savedAt)), positional);
+            decoded = list;
+        }
+        return list;
+    }
+
+    /**
+     * Remove a doc ID. Returns false if it was not present.
+     */
+    boolean remove(int doc) {
+        int index = Arrays.binarySearch(docs, 0, size, doc);
+        if (index < 0) {
+            return false;
+        }
+        if (positions != null) {
+            removePositions(index);
+        }
+        System.arraycopy(docs, index + 1, docs, index, size - index - 1);
+        if (freqs != null) {
+            System.arraycopy(freqs, index + 1, freqs, index, size - index - 1);
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * The list without the given docs; the list itself if none of them are deleted
+     */
+    static PostingList without(PostingList list, BitSet deleted) {
+        if (deleted == null || deleted.isEmpty()) {
+            return list;
+        }
+
+        int[] kept = new int[list.size];
+        int count = 0;
+        for (int i = 0; i < list.size; i++) {
+            if (!deleted.get(list.docs[i])) {
+                kept[count++] = list.docs[i];
+            }
+        }
+        return count == list.size ? list : of(kept, count);
+    }
+
+    /**
+     * Whether the list has any doc that is not deleted
+     */
+    static boolean hasLive(PostingList list, BitSet deleted) {
+        if (deleted == null) {
+            return list.size > 0;
+        }
+        for (int i = 0; i < list.size; i++) {
+            if (!deleted.get(list.docs[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Docs present in both lists. Gallops through the longer list when the
+     * sizes are lopsided, otherwise does a linear merge.
+     */
+    static PostingList intersect(PostingList a, PostingList b) {
+        if (a.size > b.size) {
+            PostingList swap = a;
+            a = b;
+            b = swap;
+        }
+        if (a.size == 0) {
+            return EMPTY;
+        }
+
+        int[] result = new int[a.size];
+        int count = 0;
+
+        if (b.size / a.size >= 8) {
+            int from = 0;
+            for (int i = 0; i < a.size && from < b.size; i++) {
+                int doc = a.docs[i];
+                from = gallop(b.docs, from, b.size, doc);
+                if (from < b.size && b.docs[from] == doc) {
+                    result[count++] = doc;
+                    from++;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < a.size && j < b.size) {
+                int docA = a.docs[i];
+                int docB = b.docs[j];
+                if (docA == docB) {
+                    result[count++] = docA;
+                    i++;
+                    j++;
+                } else if (docA < docB) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        return of(result, count);
+    }
+
+    /**
+     * Docs of the first list that are not in the second
+     */
+    static PostingList difference(PostingList a, PostingList b) {
+        if (a.size == 0 || b.size == 0) {
+            return a;
+        }
+
+        int[] result = new int[a.size];
+        int count = 0;
+        int from = 0;
+        for (int i = 0; i < a.size; i++) {
+            int doc = a.docs[i];
+            from = gallop(b.docs, from, b.size, doc);
+            if (from == b.size || b.docs[from] != doc) {
+                result[count++] = doc;
+            }
+        }
+        return count == a.size ? a : of(result, count);
+    }
+
+    /**
+     * Docs present in either list
+     */
+    static PostingList union(PostingList a, PostingList b) {
+        if (a.size == 0) {
+            return b;
+        }
+        if (b.size == 0) {
+            return a;
+        }
+
+        int[] result = new int[a.size + b.size];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            int docA = a.docs[i];
+            int docB = b.docs[j];
+            if (docA == docB) {
+                result[count++] = docA;
+                i++;
+                j++;
+            } else if (docA < docB) {
+                result[count++] = docA;
+                i++;
+            } else {
+                result[count++] = docB;
+                j++;
+            }
+        }
+        while (i < a.size) {
+            result[count++] = a.docs[i++];
+        }
+        while (j < b.size) {
+            result[count++] = b.docs[j++];
+        }
+
+        return of(result, count);
+    }
+
+    private void insertAt(int index, int doc) {
+        if (size == docs.length) {
+            grow(size + (size >> 1) + 1);
+        }
+        System.arraycopy(docs, index, docs, index + 1, size - index);
+        if (freqs != null) {
+            System.arraycopy(freqs, index, freqs, index + 1, size - index);
+        }
+        if (positions != null) {
+            // An empty run, so the runs after it keep their starts
+            System.arraycopy(positionStarts, index, positionStarts, index + 1, size - index);
+            positionStarts[index] = index < size ? positionStarts[index + 1] : positionBytes;
+        }
+        docs[index] = doc;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        docs = Arrays.copyOf(docs, capacity);
+        if (freqs != null) {
+            freqs = Arrays.copyOf(freqs, capacity);
+        }
+        if (positionStarts != null) {
+            positionStarts = Arrays.copyOf(positionStarts, capacity);
+        }
+    }
+
+    private void writeGap(int gap) {
+        if (positionBytes + 5 > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positionBytes + 5, positions.length * 2));
+        }
+        while ((gap & ~0x7F) != 0) {
+            positions[positionBytes++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        positions[positionBytes++] = (byte) gap;
+    }
+
+    // Append the position run of other's doc at index from as this list's newest doc's
+    private void copyPositions(PostingList other, int from) {
+        positionStarts[size] = positionBytes;
+        if (other.positions == null) {
+            return; // an empty run: the doc was indexed without positions
+        }
+        int start = other.positionStarts[from];
+        int end = from + 1 < other.size ? other.positionStarts[from + 1] : other.positionBytes;
+        int length = end - start;
+        if (positionBytes + length > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positionBytes + length, positions.length * 2));
+        }
+        System.arraycopy(other.positions, start, positions, positionBytes, length);
+        positionBytes += length;
+    }
+
+    private void removePositions(int index) {
+        int start = positionStarts[index];
+        int end = index + 1 < size ? positionStarts[index + 1] : positionBytes;
+        int length = end - start;
+        System.arraycopy(positions, end, positions, start, positionBytes - end);
+        positionBytes -= length;
+        for (int i = index + 1; i < size; i++) {
+            positionStarts[i - 1] = positionStarts[i] - length;
+        }
+    }
+
+    // First position >= from whose value is >= target (exponential then binary search)
+    private static int gallop(int[] docs, int from, int to, int target) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < to && docs[high] < target) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, to);
+        int index = Arrays.binarySearch(docs, low, high, target);
+        return index >= 0 ? index : -index - 1;
+    }
+}
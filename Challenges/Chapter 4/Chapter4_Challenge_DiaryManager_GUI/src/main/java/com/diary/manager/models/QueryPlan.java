@@ -0,0 +1,489 @@
+package com.diary.manager.models;
+
+import com.diary.manager.models.SearchQuery.And;
+import com.diary.manager.models.SearchQuery.Node;
+import com.diary.manager.models.SearchQuery.Not;
+import com.diary.manager.models.SearchQuery.Or;
+import com.diary.manager.models.SearchQuery.Proximity;
+import com.diary.manager.models.SearchQuery.Term;
+
+import java.util.*;
+
+/**
+ * A {@link SearchQuery} compiled against one snapshot.
+ *
+ * Compiling estimates how many docs every term matches from the sizes of
+ * its posting lists, without reading them. Each AND runs its operands
+ * smallest first,
+ * so the running intersection starts as small as it can and only shrinks;
+ * it stops as soon as it is empty. Phrase and NEAR checks read positions and
+ * cost far more per doc, so they run after the plain terms, on whatever is
+ * left; operands after the first, and NOT operands, which are subtracted
+ * last, only probe their lists for the docs still in the running result.
+ * An OR is the union of its options.
+ *
+ * A fuzzy term becomes an OR of itself and the title and content terms
+ * within its edit distance, looked up in each segment's
+ * {@link TermDictionary}: the closest and most common ones, up to
+ * {@link #MAX_EXPANSIONS}. Each one found scores less the more edits it is
+ * away from the word searched for.
+ *
+ * A plan can also start from a given set of docs, such as those in a date
+ * range, when that set is smaller than anything the query itself would
+ * read: every step then only probes its lists for those docs.
+ *
+ * The same plan runs on each segment in turn, and also yields the terms
+ * that score: every term not under a NOT, with its match count for IDF.
+ */
+final class QueryPlan {
+
+    // Terms a fuzzy term may expand to, besides itself
+    static final int MAX_EXPANSIONS = 50;
+
+    // The fields fuzzy terms are expanded in
+    private static final int TEXT_FIELDS = SearchQuery.TITLE | SearchQuery.CONTENT;
+
+    private final IndexSegment[] segments;
+    private final BitSet[] deletes;
+    private final int liveDocs;
+    private final int defaultFields;
+    private final Step root;    // null matches every live doc
+
+    private final List<TermStep> scoringTerms = new ArrayList<>();
+
+    private QueryPlan(SearchQuery query, IndexSegment[] segments, BitSet[] deletes, int liveDocs, int defaultFields) {
+        this.segments = segments;
+        this.deletes = deletes;
+        this.liveDocs = liveDocs;
+        this.defaultFields = defaultFields;
+        this.root = query.isEmpty() ? null : compile(query.root(), true);
+    }
+
+    /**
+     * Plan a query. Words without a field prefix search the default fields.
+     */
+    static QueryPlan compile(SearchQuery query, IndexSegment[] segments, BitSet[] deletes, int liveDocs,
+                             int defaultFields) {
+        return new QueryPlan(query, segments, deletes, liveDocs, defaultFields);
+    }
+
+    /**
+     * Live docs of one segment that match the query
+     */
+    PostingList run(int segment) {
+        return root == null ? segments[segment].allLiveDocs(deletes[segment]) : root.run(segment);
+    }
+
+    /**
+     * The given live docs of one segment that match the query
+     */
+    PostingList run(int segment, PostingList within) {
+        return root == null ? within : root.filter(segment, within);
+    }
+
+    /**
+     * Upper bound on the docs the query matches over all segments
+     */
+    long estimate() {
+        return root == null ? liveDocs : root.estimate;
+    }
+
+    List<String> scoringTerms() {
+        List<String> terms = new ArrayList<>(scoringTerms.size());
+        for (TermStep step : scoringTerms) {
+            terms.add(step.term);
+        }
+        return terms;
+    }
+
+    /**
+     * Per scoring term, the word it is looked up by in tags
+     */
+    List<String> scoringLabels() {
+        List<String> labels = new ArrayList<>(scoringTerms.size());
+        for (TermStep step : scoringTerms) {
+            labels.add(step.label);
+        }
+        return labels;
+    }
+
+    /**
+     * Per scoring term, the text fields it is scored in (SearchQuery field bits)
+     */
+    int[] scoringFields() {
+        int[] fields = new int[scoringTerms.size()];
+        for (int t = 0; t < fields.length; t++) {
+            fields[t] = scoringTerms.get(t).fields & ~SearchQuery.MOOD;
+        }
+        return fields;
+    }
+
+    /**
+     * Per scoring term, the factor its score is multiplied by: 1, or less
+     * for a term matched by a fuzzy term
+     */
+    double[] scoringWeights() {
+        double[] weights = new double[scoringTerms.size()];
+        for (int t = 0; t < weights.length; t++) {
+            weights[t] = scoringTerms.get(t).weight;
+        }
+        return weights;
+    }
+
+    /**
+     * Per scoring term, the number of live docs it matches in those fields
+     */
+    int[] docFreqs() {
+        int[] docFreqs = new int[scoringTerms.size()];
+        for (int t = 0; t < docFreqs.length; t++) {
+            TermStep step = scoringTerms.get(t);
+            int fields = step.fields & ~SearchQuery.MOOD;
+            for (int i = 0; i < segments.length; i++) {
+                docFreqs[t] += segments[i].termDocCount(step.term, step.label, fields, deletes[i]);
+            }
+        }
+        return docFreqs;
+    }
+
+    /**
+     * The plan as an indented tree in execution order, with each step's
+     * (estimated) match count
+     */
+    @Override
+    public String toString() {
+        if (root == null) {
+            return "ALL (" + liveDocs + ")\n";
+        }
+        StringBuilder text = new StringBuilder();
+        root.describe(text, 0);
+        return text.toString();
+    }
+
+    private Step compile(Node node, boolean positive) {
+        if (node instanceof Term) {
+            Term term = (Term) node;
+            int fields = resolve(term.fields);
+            if (term.maxEdits > 0 && (fields & TEXT_FIELDS) != 0) {
+                return fuzzy(term, fields, positive);
+            }
+            return term(term.term, term.label, fields, positive, 1.0);
+        }
+        if (node instanceof Proximity) {
+            Proximity proximity = (Proximity) node;
+            int fields = resolve(proximity.fields);
+            TermStep[] terms = new TermStep[proximity.size()];
+            for (int t = 0; t < terms.length; t++) {
+                terms[t] = term(proximity.term(t), proximity.term(t), fields, positive, 1.0);
+            }
+            return new ProximityStep(proximity, fields, terms);
+        }
+        if (node instanceof Not) {
+            return new NotStep(compile(((Not) node).child, !positive));
+        }
+        if (node instanceof Or) {
+            List<Step> options = new ArrayList<>();
+            for (Node option : ((Or) node).options) {
+                options.add(compile(option, positive));
+            }
+            return new OrStep(options);
+        }
+
+        List<Step> required = new ArrayList<>();
+        List<Step> excluded = new ArrayList<>();
+        for (Node child : ((And) node).children) {
+            if (child instanceof Not) {
+                excluded.add(compile(((Not) child).child, !positive));
+            } else {
+                required.add(compile(child, positive));
+            }
+        }
+        // Cheap, selective steps first; position checks only on what survives them
+        required.sort(Comparator.comparing((Step step) -> step instanceof ProximityStep)
+                .thenComparingLong(step -> step.estimate));
+        return new AndStep(required, excluded);
+    }
+
+    private Step fuzzy(Term term, int fields, boolean positive) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term.term, term.maxEdits);
+        Map<String, Integer> distances = new HashMap<>();
+        for (IndexSegment segment : segments) {
+            segment.termDictionary().collectMatches(automaton, distances);
+        }
+        distances.remove(term.term);
+
+        // Closest first; only the distance that does not fit whole is ranked by doc count
+        List<List<String>> byDistance = new ArrayList<>();
+        for (int edits = 0; edits <= term.maxEdits; edits++) {
+            byDistance.add(new ArrayList<>());
+        }
+        distances.forEach((expansion, edits) -> byDistance.get(edits).add(expansion));
+
+        // Expansions are only looked up in titles and content, where they were found
+        int textFields = fields & TEXT_FIELDS;
+        List<TermStep> expansions = new ArrayList<>();
+        for (int edits = 1; edits <= term.maxEdits && expansions.size() < MAX_EXPANSIONS; edits++) {
+            List<TermStep> group = new ArrayList<>();
+            for (String expansion : byDistance.get(edits)) {
+                int shorter = Math.min(expansion.length(), term.term.length());
+                double weight = Math.max(1.0 - (double) edits / shorter, 0.0);
+                group.add(new TermStep(expansion, expansion, textFields, weight));
+            }
+            if (expansions.size() + group.size() > MAX_EXPANSIONS) {
+                group.sort(Comparator.comparingLong((TermStep step) -> step.estimate).reversed()
+                        .thenComparing(step -> step.term));
+                group = group.subList(0, MAX_EXPANSIONS - expansions.size());
+            }
+            expansions.addAll(group);
+        }
+
+        List<Step> options = new ArrayList<>();
+        options.add(term(term.term, term.label, fields, positive, 1.0));
+        for (TermStep expansion : expansions) {
+            options.add(register(expansion, positive));
+        }
+        return new OrStep(options, "FUZZY~" + term.maxEdits);
+    }
+
+    private TermStep term(String term, String label, int fields, boolean positive, double weight) {
+        return register(new TermStep(term, label, fields, weight), positive);
+    }
+
+    private TermStep register(TermStep step, boolean positive) {
+        // A mood narrows the results but does not score
+        if (positive && (step.fields & ~SearchQuery.MOOD) != 0) {
+            scoringTerms.add(step);
+        }
+        return step;
+    }
+
+    private int resolve(int fields) {
+        return fields == SearchQuery.DEFAULT_FIELDS ? defaultFields : fields;
+    }
+
+    private abstract class Step {
+        long estimate;      // upper bound on the docs matched over all segments
+
+        abstract PostingList run(int segment);
+
+        /**
+         * The candidates that also match this step
+         */
+        PostingList filter(int segment, PostingList candidates) {
+            return PostingList.intersect(candidates, run(segment));
+        }
+
+        abstract void describe(StringBuilder text, int depth);
+
+        void line(StringBuilder text, int depth, String label) {
+            text.append("  ".repeat(depth)).append(label).append(" (").append(estimate).append(")\n");
+        }
+    }
+
+    private final class TermStep extends Step {
+        private final String term;
+        private final String label;
+        private final int fields;
+        private final double weight;        // score factor, below 1 for a fuzzy match
+        private final PostingList[] docs;   // per segment, read on first use
+
+        TermStep(String term, String label, int fields, double weight) {
+            this.term = term;
+            this.label = label;
+            this.fields = fields;
+            this.weight = weight;
+            this.docs = new PostingList[segments.length];
+            for (IndexSegment segment : segments) {
+                estimate += segment.termDocBound(term, label, fields);
+            }
+        }
+
+        @Override
+        PostingList run(int segment) {
+            if (docs[segment] == null) {
+                docs[segment] = segments[segment].termDocs(term, label, fields, deletes[segment]);
+            }
+            return docs[segment];
+        }
+
+        @Override
+        PostingList filter(int segment, PostingList candidates) {
+            if (docs[segment] != null) {
+                return PostingList.intersect(candidates, docs[segment]);
+            }
+            // Candidates are live already, so only the field lists need probing
+            return segments[segment].termDocsIn(term, label, fields, candidates);
+        }
+
+        @Override
+        void describe(StringBuilder text, int depth) {
+            line(text, depth, "TERM " + fieldNames(fields) + ":" + term);
+        }
+    }
+
+    private final class ProximityStep extends Step {
+        private final Proximity proximity;
+        private final int fields;
+        private final TermStep[] terms;     // smallest first
+
+        ProximityStep(Proximity proximity, int fields, TermStep[] terms) {
+            this.proximity = proximity;
+            this.fields = fields;
+            this.terms = terms.clone();
+            Arrays.sort(this.terms, Comparator.comparingLong(step -> step.estimate));
+            // At most as many as its rarest term; the position check is not known in advance
+            this.estimate = this.terms[0].estimate;
+        }
+
+        @Override
+        PostingList run(int segment) {
+            return filter(segment, terms[0].run(segment));
+        }
+
+        @Override
+        PostingList filter(int segment, PostingList candidates) {
+            for (int t = 0; t < terms.length && !candidates.isEmpty(); t++) {
+                candidates = terms[t].filter(segment, candidates);
+            }
+            return segments[segment].applyProximity(candidates, proximity, fields);
+        }
+
+        @Override
+        void describe(StringBuilder text, int depth) {
+            line(text, depth, "POSITIONS " + fieldNames(fields) + ":" + proximity.clause());
+        }
+    }
+
+    private final class AndStep extends Step {
+        private final List<Step> required;  // in execution order
+        private final List<Step> excluded;
+
+        AndStep(List<Step> required, List<Step> excluded) {
+            this.required = required;
+            this.excluded = excluded;
+            this.estimate = required.isEmpty() ? liveDocs : required.get(0).estimate;
+        }
+
+        @Override
+        PostingList run(int segment) {
+            if (required.isEmpty()) {
+                return narrow(segment, segments[segment].allLiveDocs(deletes[segment]), 0);
+            }
+            return narrow(segment, required.get(0).run(segment), 1);
+        }
+
+        @Override
+        PostingList filter(int segment, PostingList candidates) {
+            return narrow(segment, candidates, 0);
+        }
+
+        // Filter by the required steps from the given one on, then subtract the excluded ones
+        private PostingList narrow(int segment, PostingList result, int from) {
+            for (int i = from; i < required.size() && !result.isEmpty(); i++) {
+                result = required.get(i).filter(segment, result);
+            }
+            for (int i = 0; i < excluded.size() && !result.isEmpty(); i++) {
+                result = PostingList.difference(result, excluded.get(i).filter(segment, result));
+            }
+            return result;
+        }
+
+        @Override
+        void describe(StringBuilder text, int depth) {
+            line(text, depth, "AND");
+            for (Step step : required) {
+                step.describe(text, depth + 1);
+            }
+            for (Step step : excluded) {
+                text.append("  ".repeat(depth + 1)).append("EXCEPT\n");
+                step.describe(text, depth + 2);
+            }
+        }
+    }
+
+    private final class OrStep extends Step {
+        private final List<Step> options;
+        private final String name;
+
+        OrStep(List<Step> options) {
+            this(options, "OR");
+        }
+
+        OrStep(List<Step> options, String name) {
+            this.options = options;
+            this.name = name;
+            for (Step option : options) {
+                estimate += option.estimate;
+            }
+            this.estimate = Math.min(estimate, liveDocs);
+        }
+
+        @Override
+        PostingList run(int segment) {
+            PostingList result = PostingList.EMPTY;
+            for (Step option : options) {
+                result = PostingList.union(result, option.run(segment));
+            }
+            return result;
+        }
+
+        @Override
+        PostingList filter(int segment, PostingList candidates) {
+            PostingList result = PostingList.EMPTY;
+            for (Step option : options) {
+                result = PostingList.union(result, option.filter(segment, candidates));
+            }
+            return result;
+        }
+
+        @Override
+        void describe(StringBuilder text, int depth) {
+            line(text, depth, name);
+            for (Step option : options) {
+                option.describe(text, depth + 1);
+            }
+        }
+    }
+
+    // A negation that is not an AND operand, so has to start from every live doc
+    private final class NotStep extends Step {
+        private final Step child;
+
+        NotStep(Step child) {
+            this.child = child;
+            this.estimate = Math.max(liveDocs - child.estimate, 0);
+        }
+
+        @Override
+        PostingList run(int segment) {
+            return PostingList.difference(segments[segment].allLiveDocs(deletes[segment]), child.run(segment));
+        }
+
+        @Override
+        PostingList filter(int segment, PostingList candidates) {
+            return PostingList.difference(candidates, child.run(segment));
+        }
+
+        @Override
+        void describe(StringBuilder text, int depth) {
+            line(text, depth, "NOT");
+            child.describe(text, depth + 1);
+        }
+    }
+
+    private static String fieldNames(int fields) {
+        StringJoiner names = new StringJoiner("|");
+        if ((fields & SearchQuery.TITLE) != 0) {
+            names.add("title");
+        }
+        if ((fields & SearchQuery.CONTENT) != 0) {
+            names.add("content");
+        }
+        if ((fields & SearchQuery.TAGS) != 0) {
+            names.add("tag");
+        }
+        if ((fields & SearchQuery.MOOD) != 0) {
+            names.add("mood");
+        }
+        return names.toString();
+    }
+}
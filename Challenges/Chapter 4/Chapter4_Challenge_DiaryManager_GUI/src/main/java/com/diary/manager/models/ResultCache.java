@@ -0,0 +1,120 @@
+package com.diary.manager.models;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Scored hits of recent queries, so toggling a filter back, re-running the
+ * same search or paging through it skips matching and scoring.
+ *
+ * Least recently used entries are evicted once there are more than
+ * {@link #MAX_QUERIES} of them or their hits add up to more than
+ * {@link #MAX_HITS}. The entry just added always stays, however heavy, so
+ * the latest query can always be paged through.
+ *
+ * Results are only valid for the index generation they were computed on.
+ * The cache remembers that generation, and the first lookup or store for a
+ * newer one replaces the whole map at once, so a write invalidates the cache
+ * in O(1) without the writer touching it. Searches still running on an older
+ * snapshot neither read nor fill it.
+ *
+ * Thread-safe; every method holds the cache's lock briefly.
+ */
+final class ResultCache<K> {
+
+    static final int MAX_QUERIES = 64;
+    static final int MAX_HITS = 500_000;     // about 10 MB of entries, doc IDs and scores
+
+    private LinkedHashMap<K, ScoredHits> entries = newMap();
+    private long generation = -1;
+    private long weight;        // hits held, summed over the entries
+    private long hits;
+    private long misses;
+
+    /**
+     * The hits cached for a key on this index generation, or null
+     */
+    synchronized ScoredHits get(K key, long currentGeneration) {
+        ScoredHits cached = null;
+        if (currentGeneration >= generation) {
+            startGeneration(currentGeneration);
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cached;
+    }
+
+    /**
+     * The key and hits of the fewest cached hits on this generation that pass
+     * the test, or null. Unlike {@link #get}, this neither counts as a hit or
+     * miss nor makes the entry recently used.
+     */
+    synchronized Map.Entry<K, ScoredHits> smallest(long currentGeneration, BiPredicate<K, ScoredHits> usable) {
+        if (currentGeneration != generation) {
+            return null;
+        }
+        Map.Entry<K, ScoredHits> smallest = null;
+        for (Map.Entry<K, ScoredHits> entry : entries.entrySet()) {
+            ScoredHits cached = entry.getValue();
+            if ((smallest == null || cached.size() < smallest.getValue().size())
+                    && usable.test(entry.getKey(), cached)) {
+                smallest = new AbstractMap.SimpleImmutableEntry<>(entry);
+            }
+        }
+        return smallest;
+    }
+
+    synchronized void put(K key, long currentGeneration, ScoredHits scored) {
+        if (currentGeneration < generation) {
+            return; // computed on an index that has been replaced since
+        }
+        startGeneration(currentGeneration);
+
+        ScoredHits previous = entries.put(key, scored);
+        if (previous != null) {
+            weight -= previous.size();
+        }
+        weight += scored.size();
+
+        Iterator<Map.Entry<K, ScoredHits>> eldest = entries.entrySet().iterator();
+        while (entries.size() > 1 && (entries.size() > MAX_QUERIES || weight > MAX_HITS)) {
+            weight -= eldest.next().getValue().size();
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries = newMap();
+        weight = 0;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static <K> LinkedHashMap<K, ScoredHits> newMap() {
+        return new LinkedHashMap<>(16, 0.75f, true);  // access order, eldest first
+    }
+
+    private void startGeneration(long currentGeneration) {
+        if (currentGeneration != generation) {
+            clear();
+            generation = currentGeneration;
+        }
+    }
+}
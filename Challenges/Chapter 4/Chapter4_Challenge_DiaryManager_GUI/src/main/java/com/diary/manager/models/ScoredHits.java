@@ -0,0 +1,196 @@
+package com.diary.manager.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every match of one query with its score. Ranking is done lazily: a page
+ * request selects the top (offset + limit) hits with a bounded min-heap
+ * instead of sorting everything, and the ranked prefix is kept so later
+ * pages within it are plain slices. Scores are never recomputed.
+ *
+ * Hits are held in doc ID order, as the snapshot they were found on numbers
+ * its docs, so a narrower query on that snapshot can start from them.
+ */
+final class ScoredHits {
+
+    private final long snapshotId;
+    private final boolean refined;
+    private final DiaryEntry[] entries;
+    private final int[] docs;
+    private final double[] scores;
+
+    // Hit positions, best first; only the top ranked.length hits are known
+    private int[] ranked = new int[0];
+
+    ScoredHits(long snapshotId, boolean refined, DiaryEntry[] entries, int[] docs, double[] scores) {
+        this.snapshotId = snapshotId;
+        this.refined = refined;
+        this.entries = entries;
+        this.docs = docs;
+        this.scores = scores;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    /**
+     * Whether these hits were found on the given snapshot, so their doc IDs
+     * are its own
+     */
+    boolean foundOn(IndexSnapshot snapshot) {
+        return snapshotId == snapshot.id();
+    }
+
+    /**
+     * Whether these hits were found by narrowing down another query's hits
+     */
+    boolean refined() {
+        return refined;
+    }
+
+    /**
+     * Doc IDs of the hits in [from, to), less from, in order
+     */
+    PostingList docsBetween(int from, int to) {
+        int start = firstDocAtLeast(from);
+        int end = firstDocAtLeast(to);
+        int[] between = new int[end - start];
+        for (int i = start; i < end; i++) {
+            between[i - start] = docs[i] - from;
+        }
+        return PostingList.of(between, between.length);
+    }
+
+    /**
+     * Entries ranked [offset, offset + limit), best first
+     */
+    synchronized List<DiaryEntry> page(int offset, int limit) {
+        int from = Math.min(Math.max(offset, 0), entries.length);
+        int to = (int) Math.min((long) from + Math.max(limit, 0), entries.length);
+
+        if (to > ranked.length) {
+            // Grow the ranked prefix geometrically so paging forward stays cheap
+            rank(Math.min(entries.length, Math.max(to, ranked.length * 2)));
+        }
+
+        List<DiaryEntry> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(entries[ranked[i]]);
+        }
+        return page;
+    }
+
+    private void rank(int k) {
+        if (k == entries.length) {
+            ranked = sortAll();
+            return;
+        }
+
+        // Min-heap of the best k hits seen so far; the root is the weakest of them
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int hit = 0; hit < entries.length; hit++) {
+            if (hit % SearchCancellation.CHECK_INTERVAL == 0) {
+                SearchCancellation.check();
+            }
+            if (heapSize < k) {
+                heap[heapSize] = hit;
+                siftUp(heap, heapSize++);
+            } else if (better(hit, heap[0])) {
+                heap[0] = hit;
+                siftDown(heap, 0, heapSize);
+            }
+        }
+
+        // Pop weakest first, filling the result from the back
+        int[] result = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, 0, heapSize);
+        }
+        ranked = result;
+    }
+
+    // Bottom-up merge sort of the hit positions, without boxing them for a comparator
+    private int[] sortAll() {
+        int[] sorted = new int[entries.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        int[] merged = new int[sorted.length];
+        for (int width = 1; width < sorted.length; width *= 2) {
+            SearchCancellation.check();
+            for (int from = 0; from < sorted.length; from += 2 * width) {
+                int middle = Math.min(from + width, sorted.length);
+                int to = Math.min(from + 2 * width, sorted.length);
+                int left = from;
+                int right = middle;
+                int out = from;
+                while (left < middle && right < to) {
+                    merged[out++] = better(sorted[right], sorted[left]) ? sorted[right++] : sorted[left++];
+                }
+                System.arraycopy(sorted, left, merged, out, middle - left);
+                System.arraycopy(sorted, right, merged, out + middle - left, to - right);
+            }
+            int[] swap = sorted;
+            sorted = merged;
+            merged = swap;
+        }
+        return sorted;
+    }
+
+    private int firstDocAtLeast(int doc) {
+        int low = 0;
+        int high = docs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (docs[middle] < doc) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Higher score wins; ties go to the lower doc ID so ordering is stable
+    private boolean better(int hitA, int hitB) {
+        int byScore = Double.compare(scores[hitA], scores[hitB]);
+        return byScore != 0 ? byScore > 0 : docs[hitA] < docs[hitB];
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int hit = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(heap[parent], hit)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = hit;
+    }
+
+    private void siftDown(int[] heap, int index, int size) {
+        int hit = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && better(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!better(hit, heap[child])) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = hit;
+    }
+}
@@ -0,0 +1,30 @@
+package com.diary.manager.models;
+
+import javafx.collections.ObservableList;
+
+import java.time.LocalDate;
+
+/**
+ * Answers searches from the GUI: matching entries for a query, best first.
+ * {@link SearchEngine} answers from its inverted index; the linear scan in
+ * {@code SearchService} is kept as a reference to compare it against.
+ *
+ * Implementations must be safe to call from a background thread. A search
+ * whose thread is interrupted may stop early by throwing
+ * {@link java.util.concurrent.CancellationException}.
+ */
+public interface SearchBackend {
+
+    /**
+     * Entries matching the query in the selected fields that pass the date
+     * and favorite filters, best first. A null date leaves that end of the
+     * range open.
+     */
+    ObservableList<DiaryEntry> search(String query,
+                                      boolean searchTitle,
+                                      boolean searchContent,
+                                      boolean searchTags,
+                                      LocalDate fromDate,
+                                      LocalDate toDate,
+                                      boolean favoritesOnly);
+}
@@ -0,0 +1,24 @@
+package com.diary.manager.models;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for searches. Interrupting the thread a search
+ * runs on, as {@code Future.cancel(true)} does, makes it give up at its next
+ * check: between segments, between scoring terms and every few thousand
+ * hits while ranking. The interrupt is left set for the caller to see.
+ */
+final class SearchCancellation {
+
+    // Hits ranked between checks
+    static final int CHECK_INTERVAL = 4096;
+
+    private SearchCancellation() {
+    }
+
+    static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+}
@@ -3,151 +3,212 @@ package com.diary.manager.models;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class SearchEngine implements SearchBackend {
+
+    // Current index. Searches read whatever snapshot is published here and
+    // never lock; writers build the next generation and publish it.
+    private volatile IndexSnapshot snapshot = IndexSnapshot.of(new IndexSegment(), 0);
+
+    // Serialises writers, including a rebuild for its whole duration. Fair,
+    // so a writer in a loop cannot keep the merger from swapping its result in.
+    private final Lock writerLock = new ReentrantLock(true);
+
+    // Segment merges run here, one at a time for all engines, so a write on
+    // its own only pays for its own small segment. The thread exits when idle.
+    private static final ScheduledThreadPoolExecutor MERGER = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "search-index-merger");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    static {
+        MERGER.setKeepAliveTime(30, TimeUnit.SECONDS);
+        MERGER.allowCoreThreadTimeOut(true);
+    }
+
+    // The merger waits until nothing has been written for this long, so it
+    // does not take a core from a burst of writes; most JVMs on Linux ignore
+    // its lower priority. Writes this close together are a burst, and merge
+    // as they go, as they would with no merger.
+    private static final long MERGE_QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
-public class SearchEngine {
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+    private volatile boolean merging;           // the merger is part way through a merge
+    private volatile long lastWrite = System.nanoTime() - MERGE_QUIET_NANOS;
 
-    // Inverted index for fast searching
-    private final Map<String, Set<String>> titleIndex;      // word -> entry IDs
-    private final Map<String, Set<String>> contentIndex;    // word -> entry IDs
-    private final Map<String, Set<String>> tagIndex;        // tag -> entry IDs
-    private final Map<String, DiaryEntry> entriesById;      // ID -> entry
+    // Serialises saves, which share a temporary file; writers are not held up
+    private final Lock saveLock = new ReentrantLock();
+    private volatile long savedGeneration = -1;     // generation last saved or loaded, if still current
 
-    // Additional indexes for metadata
-    private final Map<LocalDate, Set<String>> dateIndex;    // date -> entry IDs
-    private final Set<String> favoriteIds;                  // favorite entry IDs
+    // Scored hits of recent queries on the current generation, for repeats and paging
+    private final ResultCache<QueryKey> resultCache = new ResultCache<>();
+    private final AtomicLong refinedSearches = new AtomicLong();
 
     // Search configuration
     private boolean caseSensitive = false;
     private boolean useStemming = false;
     private boolean useSynonyms = false;
-
-    // Relevance scoring weights
-    private static final int TITLE_WEIGHT = 10;
-    private static final int CONTENT_WEIGHT = 5;
-    private static final int TAG_WEIGHT = 8;
-    private static final int EXACT_MATCH_BONUS = 20;
-    private static final int FAVORITE_BONUS = 3;
-    private static final int RECENCY_BONUS = 2;
-
-    public SearchEngine() {
-        this.titleIndex = new ConcurrentHashMap<>();
-        this.contentIndex = new ConcurrentHashMap<>();
-        this.tagIndex = new ConcurrentHashMap<>();
-        this.entriesById = new ConcurrentHashMap<>();
-        this.dateIndex = new ConcurrentHashMap<>();
-        this.favoriteIds = ConcurrentHashMap.newKeySet();
-    }
+    private boolean indexPositions = true;
+    private int fuzzyEdits = 0;
 
     /**
-     * Index a list of entries
+     * Index a list of entries, replacing the current index. Large lists are
+     * split into shards that are tokenized in parallel on the ForkJoinPool
+     * and merged; searches are answered from the previous index until the
+     * new one is complete.
      */
     public void indexEntries(List<DiaryEntry> entries) {
-        clearIndex();
-        entries.forEach(this::addToIndex);
+        writerLock.lock();
+        try {
+            IndexSegment rebuilt = IndexSegment.build(entries, createAnalyzer(), indexPositions);
+            snapshot = IndexSnapshot.of(rebuilt, snapshot.generation() + 1);
+        } finally {
+            writerLock.unlock();
+        }
     }
 
     /**
-     * Add a single entry to the index
+     * Replace the current index with one saved by {@link #saveIndex}, then
+     * index whatever changed since: entries that are new or were modified
+     * after being indexed, and deleting those that are gone. Builds the index
+     * from scratch instead if there is no usable file (missing, damaged, or
+     * saved with other analysis or position settings) or most entries
+     * changed. Returns the number of entries that had to be indexed.
      */
-    public synchronized void addToIndex(DiaryEntry entry) {
-        if (entry == null || entry.getId() == null) {
-            return;
-        }
+    public int loadIndex(Path file, List<DiaryEntry> entries) {
+        writerLock.lock();
+        try {
+            Analyzer analyzer = createAnalyzer();
+            Map<String, DiaryEntry> entriesById = new HashMap<>(entries.size() * 4 / 3 + 1);
+            for (DiaryEntry entry : entries) {
+                if (entry != null && entry.getId() != null) {
+                    entriesById.put(entry.getId(), entry);
+                }
+            }
 
-        String entryId = entry.getId();
-        entriesById.put(entryId, entry);
+            SegmentFile.Restored restored;
+            try {
+                restored = SegmentFile.read(file, analyzer, indexPositions, entriesById);
+            } catch (IOException e) {
+                restored = null; // damaged: rebuilt below, and replaced on the next save
+            }
 
-        // Index title
-        if (entry.getTitle() != null) {
-            indexText(entry.getTitle(), entryId, titleIndex);
-        }
+            List<DiaryEntry> changed = new ArrayList<>();
+            if (restored != null) {
+                for (DiaryEntry entry : entries) {
+                    if (entry == null || entriesById.get(entry.getId()) != entry) {
+                        continue; // only an ID's last occurrence counts, as in a build
+                    }
+                    Integer doc = restored.segment.docOf(entry);
+                    if (doc == null || restored.stale.get(doc)) {
+                        changed.add(entry);
+                    }
+                }
+            }
 
-        // Index content
-        if (entry.getContent() != null) {
-            indexText(entry.getContent(), entryId, contentIndex);
-        }
+            if (restored == null || changed.size() > entriesById.size() / 2) {
+                IndexSegment rebuilt = IndexSegment.build(entries, analyzer, indexPositions);
+                snapshot = IndexSnapshot.of(rebuilt, snapshot.generation() + 1);
+                return rebuilt.liveDocs();
+            }
 
-        // Index tags
-        if (entry.getTags() != null) {
-            for (String tag : entry.getTags()) {
-                if (tag != null && !tag.trim().isEmpty()) {
-                    String normalizedTag = normalizeText(tag);
-                    tagIndex.computeIfAbsent(normalizedTag, k -> ConcurrentHashMap.newKeySet())
-                            .add(entryId);
-                }
+            IndexSnapshot loaded = IndexSnapshot.of(restored.segment, restored.stale, snapshot.generation() + 1);
+            if (changed.isEmpty() && restored.stale.isEmpty()) {
+                snapshot = loaded;
+                savedGeneration = loaded.generation();
+                return 0;
+            }
+            IndexSnapshot.Changes changes = loaded.edit();
+            for (DiaryEntry entry : changed) {
+                changes.add(entry, indexPositions);
             }
+            snapshot = changes.publish();
+            scheduleMerges();
+            return changed.size();
+        } finally {
+            writerLock.unlock();
         }
+    }
 
-        // Index date
-        if (entry.getCreatedDate() != null) {
-            LocalDate date = entry.getCreatedDate().toLocalDate();
-            dateIndex.computeIfAbsent(date, k -> ConcurrentHashMap.newKeySet())
-                    .add(entryId);
+    /**
+     * Save the current index for {@link #loadIndex}, unless it is unchanged
+     * since it was last saved or loaded. Deleted docs are merged away first.
+     * The file is replaced atomically, so a failed save leaves the old one.
+     */
+    public void saveIndex(Path file) throws IOException {
+        saveLock.lock();
+        try {
+            IndexSnapshot current = snapshot;
+            if (current.generation() == savedGeneration) {
+                return;
+            }
+            IndexSegment segment = current.compacted();
+            if (segment == null) {
+                segment = new IndexSegment(current.analyzer(), indexPositions);
+            }
+            SegmentFile.write(segment, file);
+            savedGeneration = current.generation();
+        } finally {
+            saveLock.unlock();
         }
+    }
 
-        // Index favorite status
-        if (entry.isFavorite()) {
-            favoriteIds.add(entryId);
+    /**
+     * Add a single entry to the index
+     */
+    public void addToIndex(DiaryEntry entry) {
+        if (entry == null || entry.getId() == null) {
+            return;
         }
+
+        write(changes -> changes.add(entry, indexPositions));
     }
 
     /**
      * Update an entry in the index
      */
-    public synchronized void updateIndex(DiaryEntry oldEntry, DiaryEntry newEntry) {
-        if (oldEntry != null && oldEntry.getId() != null) {
-            removeFromIndex(oldEntry);
-        }
-        addToIndex(newEntry);
+    public void updateIndex(DiaryEntry oldEntry, DiaryEntry newEntry) {
+        // One generation, so no search sees the entry missing in between
+        write(changes -> {
+            changes.remove(oldEntry);
+            changes.add(newEntry, indexPositions);
+        });
     }
 
     /**
      * Remove an entry from the index
      */
-    public synchronized void removeFromIndex(DiaryEntry entry) {
+    public void removeFromIndex(DiaryEntry entry) {
         if (entry == null || entry.getId() == null) {
             return;
         }
 
-        String entryId = entry.getId();
-        entriesById.remove(entryId);
-
-        // Remove from all indexes
-        removeFromIndexes(entryId, titleIndex);
-        removeFromIndexes(entryId, contentIndex);
-        removeFromIndexes(entryId, tagIndex);
-
-        // Remove from date index
-        if (entry.getCreatedDate() != null) {
-            LocalDate date = entry.getCreatedDate().toLocalDate();
-            Set<String> dateEntries = dateIndex.get(date);
-            if (dateEntries != null) {
-                dateEntries.remove(entryId);
-                if (dateEntries.isEmpty()) {
-                    dateIndex.remove(date);
-                }
-            }
-        }
-
-        // Remove from favorites
-        favoriteIds.remove(entryId);
+        write(changes -> changes.remove(entry));
     }
 
     /**
      * Clear the entire index
      */
-    public synchronized void clearIndex() {
-        titleIndex.clear();
-        contentIndex.clear();
-        tagIndex.clear();
-        entriesById.clear();
-        dateIndex.clear();
-        favoriteIds.clear();
+    public void clearIndex() {
+        writerLock.lock();
+        try {
+            snapshot = IndexSnapshot.of(new IndexSegment(createAnalyzer(), indexPositions), snapshot.generation() + 1);
+        } finally {
+            writerLock.unlock();
+        }
     }
 
     /**
@@ -158,8 +219,13 @@ public class SearchEngine {
     }
 
     /**
-     * Perform an advanced search with filters
+     * Perform an advanced search with filters. The query may combine words
+     * with OR, NOT (or a leading -), parentheses, quoted phrases, NEAR/n and
+     * the field prefixes title:, content:, tag: and mood:, as in
+     * {@code title:trip OR tag:travel -work mood:happy}. The field flags
+     * select where words without a prefix are searched.
      */
+    @Override
     public ObservableList<DiaryEntry> search(String query,
                                              boolean searchTitle,
                                              boolean searchContent,
@@ -168,52 +234,98 @@ public class SearchEngine {
                                              LocalDate toDate,
                                              boolean favoritesOnly) {
 
+        return searchPage(query, searchTitle, searchContent, searchTags, fromDate, toDate, favoritesOnly,
+                Integer.MAX_VALUE, 0).getEntries();
+    }
+
+    /**
+     * Get one page of results, best first. Only the top (offset + limit) hits
+     * are ranked, and the scored hits of the latest query are kept so asking
+     * for the next page does not score anything again.
+     */
+    public SearchPage searchPage(String query, int limit, int offset) {
+        return searchPage(query, true, true, true, null, null, false, limit, offset);
+    }
+
+    /**
+     * Get one page of results for an advanced search with filters. Reads a
+     * single published snapshot, so the results reflect every change up to
+     * some generation and none after it.
+     *
+     * A query that narrows down a recent one (the same query with more words
+     * or clauses, a date range inside its range, or favorites only) is
+     * answered by checking that query's hits for what it adds, when they are
+     * fewer than what the index would read for it.
+     *
+     * Interrupting the calling thread cancels the search: it stops at its
+     * next check with a {@link java.util.concurrent.CancellationException},
+     * and nothing partial is cached.
+     */
+    public SearchPage searchPage(String query,
+                                 boolean searchTitle,
+                                 boolean searchContent,
+                                 boolean searchTags,
+                                 LocalDate fromDate,
+                                 LocalDate toDate,
+                                 boolean favoritesOnly,
+                                 int limit,
+                                 int offset) {
+
+        IndexSnapshot current = snapshot;
         if ((query == null || query.trim().isEmpty()) &&
                 fromDate == null && toDate == null && !favoritesOnly) {
             // Return all entries
-            return FXCollections.observableArrayList(entriesById.values());
+            List<DiaryEntry> all = current.liveEntries();
+            int from = Math.min(Math.max(offset, 0), all.size());
+            int to = (int) Math.min((long) from + Math.max(limit, 0), all.size());
+            return new SearchPage(FXCollections.observableArrayList(all.subList(from, to)), all.size());
+        }
+
+        // Parse query into a tree of terms, phrases and operators
+        SearchQuery searchQuery = SearchQuery.parse(query, current.analyzer(), fuzzyEdits);
+        QueryKey key = new QueryKey(searchQuery, searchTitle, searchContent, searchTags,
+                fromDate, toDate, favoritesOnly);
+
+        ScoredHits hits = resultCache.get(key, current.generation());
+        if (hits == null) {
+            // Match, filter and score against the snapshot, starting from the
+            // smallest cached result this query narrows down if there is one
+            Map.Entry<QueryKey, ScoredHits> wider = resultCache.smallest(current.generation(),
+                    (cachedKey, cached) -> cached.foundOn(current) && key.narrows(cachedKey));
+            hits = current.search(searchQuery, searchTitle, searchContent, searchTags,
+                    fromDate, toDate, favoritesOnly,
+                    wider == null ? null : wider.getValue(),
+                    wider == null ? null : searchQuery.without(wider.getKey().clauses));
+            if (hits.refined()) {
+                refinedSearches.incrementAndGet();
+            }
+            resultCache.put(key, current.generation(), hits);
         }
 
-        // Parse query into search terms
-        List<String> searchTerms = parseSearchQuery(query);
-
-        // Get candidate entries based on search terms
-        Set<String> candidateIds = getCandidateIds(searchTerms, searchTitle, searchContent, searchTags);
-
-        // Apply filters
-        candidateIds = applyFilters(candidateIds, fromDate, toDate, favoritesOnly);
-
-        // Calculate relevance scores and sort
-        List<ScoredEntry> scoredEntries = calculateRelevanceScores(candidateIds, searchTerms);
+        return new SearchPage(FXCollections.observableArrayList(hits.page(offset, limit)), hits.size());
+    }
 
-        // Convert to ObservableList
-        return FXCollections.observableArrayList(
-                scoredEntries.stream()
-                        .map(ScoredEntry::getEntry)
-                        .collect(Collectors.toList())
-        );
+    /**
+     * Describe how a query would run against the current index: its steps in
+     * execution order, each with the number of entries it matches
+     */
+    public String explainQuery(String query) {
+        IndexSnapshot current = snapshot;
+        return current.plan(SearchQuery.parse(query, current.analyzer(), fuzzyEdits),
+                        SearchQuery.fields(true, true, true))
+                .toString();
     }
 
     /**
      * Search by date range
      */
     public ObservableList<DiaryEntry> searchByDateRange(LocalDate fromDate, LocalDate toDate) {
+        IndexSnapshot current = snapshot;
         if (fromDate == null && toDate == null) {
-            return FXCollections.observableArrayList(entriesById.values());
+            return FXCollections.observableArrayList(current.liveEntries());
         }
 
-        Set<String> candidateIds = new HashSet<>();
-
-        for (Map.Entry<LocalDate, Set<String>> entry : dateIndex.entrySet()) {
-            LocalDate date = entry.getKey();
-
-            if ((fromDate == null || !date.isBefore(fromDate)) &&
-                    (toDate == null || !date.isAfter(toDate))) {
-                candidateIds.addAll(entry.getValue());
-            }
-        }
-
-        return getEntriesByIds(candidateIds);
+        return FXCollections.observableArrayList(current.entriesInDateRange(fromDate, toDate));
     }
 
     /**
@@ -224,386 +336,220 @@ public class SearchEngine {
             return FXCollections.observableArrayList();
         }
 
-        String normalizedTag = normalizeText(tag);
-        Set<String> entryIds = tagIndex.get(normalizedTag);
-
-        if (entryIds == null || entryIds.isEmpty()) {
-            return FXCollections.observableArrayList();
-        }
-
-        return getEntriesByIds(entryIds);
+        IndexSnapshot current = snapshot;
+        String normalizedTag = Tokenizer.normalize(tag, current.analyzer().lowerCase());
+        return FXCollections.observableArrayList(current.entriesWithTag(normalizedTag));
     }
 
     /**
      * Search favorites
      */
     public ObservableList<DiaryEntry> searchFavorites() {
-        return getEntriesByIds(favoriteIds);
+        return FXCollections.observableArrayList(snapshot.favoriteEntries());
     }
 
     /**
-     * Get suggestions for auto-complete
+     * Get suggestions for auto-complete: the title words and tags starting
+     * with the partial query, most frequent first
      */
     public List<String> getSuggestions(String partialQuery, int maxSuggestions) {
         if (partialQuery == null || partialQuery.trim().isEmpty()) {
             return Collections.emptyList();
         }
 
-        String normalizedPartial = normalizeText(partialQuery);
-        Set<String> suggestions = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-
-        // Suggest from titles
-        for (String word : titleIndex.keySet()) {
-            if (word.startsWith(normalizedPartial)) {
-                suggestions.add(word);
-                if (suggestions.size() >= maxSuggestions) {
-                    break;
-                }
-            }
-        }
-
-        // Suggest from tags
-        if (suggestions.size() < maxSuggestions) {
-            for (String tag : tagIndex.keySet()) {
-                if (tag.startsWith(normalizedPartial) && !suggestions.contains(tag)) {
-                    suggestions.add(tag);
-                    if (suggestions.size() >= maxSuggestions) {
-                        break;
-                    }
-                }
-            }
-        }
-
-        return new ArrayList<>(suggestions);
+        IndexSnapshot current = snapshot;
+        String prefix = Tokenizer.normalize(partialQuery, current.analyzer().lowerCase());
+        return current.collectSuggestions(prefix, maxSuggestions);
     }
 
     /**
-     * Get statistics about the index
+     * Get statistics about the index, how often searches were answered from
+     * the result cache, and how often by narrowing down a cached result
      */
     public Map<String, Integer> getIndexStatistics() {
-        Map<String, Integer> stats = new HashMap<>();
-        stats.put("Total Entries", entriesById.size());
-        stats.put("Title Index Size", titleIndex.size());
-        stats.put("Content Index Size", contentIndex.size());
-        stats.put("Tag Index Size", tagIndex.size());
-        stats.put("Date Index Size", dateIndex.size());
-        stats.put("Favorites", favoriteIds.size());
+        Map<String, Integer> stats = snapshot.statistics();
+        stats.put("Cached Queries", resultCache.size());
+        stats.put("Result Cache Hits", (int) Math.min(resultCache.hits(), Integer.MAX_VALUE));
+        stats.put("Result Cache Misses", (int) Math.min(resultCache.misses(), Integer.MAX_VALUE));
+        stats.put("Refined Searches", (int) Math.min(refinedSearches.get(), Integer.MAX_VALUE));
         return stats;
     }
 
     // Private helper methods
 
-    private void indexText(String text, String entryId, Map<String, Set<String>> index) {
-        String normalizedText = normalizeText(text);
-        String[] words = tokenizeText(normalizedText);
-
-        for (String word : words) {
-            if (word.length() > 1) { // Ignore single characters
-                index.computeIfAbsent(word, k -> ConcurrentHashMap.newKeySet())
-                        .add(entryId);
-            }
-        }
-    }
-
-    private void removeFromIndexes(String entryId, Map<String, Set<String>> index) {
-        Iterator<Map.Entry<String, Set<String>>> iterator = index.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Set<String>> entry = iterator.next();
-            Set<String> entryIds = entry.getValue();
-            entryIds.remove(entryId);
-
-            if (entryIds.isEmpty()) {
-                iterator.remove();
+    /**
+     * Apply a batch of changes as one new generation. Searches keep reading
+     * the previous snapshot until it is published.
+     */
+    private void write(Consumer<IndexSnapshot.Changes> batch) {
+        writerLock.lock();
+        try {
+            boolean burst = System.nanoTime() - lastWrite < MERGE_QUIET_NANOS;
+            IndexSnapshot.Changes changes = snapshot.edit();
+            batch.accept(changes);
+            snapshot = changes.publish();
+
+            // Merge here in a burst, unless the merger is on the same segments,
+            // and whenever segments pile up past MAX_SEGMENTS
+            IndexSnapshot.Merge merge;
+            while ((burst && !merging || snapshot.segmentCount() > IndexSnapshot.MAX_SEGMENTS)
+                    && (merge = snapshot.findMerge()) != null) {
+                merge.run();
+                snapshot = merge.applyTo(snapshot);
             }
+            lastWrite = System.nanoTime();
+            scheduleMerges();
+        } finally {
+            writerLock.unlock();
         }
     }
 
-    private String normalizeText(String text) {
-        if (text == null) {
-            return "";
-        }
-
-        String normalized = text.trim();
-
-        if (!caseSensitive) {
-            normalized = normalized.toLowerCase();
-        }
-
-        // Remove punctuation (except apostrophes for contractions)
-        normalized = normalized.replaceAll("[^\\p{L}\\p{N}\\s']", " ");
-
-        return normalized;
-    }
-
-    private String[] tokenizeText(String text) {
-        return text.split("\\s+");
-    }
-
-    private List<String> parseSearchQuery(String query) {
-        if (query == null || query.trim().isEmpty()) {
-            return Collections.emptyList();
-        }
-
-        String normalized = normalizeText(query);
-        String[] tokens = tokenizeText(normalized);
-
-        // Remove stop words and short words
-        return Arrays.stream(tokens)
-                .filter(word -> word.length() > 2) // Filter out short words
-                .filter(this::isNotStopWord)
-                .collect(Collectors.toList());
-    }
-
-    private boolean isNotStopWord(String word) {
-        // Common stop words in English
-        Set<String> stopWords = Set.of(
-                "a", "an", "the", "and", "or", "but", "in", "on", "at",
-                "to", "for", "of", "with", "by", "is", "am", "are", "was",
-                "were", "be", "been", "being", "have", "has", "had", "do",
-                "does", "did", "will", "would", "should", "could", "can",
-                "may", "might", "must", "shall", "this", "that", "these",
-                "those", "i", "you", "he", "she", "it", "we", "they"
-        );
-
-        return !stopWords.contains(word.toLowerCase());
-    }
-
-    private Set<String> getCandidateIds(List<String> searchTerms,
-                                        boolean searchTitle,
-                                        boolean searchContent,
-                                        boolean searchTags) {
-
-        if (searchTerms.isEmpty()) {
-            // No search terms, return all entry IDs
-            return new HashSet<>(entriesById.keySet());
-        }
-
-        Set<String> candidateIds = new HashSet<>();
-
-        for (String term : searchTerms) {
-            Set<String> idsForTerm = new HashSet<>();
-
-            if (searchTitle) {
-                Set<String> titleIds = titleIndex.get(term);
-                if (titleIds != null) {
-                    idsForTerm.addAll(titleIds);
-                }
-            }
-
-            if (searchContent) {
-                Set<String> contentIds = contentIndex.get(term);
-                if (contentIds != null) {
-                    idsForTerm.addAll(contentIds);
-                }
-            }
-
-            if (searchTags) {
-                Set<String> tagIds = tagIndex.get(term);
-                if (tagIds != null) {
-                    idsForTerm.addAll(tagIds);
-                }
-            }
-
-            if (candidateIds.isEmpty()) {
-                candidateIds.addAll(idsForTerm);
-            } else {
-                candidateIds.retainAll(idsForTerm); // Intersection for AND search
-            }
-
-            if (candidateIds.isEmpty()) {
-                break; // No matches found
-            }
+    /**
+     * Have the merger run the merges the current snapshot needs, unless it
+     * is already on it
+     */
+    private void scheduleMerges() {
+        // Checked first, so a write while the merger is busy does not plan a merge
+        if (!mergeScheduled.get() && snapshot.findMerge() != null && mergeScheduled.compareAndSet(false, true)) {
+            MERGER.execute(this::runMerges);
         }
-
-        return candidateIds;
     }
 
-    private Set<String> applyFilters(Set<String> entryIds,
-                                     LocalDate fromDate,
-                                     LocalDate toDate,
-                                     boolean favoritesOnly) {
-
-        if (entryIds.isEmpty()) {
-            return entryIds;
-        }
-
-        Set<String> filteredIds = new HashSet<>(entryIds);
-
-        // Apply date filter
-        if (fromDate != null || toDate != null) {
-            filteredIds.removeIf(entryId -> {
-                DiaryEntry entry = entriesById.get(entryId);
-                if (entry == null || entry.getCreatedDate() == null) {
-                    return true;
-                }
-
-                LocalDate entryDate = entry.getCreatedDate().toLocalDate();
-
-                if (fromDate != null && entryDate.isBefore(fromDate)) {
-                    return true;
-                }
-
-                if (toDate != null && entryDate.isAfter(toDate)) {
-                    return true;
+    // On the merger thread, once writes pause: merge without the lock, then
+    // swap the result in under it
+    private void runMerges() {
+        boolean waiting = false;
+        try {
+            IndexSnapshot.Merge merge;
+            while ((merge = snapshot.findMerge()) != null) {
+                long quiet = System.nanoTime() - lastWrite;
+                if (quiet < MERGE_QUIET_NANOS) {
+                    MERGER.schedule(this::runMerges, MERGE_QUIET_NANOS - quiet, TimeUnit.NANOSECONDS);
+                    waiting = true;
+                    return;
                 }
-
-                return false;
-            });
-        }
-
-        // Apply favorites filter
-        if (favoritesOnly) {
-            filteredIds.retainAll(favoriteIds);
-        }
-
-        return filteredIds;
-    }
-
-    private List<ScoredEntry> calculateRelevanceScores(Set<String> entryIds, List<String> searchTerms) {
-        List<ScoredEntry> scoredEntries = new ArrayList<>();
-
-        for (String entryId : entryIds) {
-            DiaryEntry entry = entriesById.get(entryId);
-            if (entry != null) {
-                int score = calculateEntryRelevance(entry, searchTerms);
-                scoredEntries.add(new ScoredEntry(entry, score));
-            }
-        }
-
-        // Sort by score (descending)
-        scoredEntries.sort((a, b) -> Integer.compare(b.score, a.score));
-
-        return scoredEntries;
-    }
-
-    private int calculateEntryRelevance(DiaryEntry entry, List<String> searchTerms) {
-        int score = 0;
-
-        if (searchTerms.isEmpty()) {
-            // No search terms, use base scoring
-            score += entry.isFavorite() ? FAVORITE_BONUS : 0;
-            score += isRecent(entry.getCreatedDate()) ? RECENCY_BONUS : 0;
-            return score;
-        }
-
-        // Calculate relevance based on search terms
-        for (String term : searchTerms) {
-            // Check title
-            if (entry.getTitle() != null) {
-                String normalizedTitle = normalizeText(entry.getTitle());
-                if (normalizedTitle.contains(term)) {
-                    score += TITLE_WEIGHT;
-
-                    // Bonus for exact title match
-                    if (normalizedTitle.equals(term)) {
-                        score += EXACT_MATCH_BONUS;
-                    }
-
-                    // Bonus for title starting with term
-                    if (normalizedTitle.startsWith(term)) {
-                        score += 5;
+                merging = true;
+                try {
+                    merge.run();
+                    writerLock.lock();
+                    try {
+                        snapshot = merge.applyTo(snapshot);
+                    } finally {
+                        writerLock.unlock();
                     }
+                } finally {
+                    merging = false;
                 }
             }
-
-            // Check content
-            if (entry.getContent() != null) {
-                String normalizedContent = normalizeText(entry.getContent());
-                if (normalizedContent.contains(term)) {
-                    score += CONTENT_WEIGHT;
-
-                    // Count occurrences in content
-                    int occurrences = countOccurrences(normalizedContent, term);
-                    score += occurrences;
-                }
-            }
-
-            // Check tags
-            if (entry.getTags() != null) {
-                for (String tag : entry.getTags()) {
-                    String normalizedTag = normalizeText(tag);
-                    if (normalizedTag.contains(term)) {
-                        score += TAG_WEIGHT;
-
-                        // Bonus for exact tag match
-                        if (normalizedTag.equals(term)) {
-                            score += 12;
-                        }
-                    }
-                }
+        } finally {
+            if (!waiting) {
+                mergeScheduled.set(false);
             }
         }
-
-        // Additional scoring factors
-        if (entry.isFavorite()) {
-            score += FAVORITE_BONUS;
-        }
-
-        if (isRecent(entry.getCreatedDate())) {
-            score += RECENCY_BONUS;
-        }
-
-        return score;
+        // A write may have asked for a merge after the last check
+        scheduleMerges();
     }
 
-    private int countOccurrences(String text, String term) {
-        int count = 0;
-        int index = 0;
-
-        while ((index = text.indexOf(term, index)) != -1) {
-            count++;
-            index += term.length();
-        }
-
-        return count;
+    private Analyzer createAnalyzer() {
+        return Analyzer.create(!caseSensitive, useStemming, useSynonyms);
     }
 
-    private boolean isRecent(LocalDateTime date) {
-        if (date == null) {
-            return false;
-        }
-
-        return date.isAfter(LocalDateTime.now().minusDays(7));
-    }
-
-    private ObservableList<DiaryEntry> getEntriesByIds(Set<String> entryIds) {
-        List<DiaryEntry> entries = entryIds.stream()
-                .map(entriesById::get)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-
-        return FXCollections.observableArrayList(entries);
-    }
-
-    // Configuration setters
+    // Configuration setters. Case sensitivity, stemming and synonyms decide how
+    // words are indexed, so they take effect from the next indexEntries or
+    // clearIndex; queries are always analysed the way the current index was.
     public void setCaseSensitive(boolean caseSensitive) {
         this.caseSensitive = caseSensitive;
     }
 
+    /**
+     * Index words by their Porter stem, so "walked" also finds "walking"
+     */
     public void setUseStemming(boolean useStemming) {
         this.useStemming = useStemming;
     }
 
+    /**
+     * Index the words of each built-in synonym group as the group's first
+     * word, so "glad" also finds "happy"
+     */
     public void setUseSynonyms(boolean useSynonyms) {
         this.useSynonyms = useSynonyms;
     }
 
-    // Helper class for scoring entries
-    private static class ScoredEntry {
-        private final DiaryEntry entry;
-        private final int score;
-
-        ScoredEntry(DiaryEntry entry, int score) {
-            this.entry = entry;
-            this.score = score;
-        }
+    /**
+     * Record word positions for entries indexed from now on. Turning this off
+     * saves memory, but phrase and NEAR clauses then only require their words
+     * to be present in those entries.
+     */
+    public void setIndexPositions(boolean indexPositions) {
+        this.indexPositions = indexPositions;
+    }
 
-        DiaryEntry getEntry() {
-            return entry;
+    /**
+     * Let words also match title and content words up to this many typos
+     * away (0 to 2; 0, the default, turns fuzzy matching off). Words of five
+     * letters or fewer get at most one. Takes effect from the next search.
+     */
+    public void setFuzzyEdits(int maxEdits) {
+        if (maxEdits < 0 || maxEdits > 2) {
+            throw new IllegalArgumentException("Fuzzy edit distance must be between 0 and 2: " + maxEdits);
         }
+        this.fuzzyEdits = maxEdits;
+    }
 
-        int getScore() {
-            return score;
+    // Everything that decides the result set of a query on one index generation
+    private static final class QueryKey {
+        private final SearchQuery query;
+        private final boolean searchTitle;
+        private final boolean searchContent;
+        private final boolean searchTags;
+        private final LocalDate fromDate;
+        private final LocalDate toDate;
+        private final boolean favoritesOnly;
+        private final Set<String> clauses;
+
+        QueryKey(SearchQuery query, boolean searchTitle, boolean searchContent, boolean searchTags,
+                 LocalDate fromDate, LocalDate toDate, boolean favoritesOnly) {
+            this.query = query;
+            this.searchTitle = searchTitle;
+            this.searchContent = searchContent;
+            this.searchTags = searchTags;
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+            this.favoritesOnly = favoritesOnly;
+            this.clauses = query.clauses();
+        }
+
+        // Every match of this key is a match of the wider one: the same fields, all of its
+        // clauses and maybe more, a date range inside its range, and favorites only if it was
+        boolean narrows(QueryKey wider) {
+            return searchTitle == wider.searchTitle
+                    && searchContent == wider.searchContent
+                    && searchTags == wider.searchTags
+                    && (favoritesOnly || !wider.favoritesOnly)
+                    && (wider.fromDate == null || (fromDate != null && !fromDate.isBefore(wider.fromDate)))
+                    && (wider.toDate == null || (toDate != null && !toDate.isAfter(wider.toDate)))
+                    && clauses.containsAll(wider.clauses);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof QueryKey)) return false;
+            QueryKey other = (QueryKey) o;
+            return searchTitle == other.searchTitle
+                    && searchContent == other.searchContent
+                    && searchTags == other.searchTags
+                    && favoritesOnly == other.favoritesOnly
+                    && query.equals(other.query)
+                    && Objects.equals(fromDate, other.fromDate)
+                    && Objects.equals(toDate, other.toDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, searchTitle, searchContent, searchTags, fromDate, toDate,
+                    favoritesOnly);
         }
     }
-}
\ No newline at end of file
+}
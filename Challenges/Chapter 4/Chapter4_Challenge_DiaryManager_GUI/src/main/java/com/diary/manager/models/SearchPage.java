@@ -0,0 +1,30 @@
+package com.diary.manager.models;
+
+import javafx.collections.ObservableList;
+
+/**
+ * One page of a search's results, best first, with the number of matches
+ * on every page. Both come from the same search, so the total is right for
+ * this page even while other searches run.
+ */
+public final class SearchPage {
+
+    private final ObservableList<DiaryEntry> entries;
+    private final int totalHits;
+
+    SearchPage(ObservableList<DiaryEntry> entries, int totalHits) {
+        this.entries = entries;
+        this.totalHits = totalHits;
+    }
+
+    public ObservableList<DiaryEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Total number of matches, including those outside this page
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+}
@@ -0,0 +1,615 @@
+package com.diary.manager.models;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed search query, as a tree of terms combined with AND, OR and NOT.
+ *
+ * Syntax:
+ * <ul>
+ *   <li>{@code rain umbrella} - both words (AND is implied; an explicit AND is allowed)</li>
+ *   <li>{@code rain OR snow} - either word; OR binds tighter than AND, so
+ *       {@code walk rain OR snow} is walk AND (rain OR snow)</li>
+ *   <li>{@code -work} or {@code NOT work} - without the word</li>
+ *   <li>{@code (a b) OR c} - grouping</li>
+ *   <li>{@code title:trip}, {@code content:trip}, {@code tag:travel}, {@code mood:happy}
+ *       - the word in one field only; tags and moods match whole values,
+ *       so {@code tag:"road trip"} finds that tag</li>
+ *   <li>{@code "walk in the park"} - the words in this order</li>
+ *   <li>{@code rain NEAR/3 umbrella} - two words at most 3 words apart, in either order</li>
+ * </ul>
+ * Words without a field prefix are searched in whichever fields the search
+ * asks for. Stop words and words of two letters or fewer are not searched
+ * for, but inside a phrase they still hold their place.
+ *
+ * Words are run through the {@link Analyzer} the index was built with, so
+ * with stemming on "walked" is searched for as "walk" in titles and content;
+ * tags and moods are matched by the word as typed.
+ *
+ * A query parsed as fuzzy also matches title and content terms a few edits
+ * away from each plain word: one edit for words of up to five letters, two
+ * for longer ones, never more than asked for. Phrases, NEAR, tags and moods
+ * stay exact.
+ */
+final class SearchQuery {
+
+    // Field bits of a Term or Proximity
+    static final int TITLE = 1;
+    static final int CONTENT = 2;
+    static final int TAGS = 4;
+    static final int MOOD = 8;
+    static final int DEFAULT_FIELDS = 0;    // whichever fields the search selects
+
+    static final SearchQuery EMPTY = new SearchQuery(null);
+
+    private static final Map<String, Integer> FIELD_PREFIXES = Map.of(
+            "title", TITLE, "content", CONTENT, "tag", TAGS, "tags", TAGS, "mood", MOOD);
+
+    private static final Pattern NEAR = Pattern.compile("NEAR/(\\d{1,9})");
+
+    // Shorter words get at most one edit; two would match too much of the vocabulary
+    private static final int MIN_LENGTH_FOR_TWO_EDITS = 6;
+
+    // Common stop words in English
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "the", "and", "or", "but", "in", "on", "at",
+            "to", "for", "of", "with", "by", "is", "am", "are", "was",
+            "were", "be", "been", "being", "have", "has", "had", "do",
+            "does", "did", "will", "would", "should", "could", "can",
+            "may", "might", "must", "shall", "this", "that", "these",
+            "those", "i", "you", "he", "she", "it", "we", "they"
+    );
+
+    private final Node root;    // null if nothing in the query is searchable
+    private final String text;  // canonical form, for equality
+
+    private SearchQuery(Node root) {
+        this.root = root;
+        this.text = root == null ? "" : root.toString();
+    }
+
+    static SearchQuery parse(String query, Analyzer analyzer) {
+        return parse(query, analyzer, 0);
+    }
+
+    /**
+     * Parse a query whose plain words match terms up to maxEdits edits away
+     */
+    static SearchQuery parse(String query, Analyzer analyzer, int maxEdits) {
+        if (query == null || query.trim().isEmpty()) {
+            return EMPTY;
+        }
+        return new SearchQuery(new Parser(lex(query), analyzer, maxEdits).parseQuery());
+    }
+
+    /**
+     * Field bits for the fields a search selects for words without a prefix
+     */
+    static int fields(boolean title, boolean content, boolean tags) {
+        return (title ? TITLE : 0) | (content ? CONTENT : 0) | (tags ? TAGS : 0);
+    }
+
+    Node root() {
+        return root;
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * The clauses every match satisfies, in canonical form: the operands of
+     * a top-level AND, otherwise the whole query. A query with all of
+     * another's clauses and maybe more matches a subset of what it matches.
+     */
+    Set<String> clauses() {
+        if (root == null) {
+            return Collections.emptySet();
+        }
+        if (!(root instanceof And)) {
+            return Set.of(text);
+        }
+        Set<String> clauses = new HashSet<>();
+        for (Node child : ((And) root).children) {
+            clauses.add(child.toString());
+        }
+        return clauses;
+    }
+
+    /**
+     * This query less some of its {@link #clauses}: what is left to check
+     * for docs already known to satisfy those
+     */
+    SearchQuery without(Set<String> clauses) {
+        if (root == null || clauses.isEmpty()) {
+            return this;
+        }
+        if (!(root instanceof And)) {
+            return clauses.contains(text) ? EMPTY : this;
+        }
+        List<Node> kept = new ArrayList<>();
+        for (Node child : ((And) root).children) {
+            if (!clauses.contains(child.toString())) {
+                kept.add(child);
+            }
+        }
+        Node rest = Parser.and(kept);
+        return rest == null ? EMPTY : new SearchQuery(rest);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SearchQuery)) return false;
+        return text.equals(((SearchQuery) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // Filter out short words and stop words
+    private static boolean isSearchable(String word) {
+        return word.length() > 2 && !STOP_WORDS.contains(word.toLowerCase());
+    }
+
+    private static String prefix(int fields) {
+        switch (fields) {
+            case TITLE:
+                return "title:";
+            case CONTENT:
+                return "content:";
+            case TAGS:
+                return "tag:";
+            case MOOD:
+                return "mood:";
+            default:
+                return "";
+        }
+    }
+
+    // Query tree
+
+    abstract static class Node {
+    }
+
+    /**
+     * One term in a set of fields: the analysed term for titles and content,
+     * and the normalised word as typed for tags and moods. A fuzzy term also
+     * matches title and content terms up to maxEdits edits away.
+     */
+    static final class Term extends Node {
+        final String term;
+        final String label;
+        final int fields;
+        final int maxEdits;
+
+        Term(String term, String label, int fields) {
+            this(term, label, fields, 0);
+        }
+
+        Term(String term, String label, int fields, int maxEdits) {
+            this.term = term;
+            this.label = label;
+            this.fields = fields;
+            this.maxEdits = maxEdits;
+        }
+
+        @Override
+        public String toString() {
+            return prefix(fields) + (term.equals(label) ? term : term + "/" + label)
+                    + (maxEdits > 0 ? "~" + maxEdits : "");
+        }
+    }
+
+    /**
+     * Docs matching every child. NOT children are left as such; the planner
+     * subtracts them.
+     */
+    static final class And extends Node {
+        final List<Node> children;
+
+        And(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner(" ", "(", ")");
+            children.forEach(child -> joiner.add(child.toString()));
+            return joiner.toString();
+        }
+    }
+
+    static final class Or extends Node {
+        final List<Node> options;
+
+        Or(List<Node> options) {
+            this.options = options;
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner(" OR ", "(", ")");
+            options.forEach(option -> joiner.add(option.toString()));
+            return joiner.toString();
+        }
+    }
+
+    static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        public String toString() {
+            return "-" + child;
+        }
+    }
+
+    /**
+     * A phrase (terms at fixed offsets from each other) or a NEAR pair (two
+     * terms at most some distance apart), checked against the positions of
+     * its terms within one field of one doc
+     */
+    static final class Proximity extends Node {
+        private final String[] terms;
+        private final int[] offsets;    // phrase: each term's offset in the phrase; null for NEAR
+        private final int distance;     // NEAR: largest allowed gap in words; -1 for a phrase
+        final int fields;
+
+        private Proximity(String[] terms, int[] offsets, int distance, int fields) {
+            this.terms = terms;
+            this.offsets = offsets;
+            this.distance = distance;
+            this.fields = fields;
+        }
+
+        int size() {
+            return terms.length;
+        }
+
+        String term(int index) {
+            return terms[index];
+        }
+
+        /**
+         * Whether the clause holds, given each term's sorted positions in the field
+         */
+        boolean matches(int[][] positions, int[] counts) {
+            return offsets != null ? matchesPhrase(positions, counts) : matchesNear(positions, counts);
+        }
+
+        // Intersect the position lists, each shifted back by its term's offset
+        private boolean matchesPhrase(int[][] positions, int[] counts) {
+            int[] cursors = new int[terms.length];
+            for (int i = 0; i < counts[0]; i++) {
+                int start = positions[0][i] - offsets[0];
+                boolean all = true;
+                for (int t = 1; t < terms.length && all; t++) {
+                    int wanted = start + offsets[t];
+                    while (cursors[t] < counts[t] && positions[t][cursors[t]] < wanted) {
+                        cursors[t]++;
+                    }
+                    if (cursors[t] == counts[t]) {
+                        return false; // later starts need even later positions
+                    }
+                    all = positions[t][cursors[t]] == wanted;
+                }
+                if (all) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Walk both position lists in step, comparing each with its closest neighbours
+        private boolean matchesNear(int[][] positions, int[] counts) {
+            int[] a = positions[0];
+            int[] b = positions[1];
+            if (terms[0].equals(terms[1])) {
+                // Two different occurrences of the same word
+                for (int i = 1; i < counts[0]; i++) {
+                    if (a[i] - a[i - 1] <= distance) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            int i = 0;
+            int j = 0;
+            while (i < counts[0] && j < counts[1]) {
+                if (Math.abs(a[i] - b[j]) <= distance) {
+                    return true;
+                }
+                if (a[i] < b[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return prefix(fields) + clause();
+        }
+
+        /**
+         * The clause without its field prefix, with a _ for each skipped word of a phrase
+         */
+        String clause() {
+            if (offsets == null) {
+                return terms[0] + " NEAR/" + distance + " " + terms[1];
+            }
+            StringBuilder phrase = new StringBuilder().append('"');
+            for (int t = 0; t < terms.length; t++) {
+                if (t > 0) {
+                    phrase.append(" _".repeat(offsets[t] - offsets[t - 1] - 1)).append(' ');
+                }
+                phrase.append(terms[t]);
+            }
+            return phrase.append('"').toString();
+        }
+    }
+
+    // Lexer
+
+    private enum TokenType { WORD, PHRASE, OR, NOT, NEAR, OPEN, CLOSE }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int fields;
+
+        Token(TokenType type, String text, int fields) {
+            this.type = type;
+            this.text = text;
+            this.fields = fields;
+        }
+    }
+
+    private static List<Token> lex(String query) {
+        List<Token> tokens = new ArrayList<>();
+        int length = query.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = query.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(c == '(' ? TokenType.OPEN : TokenType.CLOSE, null, DEFAULT_FIELDS));
+                pos++;
+            } else if (c == '"') {
+                int end = closingQuote(query, pos);
+                tokens.add(new Token(TokenType.PHRASE, query.substring(pos + 1, end), DEFAULT_FIELDS));
+                pos = Math.min(end + 1, length);
+            } else if (c == '-' && pos + 1 < length && !Character.isWhitespace(query.charAt(pos + 1))) {
+                tokens.add(new Token(TokenType.NOT, null, DEFAULT_FIELDS));
+                pos++;
+            } else {
+                int start = pos;
+                while (pos < length && !isWordEnd(query.charAt(pos))) {
+                    pos++;
+                }
+                String word = query.substring(start, pos);
+
+                int colon = word.indexOf(':');
+                Integer fields = colon > 0 ? FIELD_PREFIXES.get(word.substring(0, colon).toLowerCase()) : null;
+                if (word.equals("OR")) {
+                    tokens.add(new Token(TokenType.OR, null, DEFAULT_FIELDS));
+                } else if (word.equals("NOT")) {
+                    tokens.add(new Token(TokenType.NOT, null, DEFAULT_FIELDS));
+                } else if (word.equals("AND")) {
+                    continue; // implied anyway
+                } else if (NEAR.matcher(word).matches()) {
+                    tokens.add(new Token(TokenType.NEAR, word.substring(5), DEFAULT_FIELDS));
+                } else if (fields == null) {
+                    tokens.add(new Token(TokenType.WORD, word, DEFAULT_FIELDS));
+                } else if (colon + 1 < word.length()) {
+                    tokens.add(new Token(TokenType.WORD, word.substring(colon + 1), fields));
+                } else if (pos < length && query.charAt(pos) == '"') {
+                    int end = closingQuote(query, pos);
+                    tokens.add(new Token(TokenType.PHRASE, query.substring(pos + 1, end), fields));
+                    pos = Math.min(end + 1, length);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    // An unterminated quote runs to the end of the query
+    private static int closingQuote(String query, int open) {
+        int close = query.indexOf('"', open + 1);
+        return close < 0 ? query.length() : close;
+    }
+
+    private static boolean isWordEnd(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"';
+    }
+
+    // Recursive descent over the tokens. Anything malformed is skipped rather
+    // than rejected: a search box should always search for something.
+    private static final class Parser {
+        private final List<Token> tokens;
+        private final Analyzer analyzer;
+        private final int maxEdits;
+        private int next;
+
+        Parser(List<Token> tokens, Analyzer analyzer, int maxEdits) {
+            this.tokens = tokens;
+            this.analyzer = analyzer;
+            this.maxEdits = maxEdits;
+        }
+
+        Node parseQuery() {
+            Node root = parseAnd(false);
+            while (next < tokens.size()) {
+                // Only a stray closing parenthesis stops parseAnd early
+                next++;
+                root = and(Arrays.asList(root, parseAnd(false)));
+            }
+            return root;
+        }
+
+        // or-expression+ up to the end or, if nested, the closing parenthesis
+        private Node parseAnd(boolean nested) {
+            List<Node> children = new ArrayList<>();
+            while (next < tokens.size()) {
+                if (tokens.get(next).type == TokenType.CLOSE) {
+                    if (nested) {
+                        next++;
+                    }
+                    break;
+                }
+                children.add(parseOr());
+            }
+            return and(children);
+        }
+
+        // unary (OR unary)*
+        private Node parseOr() {
+            List<Node> options = new ArrayList<>();
+            options.add(parseUnary());
+            while (peek(TokenType.OR)) {
+                next++;
+                if (next < tokens.size() && tokens.get(next).type != TokenType.CLOSE) {
+                    options.add(parseUnary());
+                }
+            }
+            options.removeIf(Objects::isNull);
+            if (options.isEmpty()) {
+                return null;
+            }
+            return options.size() == 1 ? options.get(0) : new Or(options);
+        }
+
+        private Node parseUnary() {
+            if (peek(TokenType.NOT)) {
+                next++;
+                if (next == tokens.size() || peek(TokenType.CLOSE)) {
+                    return null;
+                }
+                Node child = parseUnary();
+                return child == null ? null : new Not(child);
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            Token token = tokens.get(next++);
+            switch (token.type) {
+                case OPEN:
+                    return parseAnd(true);
+                case PHRASE:
+                    return phrase(token.text, token.fields);
+                case WORD:
+                    if (peek(TokenType.NEAR) && next + 1 < tokens.size()
+                            && tokens.get(next + 1).type == TokenType.WORD) {
+                        Token near = tokens.get(next);
+                        Token right = tokens.get(next + 1);
+                        next += 2;
+                        return near(token, right, Integer.parseInt(near.text));
+                    }
+                    return words(token.text, token.fields);
+                default:
+                    return null; // a stray operator
+            }
+        }
+
+        private boolean peek(TokenType type) {
+            return next < tokens.size() && tokens.get(next).type == type;
+        }
+
+        // Searchable words of a field value; tags and moods are matched whole
+        private Node words(String text, int fields) {
+            if (fields == TAGS || fields == MOOD) {
+                return wholeValue(text, fields);
+            }
+            List<Node> terms = new ArrayList<>();
+            for (String word : Tokenizer.split(normalize(text))) {
+                if (isSearchable(word)) {
+                    int edits = Math.min(maxEdits, word.length() < MIN_LENGTH_FOR_TWO_EDITS ? 1 : 2);
+                    terms.add(new Term(analyzer.analyze(word), word, fields, edits));
+                }
+            }
+            return and(terms);
+        }
+
+        private Node phrase(String text, int fields) {
+            if (fields == TAGS || fields == MOOD) {
+                return wholeValue(text, fields);
+            }
+
+            List<String> words = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            int offset = 0;
+            for (String word : Tokenizer.split(normalize(text))) {
+                if (word.length() <= 1) {
+                    continue; // Not indexed, so not a position either
+                }
+                if (isSearchable(word)) {
+                    words.add(word);
+                    offsets.add(offset);
+                }
+                offset++;
+            }
+
+            if (words.size() <= 1) {
+                return words.isEmpty() ? null : new Term(analyzer.analyze(words.get(0)), words.get(0), fields);
+            }
+            List<String> terms = new ArrayList<>(words.size());
+            words.forEach(word -> terms.add(analyzer.analyze(word)));
+            return new Proximity(terms.toArray(new String[0]),
+                    offsets.stream().mapToInt(Integer::intValue).toArray(), -1, fields);
+        }
+
+        private Node near(Token left, Token right, int distance) {
+            String[] leftWords = searchableWords(left.text);
+            String[] rightWords = searchableWords(right.text);
+            boolean positional = left.fields != TAGS && left.fields != MOOD;
+            if (!positional || leftWords.length == 0 || rightWords.length == 0) {
+                return and(Arrays.asList(words(left.text, left.fields), words(right.text, left.fields)));
+            }
+            return new Proximity(new String[]{leftWords[leftWords.length - 1], rightWords[0]},
+                    null, distance, left.fields);
+        }
+
+        // Analysed, as positions are stored by term
+        private String[] searchableWords(String text) {
+            return Arrays.stream(Tokenizer.split(normalize(text)))
+                    .filter(SearchQuery::isSearchable)
+                    .map(analyzer::analyze)
+                    .toArray(String[]::new);
+        }
+
+        private Node wholeValue(String text, int fields) {
+            String value = normalize(text).trim();
+            return value.isEmpty() ? null : new Term(value, value, fields);
+        }
+
+        private String normalize(String text) {
+            return Tokenizer.normalize(text, analyzer.lowerCase());
+        }
+
+        private static Node and(List<Node> children) {
+            List<Node> kept = new ArrayList<>(children);
+            kept.removeIf(Objects::isNull);
+            if (kept.isEmpty()) {
+                return null;
+            }
+            return kept.size() == 1 ? kept.get(0) : new And(kept);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.diary.manager.models;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An {@link IndexSegment} saved to disk, so a restart can skip tokenizing
+ * every entry again.
+ *
+ * Layout: a fixed header (magic, format version, payload length and a CRC32C
+ * of the payload), then the payload: how words were analysed, then per doc
+ * its entry ID, modification time, dates and field lengths, then each field's
+ * term table. Doc ID gaps, frequencies and position lengths are varints, so
+ * a typical posting takes two or three bytes.
+ *
+ * Reading maps the file, checks the header and checksum, and copies the
+ * payload out in one bulk read to a direct buffer, outside the heap the
+ * garbage collector copies. The file is not held open, as a mapped file
+ * cannot be replaced on Windows. Only the per-doc columns and the term
+ * dictionaries are decoded then; each posting list stays encoded until its
+ * term is first looked up. Each stored doc is matched to the loaded entry
+ * with its ID; a doc whose entry is gone or has been modified since is
+ * returned as stale, for the caller to delete and re-index.
+ *
+ * Files are written to a temporary name and moved into place, so a crash
+ * mid-write leaves the previous file intact.
+ */
+final class SegmentFile {
+
+    private static final int MAGIC = 0x444D4958;    // "DMIX"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;     // magic, version, payload length, checksum
+
+    private SegmentFile() {
+    }
+
+    /**
+     * A segment read back from disk
+     */
+    static final class Restored {
+        final IndexSegment segment;
+        final BitSet stale;     // docs whose entry was removed or modified since the file was written
+
+        Restored(IndexSegment segment, BitSet stale) {
+            this.segment = segment;
+            this.stale = stale;
+        }
+    }
+
+    /**
+     * Save a segment. It must have no removed docs, as a freshly built or
+     * merged segment has none.
+     */
+    static void write(IndexSegment segment, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_BYTES);
+            CRC32C checksum = new CRC32C();
+            CountingStream counted = new CountingStream(Channels.newOutputStream(channel));
+            Output out = new Output(new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(counted, checksum), 1 << 16)));
+            out.string(segment.analyzer().signature());
+            out.data.writeByte(segment.isPositional() ? 1 : 0);
+            segment.writeTo(out);
+            out.data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(counted.count)
+                    .putInt((int) checksum.getValue());
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a saved segment, attaching the given entries (by ID) to its docs.
+     * Returns null if there is no file, or it was written by another format
+     * version, with other analysis settings or with(out) positions; throws
+     * if it is damaged.
+     */
+    static Restored read(Path file, Analyzer analyzer, boolean positional, Map<String, DiaryEntry> entries)
+            throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException("Index file is truncated: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (mapped.getInt() != MAGIC) {
+                throw new IOException("Not an index file: " + file);
+            }
+            if (mapped.getInt() != VERSION) {
+                return null;
+            }
+            long payloadLength = mapped.getLong();
+            int expectedChecksum = mapped.getInt();
+            if (payloadLength != fileSize - HEADER_BYTES) {
+                throw new IOException("Index file is truncated: " + file);
+            }
+
+            if (payloadLength > Integer.MAX_VALUE) {
+                throw new IOException("Index file is too large: " + file);
+            }
+
+            CRC32C checksum = new CRC32C();
+            checksum.update(mapped.duplicate());
+            if ((int) checksum.getValue() != expectedChecksum) {
+                throw new IOException("Index file checksum mismatch: " + file);
+            }
+
+            ByteBuffer payload = ByteBuffer.allocateDirect((int) payloadLength).put(mapped);
+            Input in = new Input(payload.flip());
+            if (!analyzer.signature().equals(in.string()) || in.data.get() != (positional ? 1 : 0)) {
+                return null;
+            }
+            BitSet stale = new BitSet();
+            IndexSegment segment = IndexSegment.readFrom(in, analyzer, positional, entries, stale);
+            return new Restored(segment, stale);
+        } catch (RuntimeException e) {
+            // A checksum collision on a damaged file, or a bug: either way the file is unusable
+            throw new IOException("Index file is damaged: " + file, e);
+        }
+    }
+
+    // Encoding
+
+    static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static final class Output {
+        final DataOutputStream data;
+
+        Output(DataOutputStream data) {
+            this.data = data;
+        }
+
+        void varint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                data.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data.write(value);
+        }
+
+        void string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    static final class Input {
+        final ByteBuffer data;
+        private byte[] scratch = new byte[64];     // strings are decoded from here, not from a copy each
+
+        Input(ByteBuffer data) {
+            this.data = data;
+        }
+
+        int varint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        String string() {
+            int length = varint();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            data.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Counts the payload bytes on their way to the channel
+    private static final class CountingStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.diary.manager.models;
+
+import java.util.*;
+
+/**
+ * Autocomplete dictionary for one segment: the title and tag vocabulary in
+ * sorted order, each term weighted by the number of docs it appears in.
+ *
+ * The terms starting with a prefix are one contiguous range of the sorted
+ * array, found by binary search. A max segment tree over the weights then
+ * hands out that range's terms heaviest first, one O(log n) step each, so
+ * the top N completions cost O(N log n) whatever the vocabulary size.
+ *
+ * Immutable once built, like the segment it belongs to.
+ */
+final class SuggestionIndex {
+
+    private final String[] terms;
+    private final int[] weights;
+    private final PostingList[] titlePostings;  // per term, null if not in any title
+    private final PostingList[] tagPostings;    // per term, null if not a tag
+    private final int[] tree;                   // max-weight term of each node; leaves start at leafBase
+    private final int leafBase;
+
+    SuggestionIndex(TermIndex titleIndex, TermIndex tagIndex) {
+        Set<String> vocabulary = new HashSet<>(titleIndex.terms());
+        vocabulary.addAll(tagIndex.terms());
+        terms = vocabulary.toArray(new String[0]);
+        Arrays.sort(terms);
+
+        weights = new int[terms.length];
+        titlePostings = new PostingList[terms.length];
+        tagPostings = new PostingList[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            titlePostings[i] = titleIndex.get(terms[i]);
+            tagPostings[i] = tagIndex.get(terms[i]);
+            weights[i] = PostingList.union(
+                    titlePostings[i] != null ? titlePostings[i] : PostingList.EMPTY,
+                    tagPostings[i] != null ? tagPostings[i] : PostingList.EMPTY).size();
+        }
+
+        int base = 1;
+        while (base < terms.length) {
+            base <<= 1;
+        }
+        leafBase = base;
+        tree = new int[2 * base];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < terms.length; i++) {
+            tree[base + i] = i;
+        }
+        for (int node = base - 1; node > 0; node--) {
+            tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * The most frequent completions of a prefix over several segments, heaviest
+     * first (ties alphabetically). A term's weight is its doc count summed over
+     * the segments it is live in.
+     *
+     * Each segment streams its own completions heaviest first. Every term seen
+     * is weighed in all segments at once, and the search stops as soon as the
+     * Nth best weight reaches the sum of what the streams could still produce
+     * (Fagin's threshold algorithm), so common prefixes never walk the tail.
+     */
+    static List<String> top(SuggestionIndex[] dictionaries, BitSet[] deleted, String prefix, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Completions[] streams = new Completions[dictionaries.length];
+        for (int i = 0; i < dictionaries.length; i++) {
+            streams[i] = dictionaries[i].complete(prefix);
+        }
+
+        // Weakest first, so the heap root is the one to evict
+        Comparator<Suggestion> weakestFirst = Comparator.comparingInt((Suggestion s) -> s.weight)
+                .thenComparing(s -> s.term, Comparator.reverseOrder());
+        PriorityQueue<Suggestion> best = new PriorityQueue<>(limit + 1, weakestFirst);
+        Set<String> weighed = new HashSet<>();
+        int[] bounds = new int[streams.length];     // no unseen term of stream i outweighs bounds[i]
+
+        boolean active = true;
+        while (active) {
+            active = false;
+            for (int i = 0; i < streams.length; i++) {
+                int index = streams[i].next();
+                if (index < 0) {
+                    bounds[i] = 0;
+                    continue;
+                }
+                active = true;
+                String term = dictionaries[i].terms[index];
+                bounds[i] = dictionaries[i].weights[index];
+                if (!weighed.add(term)) {
+                    continue;
+                }
+
+                int weight = 0;
+                for (int d = 0; d < dictionaries.length; d++) {
+                    weight += dictionaries[d].weight(term, deleted[d]);
+                }
+                if (weight > 0) {
+                    best.add(new Suggestion(term, weight));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+
+            int threshold = 0;
+            for (int bound : bounds) {
+                threshold += bound;
+            }
+            // Unseen terms can at best tie; a single stream hands out ties alphabetically,
+            // so they would lose, and across segments an exact tie at the cut-off is rare
+            if (best.size() == limit && best.peek().weight >= threshold) {
+                break;
+            }
+        }
+
+        List<String> suggestions = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            suggestions.add(best.poll().term);
+        }
+        Collections.reverse(suggestions);
+        return suggestions;
+    }
+
+    /**
+     * Docs containing the term in this segment, or 0 if it is absent or all its docs are deleted
+     */
+    private int weight(String term, BitSet deleted) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return 0;
+        }
+        if (deleted != null && !deleted.isEmpty()
+                && !PostingList.hasLive(titlePostings[index] != null ? titlePostings[index] : PostingList.EMPTY, deleted)
+                && !PostingList.hasLive(tagPostings[index] != null ? tagPostings[index] : PostingList.EMPTY, deleted)) {
+            return 0;
+        }
+        return weights[index];
+    }
+
+    private Completions complete(String prefix) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        return new Completions(from, to);
+    }
+
+    // First position whose term is >= key
+    private int lowerBound(String key) {
+        int index = Arrays.binarySearch(terms, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // Heaviest term in [from, to), or -1 if the range is empty
+    private int heaviest(int from, int to) {
+        int best = -1;
+        for (int left = from + leafBase, right = to + leafBase; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                best = heavier(best, tree[left++]);
+            }
+            if ((right & 1) == 1) {
+                best = heavier(best, tree[--right]);
+            }
+        }
+        return best;
+    }
+
+    // Higher weight wins; ties go to the alphabetically first term
+    private int heavier(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        if (weights[a] != weights[b]) {
+            return weights[a] > weights[b] ? a : b;
+        }
+        return Math.min(a, b);
+    }
+
+    /**
+     * Terms of a range, heaviest first. Each step takes the heaviest term of
+     * the best pending sub-range and splits that sub-range around it.
+     */
+    private final class Completions {
+        // {from, to, heaviest}, heaviest first
+        private final PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (a, b) -> a[2] == b[2] ? 0 : heavier(a[2], b[2]) == a[2] ? -1 : 1);
+
+        Completions(int from, int to) {
+            push(from, to);
+        }
+
+        int next() {
+            int[] range = ranges.poll();
+            if (range == null) {
+                return -1;
+            }
+            push(range[0], range[2]);
+            push(range[2] + 1, range[1]);
+            return range[2];
+        }
+
+        private void push(int from, int to) {
+            if (from < to) {
+                ranges.add(new int[]{from, to, heaviest(from, to)});
+            }
+        }
+    }
+
+    private static final class Suggestion {
+        private final String term;
+        private final int weight;
+
+        Suggestion(String term, int weight) {
+            this.term = term;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.diary.manager.models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replaces every word of a synonym group with the group's first word, so
+ * "glad" and "joyful" index, and are searched for, as "happy". Each word
+ * stays one word, so positions and phrase queries are unaffected.
+ *
+ * Groups come from {@code /search/synonyms.txt}: one comma-separated group
+ * per line, canonical word first, {@code #} starting a comment. The words
+ * are run through the filters before this one in the chain, so they are
+ * matched as stems when stemming is on.
+ *
+ * Lookups go straight from the term buffer into an open-addressing table,
+ * without creating a string per word.
+ */
+final class SynonymFilter implements Analyzer.TermFilter {
+
+    private static final String RESOURCE = "/search/synonyms.txt";
+
+    private static volatile List<String[]> standardGroups;
+
+    private final char[][] words;       // slot -> word, null if the slot is free
+    private final char[][] canonical;   // slot -> the word it is replaced with
+    private final int mask;
+
+    private SynonymFilter(List<String[]> groups, Analyzer preceding) {
+        List<String> from = new ArrayList<>();
+        List<String> to = new ArrayList<>();
+        for (String[] group : groups) {
+            String target = preceding.analyze(group[0]);
+            for (int i = 1; i < group.length; i++) {
+                String word = preceding.analyze(group[i]);
+                if (!word.equals(target) && !from.contains(word)) {
+                    from.add(word);
+                    to.add(target);
+                }
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(from.size(), 8) * 2 - 1) << 1;
+        words = new char[capacity][];
+        canonical = new char[capacity][];
+        mask = capacity - 1;
+        for (int i = 0; i < from.size(); i++) {
+            char[] word = from.get(i).toCharArray();
+            int slot = hash(word, word.length) & mask;
+            while (words[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            words[slot] = word;
+            canonical[slot] = to.get(i).toCharArray();
+        }
+    }
+
+    /**
+     * The built-in groups, with their words analysed by the preceding filters
+     */
+    static SynonymFilter standard(Analyzer preceding) {
+        return new SynonymFilter(standardGroups(), preceding);
+    }
+
+    @Override
+    public void apply(Analyzer.TermBuffer term) {
+        int slot = hash(term.chars, term.length) & mask;
+        for (char[] word = words[slot]; word != null; word = words[slot = (slot + 1) & mask]) {
+            if (equals(word, term.chars, term.length)) {
+                char[] replacement = canonical[slot];
+                term.ensureCapacity(replacement.length);
+                System.arraycopy(replacement, 0, term.chars, 0, replacement.length);
+                term.length = replacement.length;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Includes a fingerprint of the groups, so editing the synonym file
+     * invalidates indexes built with the old one
+     */
+    @Override
+    public String signature() {
+        int fingerprint = 0;
+        for (int slot = 0; slot < words.length; slot++) {
+            if (words[slot] != null) {
+                // Order-independent, as the slots depend on the table size
+                fingerprint += hash(words[slot], words[slot].length) * 31 + hash(canonical[slot], canonical[slot].length);
+            }
+        }
+        return "SynonymFilter:" + Integer.toHexString(fingerprint);
+    }
+
+    private static int hash(char[] chars, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(char[] word, char[] chars, int length) {
+        if (word.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word[i] != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String[]> standardGroups() {
+        List<String[]> groups = standardGroups;
+        if (groups == null) {
+            // Reading the file twice in a race is harmless
+            groups = load(SynonymFilter.class.getResourceAsStream(RESOURCE));
+            standardGroups = groups;
+        }
+        return groups;
+    }
+
+    /**
+     * Parse a synonym file. Words are lower-cased; multi-word entries are skipped.
+     */
+    private static List<String[]> load(InputStream in) {
+        if (in == null) {
+            return Collections.emptyList();
+        }
+        List<String[]> groups = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                List<String> group = new ArrayList<>();
+                for (String word : line.split(",")) {
+                    word = word.trim().toLowerCase();
+                    if (!word.isEmpty() && word.indexOf(' ') < 0) {
+                        group.add(word);
+                    }
+                }
+                if (group.size() > 1) {
+                    groups.add(group.toArray(new String[0]));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read synonyms", e);
+        }
+        return groups;
+    }
+}
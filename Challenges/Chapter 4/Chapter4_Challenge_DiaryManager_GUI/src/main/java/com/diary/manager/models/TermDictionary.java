@@ -0,0 +1,88 @@
+package com.diary.manager.models;
+
+import java.util.*;
+
+/**
+ * The title and content vocabulary of one segment in sorted order, for
+ * fuzzy lookups.
+ *
+ * The sorted array is walked as an implicit trie: the terms sharing a
+ * prefix are one contiguous range, split by their next character with
+ * binary searches. A {@link LevenshteinAutomaton} steps along with the
+ * walk, and a range is dropped as soon as its prefix puts the automaton in
+ * a dead state. Only prefixes within reach of the query word are visited,
+ * so the cost grows with the number of near misses rather than with the
+ * vocabulary.
+ *
+ * Immutable once built, like the segment it belongs to.
+ */
+final class TermDictionary {
+
+    private final String[] terms;
+    private final int maxLength;
+
+    TermDictionary(TermIndex titleIndex, TermIndex contentIndex) {
+        Set<String> vocabulary = new HashSet<>(titleIndex.terms());
+        vocabulary.addAll(contentIndex.terms());
+        terms = vocabulary.toArray(new String[0]);
+        Arrays.sort(terms);
+
+        int longest = 0;
+        for (String term : terms) {
+            longest = Math.max(longest, term.length());
+        }
+        maxLength = longest;
+    }
+
+    /**
+     * Add every term the automaton accepts, with its edit distance, keeping
+     * the smaller distance for a term already present
+     */
+    void collectMatches(LevenshteinAutomaton automaton, Map<String, Integer> into) {
+        int[][] states = new int[maxLength + 1][];
+        states[0] = automaton.start();
+        walk(0, terms.length, 0, states, automaton, into);
+    }
+
+    // Terms [from, to) share their first depth characters, which led to states[depth].
+    // Each depth has one state array, overwritten for every prefix of that length.
+    private void walk(int from, int to, int depth, int[][] states, LevenshteinAutomaton automaton,
+                      Map<String, Integer> into) {
+        int[] state = states[depth];
+        // The prefix itself sorts first
+        if (from < to && terms[from].length() == depth) {
+            if (automaton.isMatch(state)) {
+                into.merge(terms[from], automaton.distance(state), Math::min);
+            }
+            from++;
+        }
+
+        while (from < to) {
+            char c = terms[from].charAt(depth);
+            int end = endOfRun(from, to, depth, c);
+            if (states[depth + 1] == null) {
+                states[depth + 1] = new int[state.length];
+            }
+            int[] next = automaton.step(state, c, states[depth + 1]);
+            if (automaton.canMatch(next)) {
+                walk(from, end, depth + 1, states, automaton, into);
+            }
+            from = end;
+        }
+    }
+
+    // First term in (from, to) whose character at depth is after c
+    private int endOfRun(int from, int to, int depth, char c) {
+        int low = from + 1;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (terms[middle].charAt(depth) <= c) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
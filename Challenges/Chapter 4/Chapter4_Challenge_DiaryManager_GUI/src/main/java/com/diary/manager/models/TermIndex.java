@@ -0,0 +1,241 @@
+package com.diary.manager.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Term -> posting list hash table for one field. Each posting list knows its
+ * own term, so the table is just an open-addressing array of lists. Terms can
+ * be looked up straight from a tokenizer buffer: indexing a word that is
+ * already in the vocabulary allocates nothing.
+ *
+ * A table read from a {@link SegmentFile} holds stubs at first and decodes
+ * each list the first time it is looked up, so loading reads only the
+ * vocabulary. Such a table is never written to.
+ */
+final class TermIndex {
+
+    private final boolean positional;   // lists created here record word positions
+    private PostingList[] table = new PostingList[16];
+    private int size;
+    private ByteBuffer saved;           // encoded lists behind the stubs, for a table read from a file
+
+    TermIndex() {
+        this(false);
+    }
+
+    TermIndex(boolean positional) {
+        this.positional = positional;
+    }
+
+    boolean isPositional() {
+        return positional;
+    }
+
+    int size() {
+        return size;
+    }
+
+    PostingList get(String term) {
+        PostingList[] slots = table;
+        int mask = slots.length - 1;
+        for (int slot = mix(term.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            PostingList postings = slots[slot];
+            if (postings == null) {
+                return null;
+            }
+            if (postings.term().equals(term)) {
+                return loaded(postings);
+            }
+        }
+    }
+
+    PostingList getOrDefault(String term, PostingList defaultValue) {
+        PostingList postings = get(term);
+        return postings != null ? postings : defaultValue;
+    }
+
+    /**
+     * Find the list for a term held in a buffer, creating it (and only then
+     * allocating the term string) if the term is new
+     */
+    PostingList getOrCreate(char[] buffer, int length) {
+        int hash = hash(buffer, length);
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        for (PostingList postings = table[slot]; postings != null; postings = table[slot]) {
+            if (matches(postings.term(), buffer, length)) {
+                return postings;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return insert(slot, new PostingList(new String(buffer, 0, length), positional));
+    }
+
+    PostingList getOrCreate(String term) {
+        int mask = table.length - 1;
+        int slot = mix(term.hashCode()) & mask;
+        for (PostingList postings = table[slot]; postings != null; postings = table[slot]) {
+            if (postings.term().equals(term)) {
+                return postings;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return insert(slot, new PostingList(term, positional));
+    }
+
+    /**
+     * Remove a list, closing the gap so later probes still find their entries
+     */
+    void remove(PostingList postings) {
+        int mask = table.length - 1;
+        int slot = mix(postings.term().hashCode()) & mask;
+        while (table[slot] != postings) {
+            if (table[slot] == null) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Backward-shift deletion for linear probing
+        int gap = slot;
+        for (int next = (gap + 1) & mask; table[next] != null; next = (next + 1) & mask) {
+            int home = mix(table[next].term().hashCode()) & mask;
+            // Move the entry back if its home slot is not in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = null;
+        size--;
+    }
+
+    void clear() {
+        table = new PostingList[16];
+        size = 0;
+    }
+
+    void forEach(Consumer<PostingList> action) {
+        for (PostingList postings : table) {
+            if (postings != null) {
+                action.accept(loaded(postings));
+            }
+        }
+    }
+
+    /**
+     * All terms, in no particular order
+     */
+    List<String> terms() {
+        List<String> terms = new ArrayList<>(size);
+        for (PostingList postings : table) {
+            if (postings != null) {
+                terms.add(postings.term());
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Save the vocabulary, each term with the length of its encoded list,
+     * then the lists in the same order
+     */
+    void writeTo(SegmentFile.Output out) throws IOException {
+        out.varint(size);
+        for (PostingList postings : table) {
+            if (postings != null) {
+                out.string(postings.term());
+                out.varint(loaded(postings).encodedLength());
+            }
+        }
+        for (PostingList postings : table) {
+            if (postings != null) {
+                loaded(postings).writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * Fill this empty table from {@link #writeTo}'s output: a stub per term,
+     * pointing into the encoded lists, which are kept as they are
+     */
+    void readFrom(SegmentFile.Input in) {
+        int count = in.varint();
+        while (table.length < count * 2) {
+            table = new PostingList[table.length * 2];
+        }
+        int mask = table.length - 1;
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            String term = in.string();
+            int slot = mix(term.hashCode()) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            insert(slot, PostingList.saved(term, offset));
+            offset += in.varint();
+        }
+        saved = in.data.slice().limit(offset);
+        in.data.position(in.data.position() + offset);
+    }
+
+    private PostingList loaded(PostingList postings) {
+        return saved == null ? postings : postings.decode(saved, positional);
+    }
+
+    private PostingList insert(int slot, PostingList postings) {
+        table[slot] = postings;
+        if (++size * 2 > table.length) {
+            resize();
+        }
+        return postings;
+    }
+
+    private void resize() {
+        PostingList[] old = table;
+        table = new PostingList[old.length * 2];
+        int mask = table.length - 1;
+        for (PostingList postings : old) {
+            if (postings != null) {
+                int slot = mix(postings.term().hashCode()) & mask;
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = postings;
+            }
+        }
+    }
+
+    // Same as String.hashCode, so buffer and String lookups land in the same slot
+    private static int hash(char[] buffer, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash;
+    }
+
+    // Spread the low bits; String hashes of short terms cluster badly otherwise
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String term, char[] buffer, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package com.diary.manager.models;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into search terms in a single pass over its code points.
+ *
+ * A term is a maximal run of letters, numbers and apostrophes, lower-cased
+ * unless case-sensitive search is on. That is exactly what the original
+ * regex pipeline (lower-case, replace everything else with spaces, split on
+ * whitespace) produces, but without compiling patterns or allocating the
+ * intermediate strings: terms are written into a reusable buffer and handed
+ * to a {@link TermSink}. The buffer is only valid during the callback.
+ *
+ * A Tokenizer is not thread-safe; use one per thread.
+ */
+public final class Tokenizer {
+
+    /**
+     * Receives each term as a slice of the tokenizer's buffer
+     */
+    public interface TermSink {
+        void accept(char[] buffer, int length);
+    }
+
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("[^\\p{L}\\p{N}\\s']");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private char[] buffer = new char[32];
+
+    /**
+     * Emit every term of the text to the sink, in order
+     */
+    public void tokenize(String text, boolean lowerCase, TermSink sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+
+        if (lowerCase && needsContextualLowerCase(text)) {
+            // Rare: String.toLowerCase treats these context- or locale-dependently
+            for (String term : split(normalize(text, true))) {
+                emit(term, sink);
+            }
+            return;
+        }
+
+        int length = 0;
+        int index = 0;
+        while (index < text.length()) {
+            int codePoint = text.codePointAt(index);
+            index += Character.charCount(codePoint);
+
+            if (lowerCase) {
+                codePoint = Character.toLowerCase(codePoint);
+            }
+
+            if (isTermCharacter(codePoint)) {
+                if (length + 2 > buffer.length) {
+                    char[] grown = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                length += Character.toChars(codePoint, buffer, length);
+            } else if (length > 0) {
+                sink.accept(buffer, length);
+                length = 0;
+            }
+        }
+
+        if (length > 0) {
+            sink.accept(buffer, length);
+        }
+    }
+
+    /**
+     * Reference normalisation: lower-case and blank out everything except
+     * letters, numbers, whitespace and apostrophes
+     */
+    public static String normalize(String text, boolean lowerCase) {
+        if (text == null) {
+            return "";
+        }
+
+        String normalized = text.trim();
+
+        if (lowerCase) {
+            normalized = normalized.toLowerCase();
+        }
+
+        // Remove punctuation (except apostrophes for contractions)
+        return NON_WORD_CHARACTERS.matcher(normalized).replaceAll(" ");
+    }
+
+    /**
+     * Reference split of normalised text on whitespace
+     */
+    public static String[] split(String normalizedText) {
+        return WHITESPACE.split(normalizedText);
+    }
+
+    // Same classes as [\p{L}\p{N}'], plus nothing else: every other character separates terms
+    private static boolean isTermCharacter(int codePoint) {
+        if (codePoint < 0x80) {
+            return (codePoint >= 'a' && codePoint <= 'z')
+                    || (codePoint >= 'A' && codePoint <= 'Z')
+                    || (codePoint >= '0' && codePoint <= '9')
+                    || codePoint == '\'';
+        }
+
+        switch (Character.getType(codePoint)) {
+            case Character.UPPERCASE_LETTER:
+            case Character.LOWERCASE_LETTER:
+            case Character.TITLECASE_LETTER:
+            case Character.MODIFIER_LETTER:
+            case Character.OTHER_LETTER:
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * String.toLowerCase maps capital sigma by context, dotted capital I to two
+     * characters, and follows Turkish/Azeri/Lithuanian rules in those locales.
+     * Character.toLowerCase cannot reproduce that, so such text takes the slow path.
+     */
+    private static boolean needsContextualLowerCase(String text) {
+        String language = Locale.getDefault().getLanguage();
+        if (language.equals("tr") || language.equals("az") || language.equals("lt")) {
+            return true;
+        }
+        return text.indexOf('Σ') >= 0 || text.indexOf('İ') >= 0;
+    }
+
+    private void emit(String term, TermSink sink) {
+        if (term.isEmpty()) {
+            return;
+        }
+        if (term.length() > buffer.length) {
+            buffer = new char[term.length()];
+        }
+        term.getChars(0, term.length(), buffer, 0);
+        sink.accept(buffer, term.length());
+    }
+}
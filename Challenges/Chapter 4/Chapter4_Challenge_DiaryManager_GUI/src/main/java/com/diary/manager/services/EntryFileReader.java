@@ -0,0 +1,136 @@
+package com.diary.manager.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads many entry files at once, on a pool of up to {@link #concurrency()}
+ * threads, and hands each file's bytes back in the order the files were
+ * given. On a slow disk or a network home directory, reading is bound by
+ * the latency of each read, so several in flight take a fraction of the time
+ * of one after another.
+ *
+ * At most four reads per thread run ahead of the file being handed back, so
+ * memory stays bounded however many files there are. The caller's thread
+ * does the handing back, so the visitor needs no locking. A concurrency of 1
+ * reads on the caller's thread, without a pool.
+ */
+public class EntryFileReader {
+
+    /**
+     * Reads in flight by default: enough to hide a disk's latency, few
+     * enough not to flood it
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+    private static final int READ_AHEAD_PER_THREAD = 4;
+
+    /**
+     * Given each file in turn, with its content, or the error reading it
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(Path file, byte[] content, IOException error);
+    }
+
+    private final int concurrency;
+
+    public EntryFileReader() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    public EntryFileReader(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int concurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Read every file, visiting them in order and reporting the number
+     * visited so far. A file that cannot be read is visited with its error;
+     * the visitor or listener throwing stops the reads still to come.
+     */
+    public void read(List<Path> files, Visitor visitor, ProgressListener progress) throws IOException {
+        if (concurrency == 1 || files.size() <= 1) {
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                byte[] content = null;
+                IOException error = null;
+                try {
+                    content = readFile(file);
+                } catch (IOException e) {
+                    error = e;
+                }
+                visitor.visit(file, content, error);
+                progress.progress(i + 1, files.size());
+            }
+            return;
+        }
+
+        ThreadPoolExecutor pool = newPool(Math.min(concurrency, files.size()));
+        try {
+            Queue<Future<byte[]>> pending = new ArrayDeque<>();
+            int window = concurrency * READ_AHEAD_PER_THREAD;
+            int submitted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                while (submitted < files.size() && submitted < i + window) {
+                    Path file = files.get(submitted++);
+                    pending.add(pool.submit(() -> readFile(file)));
+                }
+
+                Path file = files.get(i);
+                byte[] content = null;
+                IOException error = null;
+                try {
+                    content = pending.remove().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        error = (IOException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else {
+                        throw new IOException("Failed to read " + file, e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted reading " + file);
+                }
+                visitor.visit(file, content, error);
+                progress.progress(i + 1, files.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read one file. Called on the pool's threads.
+     */
+    protected byte[] readFile(Path file) throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    private static ThreadPoolExecutor newPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "entry-file-reader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
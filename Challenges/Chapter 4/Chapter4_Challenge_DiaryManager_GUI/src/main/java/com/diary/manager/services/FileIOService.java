@@ -3,39 +3,64 @@ package com.diary.manager.services;
 import com.diary.manager.exceptions.DiaryException;
 import com.diary.manager.exceptions.FileOperationException;
 import com.diary.manager.models.DiaryEntry;
-import com.diary.manager.models.DiaryManager;
+import com.diary.manager.models.EntryContent;
+import com.diary.manager.models.EntryMetadata;
 import com.diary.manager.tasks.SaveTask;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializer;
-import com.google.gson.reflect.TypeToken;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public class FileIOService {
 
     private static final String DATA_DIR = "data";
-    private static final String ENTRIES_DIR = DATA_DIR + "/entries";
-    private static final String METADATA_FILE = DATA_DIR + "/metadata.json";
+    private static final String DATA_DIR_PROPERTY = "diary.data.dir";
     private static final DateTimeFormatter FILE_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HHmmss");
+    private static final int WRITE_CHUNK = 64 * 1024;     // bytes written between progress reports
     private static final Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, (JsonSerializer<LocalDateTime>) (src, typeOfSrc, context) -> new JsonPrimitive(src.toString()))
             .registerTypeAdapter(LocalDateTime.class, (JsonDeserializer<LocalDateTime>) (json, typeOfT, context) -> LocalDateTime.parse(json.getAsString()))
-            .setPrettyPrinting()
             .create();
 
+    private final Path dataDir;
+    private final Path entriesDir;
+    private final Path journalFile;
+    private final MetadataJournal journal;
+    private int readConcurrency = EntryFileReader.DEFAULT_CONCURRENCY;
+
+    /**
+     * Keep the diary in data/, or in the directory named by the
+     * diary.data.dir system property, as the tests do
+     */
     public FileIOService() {
+        this(Paths.get(System.getProperty(DATA_DIR_PROPERTY, DATA_DIR)));
+    }
+
+    /**
+     * Keep the diary in the given directory instead of data/
+     */
+    public FileIOService(Path dataDir) {
+        this.dataDir = dataDir;
+        this.entriesDir = dataDir.resolve("entries");
+        this.journalFile = dataDir.resolve("metadata.journal");
+        this.journal = new MetadataJournal(dataDir.resolve("metadata.bin"),
+                dataDir.resolve("metadata.json"),      // before the binary snapshot
+                journalFile, gson);
         try {
             createDirectories();
         } catch (FileOperationException e) {
@@ -46,19 +71,44 @@ public class FileIOService {
 
     private void createDirectories() throws FileOperationException {
         try {
-            Files.createDirectories(Paths.get(ENTRIES_DIR));
+            Files.createDirectories(entriesDir);
         } catch (IOException e) {
-            throw new FileOperationException("Failed to create data directories", Paths.get(ENTRIES_DIR), FileOperationException.FileOperation.CREATE, e);
+            throw new FileOperationException("Failed to create data directories", entriesDir, FileOperationException.FileOperation.CREATE, e);
+        }
+    }
+
+    /**
+     * How many entry files are read at once when there is no metadata to
+     * load instead; 1 reads them one after another
+     */
+    public void setReadConcurrency(int readConcurrency) {
+        if (readConcurrency < 1) {
+            throw new IllegalArgumentException("Read concurrency must be at least 1: " + readConcurrency);
         }
+        this.readConcurrency = readConcurrency;
+    }
+
+    public int getReadConcurrency() {
+        return readConcurrency;
+    }
+
+    /**
+     * Where the search index is saved between runs
+     */
+    public Path getIndexFile() {
+        return dataDir.resolve("search.idx");
     }
 
     public void saveEntry(DiaryEntry entry) {
-        SaveTask saveTask = new SaveTask(entry);
+        // The task renames the entry to its file name, so take both IDs first
+        String previousId = entry.getId();
+        String id = entryId(entry);
+        SaveTask saveTask = new SaveTask(entry, this);
         new Thread(saveTask).start();
 
         // Also save metadata
         try {
-            saveMetadata();
+            saveMetadata(entry, id, previousId);
         } catch (DiaryException e) {
             // Log this error, as it's happening in a background-like thread
             System.err.println("Error saving metadata after async save: " + e.getMessage());
@@ -66,21 +116,54 @@ public class FileIOService {
     }
 
     public void saveEntrySync(DiaryEntry entry) throws DiaryException {
+        saveEntrySync(entry, ProgressListener.NONE);
+    }
+
+    /**
+     * Save an entry's content, reporting the bytes written so far. The content
+     * is written to a temporary file and moved into place, so a save that is
+     * cancelled or fails part way leaves the entry's file as it was.
+     */
+    public void saveEntrySync(DiaryEntry entry, ProgressListener progress) throws DiaryException {
         try {
             String fileName = generateFileName(entry);
-            Path filePath = Paths.get(ENTRIES_DIR, fileName);
-
-            // Save content
-            Files.writeString(filePath, entry.getContent(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Path filePath = entriesDir.resolve(fileName);
+
+            // Save content; each save has its own temporary file, as saves of one entry may overlap
+            byte[] content = entry.getContent().getBytes(StandardCharsets.UTF_8);
+            Path temporary = Files.createTempFile(entriesDir, fileName, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    int written = 0;
+                    do {
+                        int chunk = Math.min(WRITE_CHUNK, content.length - written);
+                        ByteBuffer buffer = ByteBuffer.wrap(content, written, chunk);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        written += chunk;
+                        progress.progress(written, content.length);
+                    } while (written < content.length);
+                    channel.force(false);
+                }
+                Files.move(temporary, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            EntryContent.cache().invalidate(filePath);
 
             // Update entry's filename reference
-            entry.setId(fileName.replace(".txt", ""));
+            entry.setId(entryId(entry));
 
         } catch (IOException e) {
-            throw new FileOperationException("Failed to save entry: " + entry.getTitle(), Paths.get(ENTRIES_DIR, entry.getTitle()), FileOperationException.FileOperation.WRITE, e);
+            throw new FileOperationException("Failed to save entry: " + entry.getTitle(), entriesDir.resolve(entry.getTitle()), FileOperationException.FileOperation.WRITE, e);
         }
     }
 
+    private String entryId(DiaryEntry entry) {
+        return generateFileName(entry).replace(".txt", "");
+    }
+
     private String generateFileName(DiaryEntry entry) {
         String baseName = entry.getCreatedDate().format(FILE_NAME_FORMATTER);
         String titlePart = entry.getTitle()
@@ -96,69 +179,88 @@ public class FileIOService {
     }
 
     public List<DiaryEntry> loadAllEntries() throws DiaryException {
-        List<DiaryEntry> entries;
+        return loadAllEntries(ProgressListener.NONE);
+    }
 
+    /**
+     * Load every entry, reporting the number of entries loaded so far
+     */
+    public List<DiaryEntry> loadAllEntries(ProgressListener progress) throws DiaryException {
+        List<DiaryEntry> entries = new ArrayList<>();
+        loadEntries(entries::add, progress);
+        return entries;
+    }
+
+    /**
+     * Pass each entry to the sink as soon as it is read, in the order they
+     * were first saved, reporting the number passed on so far
+     */
+    public void loadEntries(Consumer<DiaryEntry> sink, ProgressListener progress) throws DiaryException {
         try {
             // Load from metadata if exists
-            if (Files.exists(Paths.get(METADATA_FILE))) {
-                entries = loadFromMetadata();
+            if (journal.exists()) {
+                journal.load(metadata -> sink.accept(toEntry(metadata)), progress);
             } else {
                 // Fallback to scanning files
-                entries = scanEntriesDirectory();
-                saveMetadata(entries);
+                List<DiaryEntry> entries = new ArrayList<>();
+                List<EntryMetadata> metadata = new ArrayList<>();
+                scanEntriesDirectory(entries, metadata, progress);
+                journal.rewrite(metadata);
+                entries.forEach(sink);
             }
 
-            return entries;
-
         } catch (IOException e) {
-            throw new FileOperationException("Failed to load entries", Paths.get(ENTRIES_DIR), FileOperationException.FileOperation.READ, e);
+            throw new FileOperationException("Failed to load entries", entriesDir, FileOperationException.FileOperation.READ, e);
         }
     }
 
-    private List<DiaryEntry> loadFromMetadata() throws IOException {
-        String json = Files.readString(Paths.get(METADATA_FILE));
-        Type listType = new TypeToken<List<DiaryEntry>>(){}.getType();
-        List<DiaryEntry> entries = gson.fromJson(json, listType);
-
-        // Load content for each entry
-        if (entries != null) {
-            for (DiaryEntry entry : entries) {
-                loadEntryContent(entry);
-            }
-        } else {
-            entries = new ArrayList<>();
+    private DiaryEntry toEntry(EntryMetadata metadata) {
+        DiaryEntry entry = metadata.toEntry();
+        // Content stays in the entry file until it is needed
+        if (entry.getId() != null) {
+            // Metadata saved before lengths were kept has neither length nor hash
+            long length = metadata.getContentHash() != null ? metadata.getContentLength() : -1;
+            entry.setStoredContent(new EntryContent(entriesDir.resolve(entry.getId() + ".txt"), length));
         }
-
-        return entries;
+        return entry;
     }
 
-    private List<DiaryEntry> scanEntriesDirectory() throws IOException {
-        List<DiaryEntry> entries = new ArrayList<>();
-
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(ENTRIES_DIR), "*.txt")) {
-            for (Path file : stream) {
-                try {
-                    DiaryEntry entry = loadEntryFromFile(file);
-                    entries.add(entry);
-                } catch (IOException e) {
-                    System.err.println("Failed to load file: " + file.getFileName());
-                }
-            }
+    /**
+     * Read every entry file, adding an entry for each and its metadata, which
+     * is taken from the bytes read rather than by reading the file again
+     */
+    private void scanEntriesDirectory(List<DiaryEntry> entries, List<EntryMetadata> metadata,
+                                      ProgressListener progress) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(entriesDir, "*.txt")) {
+            stream.forEach(files::add);
         }
 
-        return entries;
+        // Read several at once, as each read mostly waits on the disk
+        new EntryFileReader(readConcurrency).read(files, (file, content, error) -> {
+            if (error != null) {
+                System.err.println("Failed to load file: " + file.getFileName());
+            } else {
+                DiaryEntry entry = loadEntryFromFile(file, content);
+                entries.add(entry);
+                metadata.add(EntryMetadata.of(entry, entry.getId(), content));
+            }
+        }, progress);
     }
 
-    private DiaryEntry loadEntryFromFile(Path file) throws IOException {
+    private DiaryEntry loadEntryFromFile(Path file, byte[] content) {
         String fileName = file.getFileName().toString();
-        String content = Files.readString(file);
 
         DiaryEntry entry = new DiaryEntry();
         entry.setId(fileName.replace(".txt", ""));
-        entry.setContent(content);
+        entry.setStoredContent(new EntryContent(file, content.length));
 
         // Parse title from first line or filename
-        String firstLine = content.lines().findFirst().orElse("Untitled");
+        int lineEnd = 0;
+        while (lineEnd < content.length && content[lineEnd] != '\n' && content[lineEnd] != '\r') {
+            lineEnd++;
+        }
+        String firstLine = content.length == 0 ? "Untitled" : new String(content, 0, lineEnd, StandardCharsets.UTF_8);
         entry.setTitle(firstLine.length() > 50 ? firstLine.substring(0, 50) + "..." : firstLine);
 
         // Try to parse date from filename
@@ -176,51 +278,39 @@ public class FileIOService {
         return entry;
     }
 
-    private void loadEntryContent(DiaryEntry entry) throws IOException {
-        if (entry.getId() == null) return;
-        String fileName = entry.getId() + ".txt";
-        Path filePath = Paths.get(ENTRIES_DIR, fileName);
-
-        if (Files.exists(filePath)) {
-            String content = Files.readString(filePath);
-            entry.setContent(content);
-        }
-    }
-
-    private void saveMetadata() throws DiaryException {
+    /**
+     * Journal an entry's metadata as saved under id, replacing what was saved
+     * under previousId if its file name changed
+     */
+    private void saveMetadata(DiaryEntry entry, String id, String previousId) throws DiaryException {
         try {
-            List<DiaryEntry> entries = DiaryManager.getInstance().getAllEntries();
-            saveMetadata(entries);
+            journal.put(EntryMetadata.of(entry, id), previousId);
         } catch (IOException e) {
-            throw new FileOperationException("Failed to save metadata", Paths.get(METADATA_FILE), FileOperationException.FileOperation.WRITE, e);
+            throw new FileOperationException("Failed to save metadata", journalFile, FileOperationException.FileOperation.WRITE, e);
         }
     }
 
-    private void saveMetadata(List<DiaryEntry> entries) throws IOException {
-        String json = gson.toJson(entries);
-        Files.writeString(Paths.get(METADATA_FILE), json,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-    }
-
     public void updateEntry(DiaryEntry entry) throws DiaryException {
+        String previousId = entry.getId();
         saveEntrySync(entry); // Use sync version for direct update
-        saveMetadata();
+        saveMetadata(entry, entry.getId(), previousId);
     }
 
     public void deleteEntry(DiaryEntry entry) throws DiaryException {
         try {
             if (entry.getId() == null) return;
             String fileName = entry.getId() + ".txt";
-            Path filePath = Paths.get(ENTRIES_DIR, fileName);
+            Path filePath = entriesDir.resolve(fileName);
 
             if (Files.exists(filePath)) {
                 Files.delete(filePath);
             }
+            EntryContent.cache().invalidate(filePath);
 
-            saveMetadata();
+            journal.delete(entry.getId());
 
         } catch (IOException e) {
-            throw new FileOperationException("Failed to delete entry: " + entry.getTitle(), Paths.get(ENTRIES_DIR, entry.getId()), FileOperationException.FileOperation.DELETE, e);
+            throw new FileOperationException("Failed to delete entry: " + entry.getTitle(), entriesDir.resolve(entry.getId()), FileOperationException.FileOperation.DELETE, e);
         }
     }
 
@@ -257,7 +347,7 @@ public class FileIOService {
     }
 
     public long getTotalStorageUsed() throws IOException {
-        try (Stream<Path> walk = Files.walk(Paths.get(DATA_DIR))) {
+        try (Stream<Path> walk = Files.walk(dataDir)) {
             return walk
                     .filter(Files::isRegularFile)
                     .mapToLong(p -> {
@@ -0,0 +1,319 @@
+package com.diary.manager.services;
+
+import com.diary.manager.models.EntryMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The metadata snapshot on disk, read one entry at a time so the first
+ * entries can be shown while the rest are still being read.
+ *
+ * Layout: a header (magic, format version and entry count), then one record
+ * per entry: its payload length as a varint, a CRC32C of the payload, and
+ * the payload itself. A payload holds the ID, title, dates, tags, mood,
+ * favorite flag, and the content's length and hash. Strings are a varint
+ * length (one more than the UTF-8 byte count, so 0 is null) and their bytes.
+ * Dates are UTC epoch seconds and nanos.
+ *
+ * Each record is checked as it is read, so a damaged file fails at the
+ * damaged entry rather than after everything was parsed. Every length read
+ * is checked against the bytes left before anything is allocated for it.
+ * Files are written to a temporary name and moved into place.
+ */
+final class MetadataFile {
+
+    private static final int MAGIC = 0x444D4D44;    // "DMMD"
+    private static final int HEADER_BYTES = 12;
+    static final int VERSION = 1;
+
+    private MetadataFile() {
+    }
+
+    /**
+     * Save entries' metadata, in order
+     */
+    static void write(Collection<EntryMetadata> entries, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            Payload payload = new Payload();
+            CRC32C checksum = new CRC32C();
+            for (EntryMetadata entry : entries) {
+                payload.reset();
+                payload.entry(entry);
+                checksum.reset();
+                checksum.update(payload.bytes(), 0, payload.size());
+
+                varint(out, payload.size());
+                out.writeInt((int) checksum.getValue());
+                out.write(payload.bytes(), 0, payload.size());
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open a saved file to read its entries from
+     */
+    static Reader open(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a metadata file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Metadata file " + file + " has format version " + version
+                        + "; this version reads " + VERSION);
+            }
+            int count = in.readInt();
+            long remaining = Files.size(file) - HEADER_BYTES;
+            if (count < 0 || count > remaining) {
+                throw new IOException("Metadata file is damaged: it claims " + count + " entries: " + file);
+            }
+            return new Reader(file, in, count, remaining);
+        } catch (IOException e) {
+            in.close();
+            throw e instanceof EOFException ? new IOException("Metadata file is truncated: " + file, e) : e;
+        }
+    }
+
+    /**
+     * Reads a file's entries in order, one record at a time
+     */
+    static final class Reader implements Closeable {
+        private final Path file;
+        private final DataInputStream in;
+        private final int count;
+        private long remaining;     // bytes left in the file
+        private int read;
+        private byte[] record = new byte[256];
+        private final CRC32C checksum = new CRC32C();
+
+        private Reader(Path file, DataInputStream in, int count, long remaining) {
+            this.file = file;
+            this.in = in;
+            this.count = count;
+            this.remaining = remaining;
+        }
+
+        /**
+         * How many entries the file holds
+         */
+        int count() {
+            return count;
+        }
+
+        /**
+         * The next entry's metadata, or null after the last
+         */
+        EntryMetadata next() throws IOException {
+            if (read == count) {
+                return null;
+            }
+            try {
+                int length = readVarint();
+                int expected = in.readInt();
+                remaining -= Integer.BYTES;
+                if (length < 0 || length > remaining) {
+                    throw damaged(null);
+                }
+                remaining -= length;
+                if (length > record.length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                in.readFully(record, 0, length);
+                checksum.reset();
+                checksum.update(record, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    throw damaged(null);
+                }
+                EntryMetadata entry;
+                try {
+                    entry = decode(ByteBuffer.wrap(record, 0, length));
+                } catch (BufferUnderflowException | DateTimeException e) {
+                    throw damaged(e);
+                }
+                read++;
+                return entry;
+            } catch (EOFException e) {
+                throw new IOException("Metadata file is truncated after " + read + " entries: " + file, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift > 28) {
+                    throw damaged(null);
+                }
+                b = in.readByte();
+                remaining--;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private IOException damaged(Exception cause) {
+            return new IOException("Metadata file is damaged at entry " + (read + 1) + ": " + file, cause);
+        }
+    }
+
+    // Encoding
+
+    private static void varint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // A record's payload, built in a buffer reused from one entry to the next
+    private static final class Payload extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void entry(EntryMetadata entry) throws IOException {
+            string(entry.getId());
+            string(entry.getTitle());
+            dateTime(entry.getCreatedDate());
+            dateTime(entry.getModifiedDate());
+            List<String> tags = entry.getTags() != null ? entry.getTags() : List.of();
+            varint(data, tags.size());
+            for (String tag : tags) {
+                string(tag);
+            }
+            string(entry.getMood());
+            data.writeBoolean(entry.isFavorite());
+            data.writeLong(entry.getContentLength());
+            string(entry.getContentHash());
+        }
+
+        private void string(String value) throws IOException {
+            if (value == null) {
+                varint(data, 0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(data, bytes.length + 1);
+            data.write(bytes);
+        }
+
+        private void dateTime(LocalDateTime value) throws IOException {
+            data.writeBoolean(value != null);
+            if (value != null) {
+                data.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+                data.writeInt(value.getNano());
+            }
+        }
+    }
+
+    // Decoding
+
+    private static EntryMetadata decode(ByteBuffer payload) {
+        String id = string(payload);
+        String title = string(payload);
+        LocalDateTime createdDate = dateTime(payload);
+        LocalDateTime modifiedDate = dateTime(payload);
+        int tagCount = length(payload, varint(payload));
+        List<String> tags = new ArrayList<>(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            tags.add(string(payload));
+        }
+        String mood = string(payload);
+        boolean favorite = payload.get() != 0;
+        long contentLength = payload.getLong();
+        String contentHash = string(payload);
+        return new EntryMetadata(id, title, createdDate, modifiedDate, tags, mood, favorite,
+                contentLength, contentHash);
+    }
+
+    private static int varint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new BufferUnderflowException();
+            }
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static String string(ByteBuffer in) {
+        int encoded = varint(in);
+        if (encoded == 0) {
+            return null;
+        }
+        int length = length(in, encoded - 1);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * A length read from a payload, which fails as a short payload would if
+     * there are not that many bytes left in it
+     */
+    private static int length(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    private static LocalDateTime dateTime(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,281 @@
+package com.diary.manager.services;
+
+import com.diary.manager.models.EntryMetadata;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Entry metadata saved as a snapshot of the whole list plus a journal of the
+ * changes made since, so a save appends one short record instead of
+ * rewriting every entry. Content is only ever in the entry files.
+ *
+ * The snapshot is a {@link MetadataFile}. The journal holds one JSON record
+ * per line: a put, with an entry's {@link EntryMetadata} and the ID it had
+ * before if its file was renamed, or a delete. Each record is flushed to
+ * disk before the call returns.
+ *
+ * Loading reads the journal, then streams the snapshot, passing on each
+ * entry as the journal left it, then the entries the journal added.
+ *
+ * A crash mid-write leaves a last record with no newline. It was never
+ * acknowledged, so loading skips it, and the next save cuts it off before
+ * appending. A complete record that cannot be read is damage, not a crash:
+ * loading fails with an IOException and the journal is never checkpointed,
+ * so the records after it stay on disk.
+ *
+ * Once the journal is larger than the snapshot (and at least
+ * {@link #MIN_CHECKPOINT_BYTES}), the loaded list is written as a new
+ * snapshot and the journal is emptied, so each record is rewritten a bounded
+ * number of times. Replaying a record twice gives the same list, so a crash
+ * before the journal is emptied loses nothing.
+ *
+ * Metadata saved as JSON by earlier versions is converted to a snapshot the
+ * first time it is read. The JSON file is left in place, but no longer read.
+ */
+final class MetadataJournal {
+
+    static final long MIN_CHECKPOINT_BYTES = 64 * 1024;
+    private static final Type ENTRY_LIST = new TypeToken<List<EntryMetadata>>(){}.getType();
+
+    // Every FileIOService has its own journal over the same files
+    private static final Object LOCK = new Object();
+
+    private final Path snapshotFile;
+    private final Path jsonFile;
+    private final Path journalFile;
+    private final Gson gson;
+
+    MetadataJournal(Path snapshotFile, Path jsonFile, Path journalFile, Gson gson) {
+        this.snapshotFile = snapshotFile;
+        this.jsonFile = jsonFile;
+        this.journalFile = journalFile;
+        this.gson = gson;
+    }
+
+    /**
+     * Whether anything has been saved yet
+     */
+    boolean exists() {
+        return Files.exists(snapshotFile) || Files.exists(jsonFile) || Files.exists(journalFile);
+    }
+
+    /**
+     * Pass each saved entry to the sink, in the order they were first saved,
+     * reporting how many have been passed on out of those expected
+     */
+    void load(Consumer<EntryMetadata> sink, ProgressListener progress) throws IOException {
+        synchronized (LOCK) {
+            migrate();
+            Changes changes = readJournal();
+            int passed = 0;
+            int expected = changes.latest.size();
+
+            if (Files.exists(snapshotFile)) {
+                try (MetadataFile.Reader reader = MetadataFile.open(snapshotFile)) {
+                    expected += reader.count();
+                    EntryMetadata saved;
+                    while ((saved = reader.next()) != null) {
+                        if (changes.removed.contains(saved.getId())) {
+                            continue;   // deleted, renamed, or deleted and saved again since
+                        }
+                        EntryMetadata latest = changes.latest.remove(saved.getId());
+                        sink.accept(latest != null ? latest : saved);
+                        progress.progress(++passed, Math.max(expected, passed));
+                    }
+                }
+            }
+
+            for (EntryMetadata added : changes.latest.values()) {
+                sink.accept(added);
+                progress.progress(++passed, Math.max(expected, passed));
+            }
+            if (passed > 0 && passed != expected) {
+                progress.progress(passed, passed);  // fewer than expected, as some were changed or removed
+            }
+        }
+    }
+
+    /**
+     * Record that an entry was saved, having been saved under previousId
+     * before (null for a new entry)
+     */
+    void put(EntryMetadata metadata, String previousId) throws IOException {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put");
+        record.add("entry", gson.toJsonTree(metadata));
+        if (previousId != null && !previousId.equals(metadata.getId())) {
+            record.addProperty("replaces", previousId);
+        }
+        append(record);
+    }
+
+    /**
+     * Record that the entry with the given ID was deleted
+     */
+    void delete(String id) throws IOException {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "delete");
+        record.addProperty("id", id);
+        append(record);
+    }
+
+    /**
+     * Replace everything saved with the given entries, as a fresh snapshot
+     * and an empty journal
+     */
+    void rewrite(Collection<EntryMetadata> entries) throws IOException {
+        synchronized (LOCK) {
+            MetadataFile.write(entries, snapshotFile);
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    private void append(JsonObject record) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (LOCK) {
+            long journalSize;
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Cut off a record torn by a crash, rather than write onto the end of it
+                long end = completeLength(channel);
+                channel.truncate(end);
+                channel.position(end);
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+                channel.force(false);
+                journalSize = channel.size();
+            }
+
+            Path snapshot = Files.exists(snapshotFile) ? snapshotFile : jsonFile;
+            long snapshotSize = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+            if (journalSize > Math.max(MIN_CHECKPOINT_BYTES, snapshotSize)) {
+                List<EntryMetadata> entries = new ArrayList<>();
+                try {
+                    load(entries::add, ProgressListener.NONE);
+                } catch (IOException e) {
+                    return;     // damaged: keep every record, and let loading report it
+                }
+                rewrite(entries);
+            }
+        }
+    }
+
+    /**
+     * Length of the journal up to the end of its last complete record
+     */
+    private static long completeLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Metadata journal shrank while read: " + channel);
+                }
+            }
+            for (int i = buffer.limit() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Convert metadata saved as JSON, if there is no snapshot yet
+     */
+    private void migrate() throws IOException {
+        if (Files.exists(snapshotFile) || !Files.exists(jsonFile)) {
+            return;
+        }
+        // Older files hold whole entries; their content is dropped here
+        List<EntryMetadata> saved;
+        try (Reader reader = Files.newBufferedReader(jsonFile)) {
+            saved = gson.fromJson(reader, ENTRY_LIST);
+        }
+        MetadataFile.write(saved != null ? saved : List.of(), snapshotFile);
+    }
+
+    /**
+     * What the journal changed: the latest metadata of each entry it saved,
+     * in the order they were first saved, and the IDs it removed. An ID
+     * removed and then saved again is in both, and moves to the end.
+     */
+    private static final class Changes {
+        final Map<String, EntryMetadata> latest = new LinkedHashMap<>();
+        final Set<String> removed = new HashSet<>();
+    }
+
+    private Changes readJournal() throws IOException {
+        Changes changes = new Changes();
+        if (!Files.exists(journalFile)) {
+            return changes;
+        }
+
+        // Records are split on newlines by hand: a torn last record has none, and may end mid-character
+        byte[] journal = Files.readAllBytes(journalFile);
+        int lineNumber = 0;
+        int start = 0;
+        for (int end = 0; end < journal.length; end++) {
+            if (journal[end] != '\n') {
+                continue;
+            }
+            lineNumber++;
+            String line = new String(journal, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                apply(JsonParser.parseString(line).getAsJsonObject(), changes);
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IOException("Metadata journal is damaged at line " + lineNumber + ": " + journalFile, e);
+            }
+        }
+        return changes;
+    }
+
+    private void apply(JsonObject record, Changes changes) {
+        String op = record.has("op") ? record.get("op").getAsString() : "";
+        if (op.equals("put") && record.has("entry")) {
+            EntryMetadata entry = gson.fromJson(record.get("entry"), EntryMetadata.class);
+            JsonElement replaces = record.get("replaces");
+            if (replaces != null) {
+                changes.latest.remove(replaces.getAsString());
+                changes.removed.add(replaces.getAsString());
+            }
+            changes.latest.put(entry.getId(), entry);
+        } else if (op.equals("delete") && record.has("id")) {
+            changes.latest.remove(record.get("id").getAsString());
+            changes.removed.add(record.get("id").getAsString());
+        } else {
+            throw new JsonParseException("Unknown journal record: " + record);
+        }
+    }
+}
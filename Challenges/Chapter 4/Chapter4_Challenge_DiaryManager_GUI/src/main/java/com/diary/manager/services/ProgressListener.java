@@ -0,0 +1,15 @@
+package com.diary.manager.services;
+
+/**
+ * Told how far a long-running operation has got, in whatever it counts:
+ * entries searched, files read or bytes written. Called on the thread doing
+ * the work, which stops if the listener throws.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    ProgressListener NONE = (done, total) -> {
+    };
+
+    void progress(long done, long total);
+}
@@ -1,6 +1,7 @@
 package com.diary.manager.services;
 
 import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.SearchBackend;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
@@ -9,8 +10,25 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Searches by scanning every entry for the query words as substrings. The
+ * GUI searches {@link com.diary.manager.models.SearchEngine}'s index
+ * instead; this scan is kept as the reference it is checked and benchmarked
+ * against.
+ */
 public class SearchService {
 
+    // Entries searched between progress reports
+    private static final int PROGRESS_INTERVAL = 256;
+
+    /**
+     * This scan over a list of entries, as a search backend
+     */
+    public SearchBackend over(ObservableList<DiaryEntry> allEntries) {
+        return (query, searchTitle, searchContent, searchTags, fromDate, toDate, favoritesOnly) ->
+                search(query, allEntries, searchTitle, searchContent, searchTags, fromDate, toDate, favoritesOnly);
+    }
+
     public ObservableList<DiaryEntry> search(
             String query,
             ObservableList<DiaryEntry> allEntries,
@@ -21,13 +39,38 @@ public class SearchService {
             LocalDate toDate,
             boolean favoritesOnly) {
 
+        return search(query, allEntries, searchTitle, searchContent, searchTags, fromDate, toDate, favoritesOnly,
+                ProgressListener.NONE);
+    }
+
+    /**
+     * Search, reporting the number of entries searched so far
+     */
+    public ObservableList<DiaryEntry> search(
+            String query,
+            ObservableList<DiaryEntry> allEntries,
+            boolean searchTitle,
+            boolean searchContent,
+            boolean searchTags,
+            LocalDate fromDate,
+            LocalDate toDate,
+            boolean favoritesOnly,
+            ProgressListener progress) {
+
         List<DiaryEntry> results = new ArrayList<>();
         String queryLower = query.toLowerCase().trim();
 
         // Split query into individual words
         String[] queryWords = queryLower.split("\\s+");
 
+        int total = allEntries.size();
+        int searched = 0;
         for (DiaryEntry entry : allEntries) {
+            if (searched % PROGRESS_INTERVAL == 0) {
+                progress.progress(searched, total);
+            }
+            searched++;
+
             // Apply date filter
             if (fromDate != null && toDate != null) {
                 LocalDate entryDate = entry.getCreatedDate().toLocalDate();
@@ -51,6 +94,8 @@ public class SearchService {
             }
         }
 
+        progress.progress(total, total);
+
         // Sort by relevance (descending)
         results.sort((a, b) -> Integer.compare(b.getRelevanceScore(), a.getRelevanceScore()));
 
@@ -103,7 +148,10 @@ public class SearchService {
             }
         }
 
-        // Additional relevance factors
+        // Additional relevance factors only nudge entries that match
+        if (relevance == 0) {
+            return 0;
+        }
         if (entry.isFavorite()) {
             relevance += 3; // Small bonus for favorites
         }
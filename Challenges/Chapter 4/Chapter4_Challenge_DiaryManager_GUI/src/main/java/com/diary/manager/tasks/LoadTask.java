@@ -2,17 +2,23 @@ package com.diary.manager.tasks;
 
 import com.diary.manager.models.DiaryEntry;
 import com.diary.manager.services.FileIOService;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public class LoadTask extends Task<ObservableList<DiaryEntry>> {
 
     private final FileIOService fileIOService;
 
     public LoadTask() {
-        this.fileIOService = new FileIOService();
+        this(new FileIOService());
+    }
+
+    public LoadTask(FileIOService fileIOService) {
+        this.fileIOService = fileIOService;
 
         updateTitle("Loading Entries");
         updateMessage("Preparing to load diary entries...");
@@ -21,56 +27,34 @@ public class LoadTask extends Task<ObservableList<DiaryEntry>> {
     @Override
     protected ObservableList<DiaryEntry> call() throws Exception {
         try {
-            updateMessage("Scanning data directory...");
-            updateProgress(0.1, 1.0);
-
-            // Get list of entry files
-            java.nio.file.Path dataDir = java.nio.file.Paths.get("data/entries");
-            long totalFiles = 0;
-
-            if (java.nio.file.Files.exists(dataDir)) {
-                totalFiles = java.nio.file.Files.list(dataDir)
-                        .filter(path -> path.toString().endsWith(".txt"))
-                        .count();
-            }
-
-            updateMessage("Found " + totalFiles + " entries to load");
-            updateProgress(0.3, 1.0);
-
-            if (totalFiles == 0) {
+            updateMessage("Reading diary metadata...");
+
+            // The whole list, as it is sorted newest first before it is shown; progress is the share of entries read
+            List<DiaryEntry> entries = fileIOService.loadAllEntries((read, total) -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                updateProgress(read, total);
+                updateMessage("Loaded " + read + " of " + total + " entries");
+            });
+
+            if (entries.isEmpty()) {
                 updateProgress(1.0, 1.0);
                 updateMessage("No entries found");
-                return javafx.collections.FXCollections.observableArrayList();
+                return FXCollections.observableArrayList();
             }
 
-            // Load entries
-            List<DiaryEntry> entries = fileIOService.loadAllEntries();
-
-            updateProgress(0.7, 1.0);
-            updateMessage("Processing " + entries.size() + " entries...");
-
-            // Simulate processing
-            Thread.sleep(200);
-
             // Sort by date (newest first)
             entries.sort((e1, e2) -> e2.getCreatedDate().compareTo(e1.getCreatedDate()));
 
-            updateProgress(0.9, 1.0);
-            updateMessage("Finalizing load...");
-
-            Thread.sleep(100);
-
             updateProgress(1.0, 1.0);
             updateMessage("Successfully loaded " + entries.size() + " entries");
 
-            return javafx.collections.FXCollections.observableArrayList(entries);
+            return FXCollections.observableArrayList(entries);
 
-        } catch (InterruptedException e) {
-            if (isCancelled()) {
-                updateMessage("Load cancelled");
-            }
-            Thread.currentThread().interrupt();
-            return javafx.collections.FXCollections.observableArrayList();
+        } catch (CancellationException e) {
+            updateMessage("Load cancelled");
+            return FXCollections.observableArrayList();
         } catch (Exception e) {
             updateMessage("Load failed: " + e.getMessage());
             throw e;
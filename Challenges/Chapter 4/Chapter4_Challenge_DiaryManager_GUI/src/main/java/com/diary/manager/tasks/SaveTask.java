@@ -4,14 +4,20 @@ import com.diary.manager.models.DiaryEntry;
 import com.diary.manager.services.FileIOService;
 import javafx.concurrent.Task;
 
+import java.util.concurrent.CancellationException;
+
 public class SaveTask extends Task<Void> {
 
     private final DiaryEntry entry;
     private final FileIOService fileIOService;
 
     public SaveTask(DiaryEntry entry) {
+        this(entry, new FileIOService());
+    }
+
+    public SaveTask(DiaryEntry entry, FileIOService fileIOService) {
         this.entry = entry;
-        this.fileIOService = new FileIOService();
+        this.fileIOService = fileIOService;
 
         // Configure task properties
         updateTitle("Saving Entry");
@@ -22,27 +28,20 @@ public class SaveTask extends Task<Void> {
     protected Void call() throws Exception {
         try {
             updateMessage("Saving entry: " + entry.getTitle());
-            updateProgress(0.2, 1.0);
-
-            // Simulate some processing time
-            Thread.sleep(100);
-
-            // Save the entry
-            fileIOService.saveEntrySync(entry);
-
-            updateProgress(0.8, 1.0);
-            updateMessage("Entry saved successfully");
 
-            Thread.sleep(100);
+            // Save the entry; progress is the share of its bytes written
+            fileIOService.saveEntrySync(entry, (written, total) -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                updateProgress(written, total);
+            });
 
             updateProgress(1.0, 1.0);
             updateMessage("Save complete");
 
-        } catch (InterruptedException e) {
-            if (isCancelled()) {
-                updateMessage("Save cancelled");
-            }
-            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            updateMessage("Save cancelled");
         } catch (Exception e) {
             updateMessage("Save failed: " + e.getMessage());
             throw e;
@@ -6,7 +6,7 @@ import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 
 import java.time.LocalDate;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CancellationException;
 
 public class SearchTask extends Task<ObservableList<DiaryEntry>> {
 
@@ -48,12 +48,10 @@ public class SearchTask extends Task<ObservableList<DiaryEntry>> {
         try {
             // Update status
             updateMessage("Starting search...");
-            updateProgress(0.1, 1.0);
 
             // Check if search is empty (show all entries)
             if (query == null || query.trim().isEmpty()) {
                 updateMessage("No search query, showing all entries...");
-                updateProgress(0.3, 1.0);
 
                 // Apply filters only
                 ObservableList<DiaryEntry> filtered = allEntries.filtered(entry -> {
@@ -73,24 +71,15 @@ public class SearchTask extends Task<ObservableList<DiaryEntry>> {
                     return true;
                 });
 
-                updateProgress(0.8, 1.0);
-                updateMessage("Found " + filtered.size() + " entries");
-
-                Thread.sleep(100);
                 updateProgress(1.0, 1.0);
+                updateMessage("Found " + filtered.size() + " entries");
 
                 return filtered;
             }
 
-            // Perform search with query
+            // Perform search with query; progress is the share of entries searched
             updateMessage("Searching for: '" + query + "'");
-            updateProgress(0.2, 1.0);
-
-            // Count total entries for progress tracking
-            int totalEntries = allEntries.size();
-            AtomicInteger processed = new AtomicInteger(0);
 
-            // Perform search with progress updates
             ObservableList<DiaryEntry> results = searchService.search(
                     query,
                     allEntries,
@@ -99,44 +88,22 @@ public class SearchTask extends Task<ObservableList<DiaryEntry>> {
                     searchTags,
                     fromDate,
                     toDate,
-                    favoritesOnly
+                    favoritesOnly,
+                    (searched, total) -> {
+                        if (isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        updateProgress(searched, total);
+                    }
             );
 
-            // Simulate processing for progress feedback
-            for (int i = 0; i < results.size(); i++) {
-                if (isCancelled()) {
-                    break;
-                }
-
-                processed.incrementAndGet();
-                double progress = 0.2 + (0.6 * processed.get() / Math.max(1, results.size()));
-                updateProgress(progress, 1.0);
-
-                // Update message periodically
-                if (i % 10 == 0) {
-                    updateMessage("Processing results: " + processed.get() + "/" + results.size());
-                }
-
-                // Small delay to show progress
-                Thread.sleep(10);
-            }
-
-            updateProgress(0.9, 1.0);
-            updateMessage("Sorting results...");
-
-            // Sort by relevance (already done in SearchService)
-            Thread.sleep(100);
-
             updateProgress(1.0, 1.0);
             updateMessage("Search completed. Found " + results.size() + " results");
 
             return results;
 
-        } catch (InterruptedException e) {
-            if (isCancelled()) {
-                updateMessage("Search cancelled");
-            }
-            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            updateMessage("Search cancelled");
             return javafx.collections.FXCollections.observableArrayList();
         } catch (Exception e) {
             updateMessage("Search error: " + e.getMessage());
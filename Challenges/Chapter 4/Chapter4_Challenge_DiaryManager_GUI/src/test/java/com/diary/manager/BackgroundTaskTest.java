@@ -0,0 +1,221 @@
+package com.diary.manager;
+
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.services.FileIOService;
+import com.diary.manager.tasks.LoadTask;
+import com.diary.manager.tasks.SaveTask;
+import com.diary.manager.tasks.SearchTask;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The background tasks take no longer than their work, and their progress
+ * follows it. Each task is run on the test thread through a subclass that
+ * records its updates, as there is no JavaFX toolkit to post them to.
+ *
+ * The time limits are far above what the work takes, and below the sleeps
+ * the tasks used to pad it with: 10 ms per search result plus 100 ms, 300 ms
+ * per load and 200 ms per save. Loads and saves go to a temporary directory.
+ */
+class BackgroundTaskTest {
+
+    @TempDir
+    Path dataDir;
+
+    private FileIOService fileIOService;
+    private final List<double[]> progress = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        fileIOService = new FileIOService(dataDir);
+    }
+
+    @Test
+    void testSearchTaskTakesNoLongerThanTheSearch() throws Exception {
+        ObservableList<DiaryEntry> entries = FXCollections.observableArrayList();
+        for (int i = 0; i < 2_000; i++) {
+            entries.add(new DiaryEntry("Day " + i, i % 4 == 0 ? "walk by the river" : "quiet day at home"));
+        }
+        RecordingSearchTask task = new RecordingSearchTask("river", entries);
+
+        long start = System.nanoTime();
+        List<DiaryEntry> results = task.call();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(500, results.size());
+        assertTrue(elapsedMs < 1_000, "500 results took " + elapsedMs + " ms");
+        assertProgressRisesToCompletion();
+        assertTrue(progress.size() > 2, "progress follows the entries searched");
+    }
+
+    @Test
+    void testLoadTaskTakesNoLongerThanReadingTheFiles() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            fileIOService.updateEntry(new DiaryEntry("Day " + i, "Entry number " + i));
+        }
+        new RecordingLoadTask().call();     // warm up metadata reading
+        progress.clear();
+
+        long start = System.nanoTime();
+        List<DiaryEntry> loaded = new RecordingLoadTask().call();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMs < 250, "load took " + elapsedMs + " ms");
+        assertEquals(300, loaded.size());
+        assertProgressRisesToCompletion();
+    }
+
+    @Test
+    void testSaveTaskReportsBytesWritten() throws Exception {
+        DiaryEntry entry = new DiaryEntry("Progress test", "x".repeat(200_000));
+        new RecordingSaveTask(entry).call();
+        Path saved = dataDir.resolve("entries").resolve(entry.getId() + ".txt");
+        progress.clear();
+
+        long start = System.nanoTime();
+        new RecordingSaveTask(entry).call();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMs < 150, "save took " + elapsedMs + " ms");
+        assertEquals(200_000, Files.size(saved));
+        assertProgressRisesToCompletion();
+        // Written in 64 KiB chunks, each reported in bytes
+        assertEquals(65_536.0, progress.get(0)[0]);
+        assertEquals(200_000.0, progress.get(0)[1]);
+    }
+
+    @Test
+    void testCancelledSaveLeavesTheEntryAsItWas() throws Exception {
+        DiaryEntry entry = new DiaryEntry("Cancel test", "first draft");
+        fileIOService.saveEntrySync(entry);
+        String id = entry.getId();
+        Path saved = dataDir.resolve("entries").resolve(id + ".txt");
+
+        // Cancelled after the first chunk of the new content is written
+        entry.setContent("y".repeat(200_000));
+        assertThrows(CancellationException.class, () -> fileIOService.saveEntrySync(entry, (written, total) -> {
+            throw new CancellationException();
+        }));
+
+        assertEquals("first draft", Files.readString(saved));
+        assertEquals(id, entry.getId());
+        try (Stream<Path> files = Files.list(saved.getParent())) {
+            assertEquals(List.of(saved), files.collect(Collectors.toList()), "no temporary file is left");
+        }
+    }
+
+    private void assertProgressRisesToCompletion() {
+        assertFalse(progress.isEmpty());
+        double previous = 0;
+        for (double[] update : progress) {
+            double fraction = update[0] / update[1];
+            assertTrue(fraction >= previous && fraction <= 1.0, update[0] + "/" + update[1]);
+            previous = fraction;
+        }
+        assertEquals(1.0, previous);
+    }
+
+    private void record(double workDone, double max) {
+        progress.add(new double[]{workDone, max});
+    }
+
+    private class RecordingSearchTask extends SearchTask {
+        RecordingSearchTask(String query, ObservableList<DiaryEntry> entries) {
+            super(query, entries, true, true, true, null, null, false);
+        }
+
+        @Override
+        protected ObservableList<DiaryEntry> call() throws Exception {
+            return super.call();
+        }
+
+        @Override
+        protected void updateProgress(long workDone, long max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateProgress(double workDone, double max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateMessage(String message) {
+        }
+
+        @Override
+        protected void updateTitle(String title) {
+        }
+    }
+
+    private class RecordingLoadTask extends LoadTask {
+        RecordingLoadTask() {
+            super(fileIOService);
+        }
+
+        @Override
+        protected ObservableList<DiaryEntry> call() throws Exception {
+            return super.call();
+        }
+
+        @Override
+        protected void updateProgress(long workDone, long max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateProgress(double workDone, double max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateMessage(String message) {
+        }
+
+        @Override
+        protected void updateTitle(String title) {
+        }
+    }
+
+    private class RecordingSaveTask extends SaveTask {
+        RecordingSaveTask(DiaryEntry entry) {
+            super(entry, fileIOService);
+        }
+
+        @Override
+        protected Void call() throws Exception {
+            return super.call();
+        }
+
+        @Override
+        protected void updateProgress(long workDone, long max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateProgress(double workDone, double max) {
+            record(workDone, max);
+        }
+
+        @Override
+        protected void updateMessage(String message) {
+        }
+
+        @Override
+        protected void updateTitle(String title) {
+        }
+    }
+}
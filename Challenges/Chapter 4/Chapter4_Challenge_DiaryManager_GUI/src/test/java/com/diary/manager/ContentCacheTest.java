@@ -0,0 +1,134 @@
+package com.diary.manager;
+
+import com.diary.manager.models.ContentCache;
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.EntryContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Entry content is read from its file when asked for, through a cache that
+ * stays within its size and is not flushed by a pass over every entry.
+ */
+class ContentCacheTest {
+
+    private static final String TEXT = "x".repeat(1_000);     // 2,000 bytes as a String
+
+    @Test
+    void testRepeatedlyReadContentSurvivesAScan() throws Exception {
+        ContentCache<Integer> cache = new ContentCache<>(100 * 2_000);
+        int[] loads = {0};
+        ContentCache.Loader<Integer> loader = key -> {
+            loads[0]++;
+            return TEXT;
+        };
+
+        // Fifty entries read again and again, then each of 10,000 others once
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                cache.get(key, loader);
+            }
+        }
+        for (int key = 1_000; key < 11_000; key++) {
+            cache.get(key, loader);
+            assertTrue(cache.weight() <= cache.maxWeight(), "weight " + cache.weight());
+        }
+
+        loads[0] = 0;
+        for (int key = 0; key < 50; key++) {
+            cache.get(key, loader);
+        }
+        assertTrue(loads[0] <= 5, loads[0] + " of the 50 were evicted by the scan");
+    }
+
+    @Test
+    void testInvalidatedContentIsLoadedAgain() throws Exception {
+        ContentCache<String> cache = new ContentCache<>(1 << 20);
+        assertEquals("first", cache.get("a", key -> "first"));
+        assertEquals("first", cache.get("a", key -> "second"));
+
+        cache.invalidate("a");
+        assertEquals("second", cache.get("a", key -> "second"));
+        assertEquals(1, cache.size());
+        assertEquals(2 * "second".length(), cache.weight());
+    }
+
+    @Test
+    void testContentHeavierThanTheCacheIsNotKept() throws Exception {
+        ContentCache<String> cache = new ContentCache<>(1_000);
+        assertEquals(TEXT, cache.get("big", key -> TEXT));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    void testContentHeavierThanTheMainAreaIsNotKept() throws Exception {
+        // 992 bytes fit in the cache, but not beside its 10-byte window
+        ContentCache<String> cache = new ContentCache<>(1_000);
+        String heavy = "x".repeat(496);
+        assertEquals(heavy, cache.get("a", key -> heavy));
+        assertEquals(0, cache.size());
+
+        String light = "x".repeat(400);
+        assertEquals(light, cache.get("b", key -> light));
+        assertEquals(light, cache.peek("b"));
+        assertEquals(800, cache.weight());
+    }
+
+    @Test
+    void testLoadInvalidatedWhileInProgressIsNotKept() throws Exception {
+        ContentCache<String> cache = new ContentCache<>(1 << 20);
+        // The file is rewritten, and the key invalidated, while the old content is read
+        assertEquals("old", cache.get("a", key -> {
+            cache.invalidate("a");
+            return "old";
+        }));
+        assertNull(cache.peek("a"));
+        assertEquals("new", cache.get("a", key -> "new"));
+        assertEquals("new", cache.peek("a"));
+
+        // A load that fails leaves nothing behind to spoil the next one
+        assertThrows(IOException.class, () -> cache.get("b", key -> {
+            throw new IOException("unreadable");
+        }));
+        assertEquals("b", cache.get("b", key -> "b"));
+        assertEquals("b", cache.peek("b"));
+    }
+
+    @Test
+    void testPreviewReadsOnlyTheStartOfTheFile(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("entry.txt");
+        String content = "Morning walk by the river. " + "y".repeat(100_000);
+        Files.writeString(file, content);
+
+        DiaryEntry entry = new DiaryEntry();
+        entry.setStoredContent(new EntryContent(file, -1));
+        assertFalse(entry.isContentLoaded());
+
+        assertEquals(content.substring(0, 150) + "...", entry.getPreview());
+        assertNull(EntryContent.cache().peek(file), "a preview does not load the content");
+
+        assertEquals(content, entry.getContent());
+        assertEquals(content, EntryContent.cache().peek(file));
+        assertEquals(content.length(), new EntryContent(file, -1).length());
+
+        entry.setContent("Edited");
+        assertTrue(entry.isContentLoaded());
+        assertEquals("Edited", entry.getPreview());
+        EntryContent.cache().invalidate(file);
+    }
+
+    @Test
+    void testMissingFileReadsAsEmpty(@TempDir Path directory) {
+        DiaryEntry entry = new DiaryEntry();
+        entry.setStoredContent(new EntryContent(directory.resolve("gone.txt"), -1));
+        assertEquals("", entry.getPreview());
+        assertEquals("", entry.getContent());
+    }
+}
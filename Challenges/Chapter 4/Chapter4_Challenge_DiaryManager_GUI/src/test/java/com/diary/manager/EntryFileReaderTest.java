@@ -0,0 +1,129 @@
+package com.diary.manager;
+
+import com.diary.manager.services.EntryFileReader;
+import com.diary.manager.services.ProgressListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Entry files are read several at a time and handed back in order. Slow
+ * reads are simulated by a reader that waits before each one, as on a
+ * network drive.
+ */
+class EntryFileReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testFilesAreVisitedInOrder() throws Exception {
+        List<Path> files = writeFiles(300);
+        // Out of order on purpose: the list's order is kept, not the directory's
+        files.add(files.remove(0));
+
+        List<String> visited = new ArrayList<>();
+        List<Thread> visitingThreads = new ArrayList<>();
+        long[] lastProgress = new long[2];
+        new SlowReader(8, 200_000).read(files, (file, content, error) -> {
+            assertNull(error);
+            visited.add(new String(content, StandardCharsets.UTF_8));
+            visitingThreads.add(Thread.currentThread());
+        }, (done, total) -> {
+            assertEquals(done, visited.size());
+            lastProgress[0] = done;
+            lastProgress[1] = total;
+        });
+
+        List<String> expected = new ArrayList<>();
+        for (Path file : files) {
+            expected.add(Files.readString(file));
+        }
+        assertEquals(expected, visited);
+        assertArrayEquals(new long[]{300, 300}, lastProgress);
+        assertTrue(visitingThreads.stream().allMatch(t -> t == Thread.currentThread()),
+                "visited on the caller's thread");
+    }
+
+    @Test
+    void testUnreadableFileIsVisitedWithItsError() throws Exception {
+        List<Path> files = writeFiles(20);
+        files.add(10, directory.resolve("missing.txt"));
+
+        List<Path> failed = new ArrayList<>();
+        int[] read = {0};
+        new EntryFileReader(4).read(files, (file, content, error) -> {
+            if (error != null) {
+                failed.add(file);
+            } else {
+                read[0]++;
+            }
+        }, ProgressListener.NONE);
+
+        assertEquals(List.of(directory.resolve("missing.txt")), failed);
+        assertEquals(20, read[0]);
+    }
+
+    @Test
+    void testVisitorThrowingStopsTheReads() throws Exception {
+        List<Path> files = writeFiles(200);
+        int[] visits = {0};
+        assertThrows(IllegalStateException.class, () -> new SlowReader(8, 100_000).read(files,
+                (file, content, error) -> {
+                    if (++visits[0] == 5) {
+                        throw new IllegalStateException("stop");
+                    }
+                }, ProgressListener.NONE));
+        assertEquals(5, visits[0]);
+    }
+
+    @Test
+    void testConcurrentReadsHideLatency() throws Exception {
+        List<Path> files = writeFiles(100);
+        long serial = time(new SlowReader(1, 2_000_000), files);
+        long concurrent = time(new SlowReader(8, 2_000_000), files);
+
+        // 100 reads of 2 ms: 200 ms one after another, about 25 ms eight at a time
+        assertTrue(concurrent * 3 < serial, "8 at once took " + concurrent + " ms, one at a time " + serial + " ms");
+    }
+
+    private long time(EntryFileReader reader, List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        reader.read(files, (file, content, error) -> assertNull(error), ProgressListener.NONE);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private List<Path> writeFiles(int count) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = directory.resolve(String.format("entry_%04d.txt", i));
+            Files.writeString(file, "Entry " + i + "\nWritten for the reader test.");
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static class SlowReader extends EntryFileReader {
+        private final long latencyNanos;
+
+        SlowReader(int concurrency, long latencyNanos) {
+            super(concurrency);
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        protected byte[] readFile(Path file) throws IOException {
+            LockSupport.parkNanos(latencyNanos);
+            return super.readFile(file);
+        }
+    }
+}
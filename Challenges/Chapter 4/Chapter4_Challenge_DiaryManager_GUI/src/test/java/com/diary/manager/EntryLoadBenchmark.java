@@ -0,0 +1,129 @@
+package com.diary.manager;
+
+import com.diary.manager.exceptions.DiaryException;
+import com.diary.manager.services.EntryFileReader;
+import com.diary.manager.services.FileIOService;
+import com.diary.manager.services.ProgressListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Time to read every entry file, one at a time and several at once, as
+ * loading does when there is no metadata, and to load the diary end to end
+ * through FileIOService: scanning the files and saving their metadata, then
+ * loading again from that metadata. Not part of the unit test run;
+ * start it from the IDE or with:
+ * mvn test-compile exec:java -Dexec.mainClass=com.diary.manager.EntryLoadBenchmark -Dexec.classpathScope=test
+ *
+ * Files are written to a temporary directory, so they are read from the
+ * page cache; each is also read with 200 us added before it, about what a
+ * network home directory takes per file. The end-to-end loads read from the
+ * page cache only. Pass file counts to run a subset.
+ */
+public class EntryLoadBenchmark {
+
+    private static final int[] FILE_COUNTS = {10_000, 100_000};
+    private static final int[] CONCURRENCIES = {1, 4, 8, 16, 32};
+    private static final int[] LOAD_CONCURRENCIES = {1, EntryFileReader.DEFAULT_CONCURRENCY};
+    private static final long NETWORK_LATENCY_NANOS = 200_000;
+    private static final int MEAN_ENTRY_BYTES = 2_000;
+
+    public static void main(String[] args) throws IOException, DiaryException {
+        int[] counts = args.length == 0 ? FILE_COUNTS
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        System.out.println("== Reading entry files: one at a time vs several at once ==");
+        for (int count : counts) {
+            Path directory = Files.createTempDirectory("entry-load-benchmark");
+            try {
+                List<Path> files = writeFiles(Files.createDirectories(directory.resolve("entries")), count);
+                for (int concurrency : CONCURRENCIES) {
+                    double local = time(new EntryFileReader(concurrency), files);
+                    double network = time(new LatentReader(concurrency), files);
+                    System.out.printf("%,8d files, %2d at once: %,8.0f ms local, %,8.0f ms with %d us latency%n",
+                            count, concurrency, local, network, NETWORK_LATENCY_NANOS / 1_000);
+                }
+                for (int concurrency : LOAD_CONCURRENCIES) {
+                    FileIOService fileIOService = new FileIOService(directory);
+                    fileIOService.setReadConcurrency(concurrency);
+                    double[] load = timeLoad(fileIOService, directory, count);
+                    System.out.printf("%,8d entries, %2d at once: %,8.0f ms loading by scanning the files, "
+                            + "%,8.0f ms loading again from metadata%n", count, concurrency, load[0], load[1]);
+                }
+            } finally {
+                try (Stream<Path> walk = Files.walk(directory)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    // Best of two rounds, reading every byte so nothing is optimised away
+    private static double time(EntryFileReader reader, List<Path> files) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 2; round++) {
+            long[] bytes = {0};
+            long start = System.nanoTime();
+            reader.read(files, (file, content, error) -> bytes[0] += content.length, ProgressListener.NONE);
+            best = Math.min(best, System.nanoTime() - start);
+            if (bytes[0] == 0) {
+                throw new IllegalStateException("nothing read");
+            }
+        }
+        return best / 1e6;
+    }
+
+    // Best of two rounds of a load with no metadata, then one with it
+    private static double[] timeLoad(FileIOService fileIOService, Path directory, int count)
+            throws IOException, DiaryException {
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE};
+        for (int round = 0; round < 2; round++) {
+            Files.deleteIfExists(directory.resolve("metadata.bin"));
+            for (int pass = 0; pass < 2; pass++) {
+                long start = System.nanoTime();
+                int loaded = fileIOService.loadAllEntries().size();
+                best[pass] = Math.min(best[pass], (System.nanoTime() - start) / 1e6);
+                if (loaded != count) {
+                    throw new IllegalStateException(loaded + " of " + count + " entries loaded");
+                }
+            }
+        }
+        return best;
+    }
+
+    private static List<Path> writeFiles(Path directory, int count) throws IOException {
+        Random random = new Random(42);
+        List<Path> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder("Entry " + i + "\n");
+            int length = MEAN_ENTRY_BYTES / 2 + random.nextInt(MEAN_ENTRY_BYTES);
+            while (text.length() < length) {
+                text.append(SearchEngineBenchmark.word(random, count)).append(' ');
+            }
+            Path file = directory.resolve(String.format("2024-01-01_%06d_entry.txt", i));
+            Files.writeString(file, text);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static class LatentReader extends EntryFileReader {
+        LatentReader(int concurrency) {
+            super(concurrency);
+        }
+
+        @Override
+        protected byte[] readFile(Path file) throws IOException {
+            LockSupport.parkNanos(NETWORK_LATENCY_NANOS);
+            return super.readFile(file);
+        }
+    }
+}
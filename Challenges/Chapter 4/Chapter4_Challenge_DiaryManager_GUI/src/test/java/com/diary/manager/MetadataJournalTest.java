@@ -0,0 +1,351 @@
+package com.diary.manager;
+
+import com.diary.manager.exceptions.DiaryException;
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.EntryContent;
+import com.diary.manager.services.FileIOService;
+import com.diary.manager.services.ProgressListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Saving journals one record instead of rewriting the metadata, and loading
+ * streams the binary snapshot with the journal replayed over it. Each test
+ * starts from a temporary diary saved as JSON by an earlier version.
+ */
+class MetadataJournalTest {
+
+    // Whole entries, content and all, as earlier versions saved them
+    private static final String SAVED_JSON = """
+            [
+              {
+                "id": "2024-01-15_103000_river_walk",
+                "title": "River walk",
+                "content": "Walked along the river before work.",
+                "createdDate": "2024-01-15T10:30:00",
+                "modifiedDate": "2024-01-15T10:41:53",
+                "tags": ["outdoors"],
+                "favorite": true,
+                "mood": "Neutral",
+                "relevanceScore": 0
+              },
+              {
+                "id": "2024-01-16_144500_rainy_day",
+                "title": "Rainy day",
+                "content": "Stayed in and read all afternoon.",
+                "createdDate": "2024-01-16T14:45:00",
+                "modifiedDate": "2024-01-16T14:45:00",
+                "tags": [],
+                "favorite": false,
+                "mood": "Sad",
+                "relevanceScore": 0
+              },
+              {
+                "id": "2024-01-17_090000_market",
+                "title": "Market",
+                "content": "Bought apples and bread at the market.",
+                "createdDate": "2024-01-17T09:00:00",
+                "modifiedDate": "2024-01-17T09:00:00",
+                "tags": ["food", "town"],
+                "favorite": false,
+                "mood": "Happy",
+                "relevanceScore": 0
+              }
+            ]
+            """;
+
+    @TempDir
+    Path dataDir;
+
+    private Path json;
+    private Path snapshot;
+    private Path journal;
+    private FileIOService fileIOService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        json = dataDir.resolve("metadata.json");
+        snapshot = dataDir.resolve("metadata.bin");
+        journal = dataDir.resolve("metadata.journal");
+        fileIOService = new FileIOService(dataDir);
+
+        Files.writeString(json, SAVED_JSON);
+        Path entries = dataDir.resolve("entries");
+        Files.writeString(entries.resolve("2024-01-15_103000_river_walk.txt"), "Walked along the river before work.");
+        Files.writeString(entries.resolve("2024-01-16_144500_rainy_day.txt"), "Stayed in and read all afternoon.");
+        Files.writeString(entries.resolve("2024-01-17_090000_market.txt"), "Bought apples and bread at the market.");
+    }
+
+    @Test
+    void testSaveAppendsOneShortRecord() throws Exception {
+        fileIOService.loadAllEntries();     // converts the JSON metadata
+        DiaryEntry entry = testEntry("Journal test");
+        byte[] snapshotBefore = Files.readAllBytes(snapshot);
+
+        fileIOService.updateEntry(entry);
+        long recordBytes = journalSize();
+
+        assertTrue(recordBytes > 0 && recordBytes < 512, "one save journaled " + recordBytes + " bytes");
+        assertArrayEquals(snapshotBefore, Files.readAllBytes(snapshot), "the snapshot is not rewritten");
+
+        // The record has the content's size and checksum, not the content
+        String records = Files.readString(journal);
+        assertFalse(records.contains("Saved once"));
+        assertTrue(records.contains("\"contentLength\":27"), records);
+        assertTrue(records.contains("\"contentHash\":\""), records);
+
+        DiaryEntry loaded = find(fileIOService.loadAllEntries(), entry.getId());
+        assertNotNull(loaded);
+        assertEquals("Journal test", loaded.getTitle());
+        assertEquals("Saved once, in its own file", loaded.getContent());
+        assertEquals(List.of("journal"), loaded.getTags());
+    }
+
+    @Test
+    void testReplayFollowsRenamesAndDeletes() throws Exception {
+        DiaryEntry entry = testEntry("Before rename");
+        fileIOService.updateEntry(entry);
+        String firstId = entry.getId();
+
+        // A new title is a new file name, and so a new ID
+        entry.setTitle("After rename");
+        fileIOService.updateEntry(entry);
+        List<DiaryEntry> loaded = fileIOService.loadAllEntries();
+        assertNull(find(loaded, firstId));
+        assertEquals("After rename", find(loaded, entry.getId()).getTitle());
+
+        int countBefore = loaded.size();
+        fileIOService.deleteEntry(entry);
+        loaded = fileIOService.loadAllEntries();
+        assertNull(find(loaded, entry.getId()));
+        assertEquals(countBefore - 1, loaded.size());
+    }
+
+    @Test
+    void testJournalIsCheckpointedIntoTheSnapshot() throws Exception {
+        int countBefore = fileIOService.loadAllEntries().size();
+        DiaryEntry entry = testEntry("Checkpoint test");
+        long largest = 0;
+        for (int i = 0; i < 500; i++) {
+            entry.setMood("Mood " + i);
+            fileIOService.updateEntry(entry);
+            largest = Math.max(largest, journalSize());
+        }
+
+        assertTrue(largest < 64 * 1024 + 512, "journal grew to " + largest + " bytes");
+        assertTrue(journalSize() < largest, "the journal was emptied into the snapshot");
+        assertFalse(new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8).contains("Saved once"),
+                "the snapshot holds no content");
+
+        // Every entry saved before is still there, and this one only once
+        List<DiaryEntry> loaded = fileIOService.loadAllEntries();
+        assertEquals(countBefore + 1, loaded.size());
+        assertEquals("Mood 499", find(loaded, entry.getId()).getMood());
+        assertEquals("Saved once, in its own file", find(loaded, entry.getId()).getContent());
+    }
+
+    @Test
+    void testLoadingStreamsEntriesInTheOrderSaved() throws Exception {
+        List<String> before = ids(fileIOService.loadAllEntries());
+        DiaryEntry first = testEntry("Stream first");
+        DiaryEntry second = testEntry("Stream second");
+        fileIOService.updateEntry(first);
+        fileIOService.updateEntry(second);
+
+        List<String> streamed = new ArrayList<>();
+        List<long[]> progress = new ArrayList<>();
+        fileIOService.loadEntries(entry -> streamed.add(entry.getId()),
+                (done, total) -> progress.add(new long[]{done, total}));
+
+        List<String> expected = new ArrayList<>(before);
+        expected.add(first.getId());
+        expected.add(second.getId());
+        assertEquals(expected, streamed);
+        assertEquals(expected.size(), progress.size());
+        long[] last = progress.get(progress.size() - 1);
+        assertEquals(last[0], last[1]);
+
+        // A sink that stops early stops the load
+        List<String> some = new ArrayList<>();
+        assertThrows(CancellationException.class, () -> fileIOService.loadEntries(entry -> {
+            some.add(entry.getId());
+            throw new CancellationException();
+        }, ProgressListener.NONE));
+        assertEquals(1, some.size());
+    }
+
+    @Test
+    void testJsonMetadataIsConvertedOnce() throws Exception {
+        byte[] savedJson = Files.readAllBytes(json);
+        List<DiaryEntry> loaded = fileIOService.loadAllEntries();
+        assertEquals(List.of("2024-01-15_103000_river_walk", "2024-01-16_144500_rainy_day",
+                "2024-01-17_090000_market"), ids(loaded));
+        assertEquals("Walked along the river before work.", loaded.get(0).getContent());
+
+        byte[] converted = Files.readAllBytes(snapshot);
+        assertEquals("DMMD", new String(converted, 0, 4, StandardCharsets.US_ASCII));
+        assertTrue(converted.length < savedJson.length, converted.length + " bytes, from " + savedJson.length);
+        assertArrayEquals(savedJson, Files.readAllBytes(json), "the JSON is left as it was");
+
+        // Loading again reads the snapshot, and gets the same entries
+        List<DiaryEntry> reloaded = fileIOService.loadAllEntries();
+        assertEquals(ids(loaded), ids(reloaded));
+        for (int i = 0; i < loaded.size(); i++) {
+            assertEquals(loaded.get(i).getTitle(), reloaded.get(i).getTitle());
+            assertEquals(loaded.get(i).getCreatedDate(), reloaded.get(i).getCreatedDate());
+            assertEquals(loaded.get(i).getModifiedDate(), reloaded.get(i).getModifiedDate());
+            assertEquals(loaded.get(i).getTags(), reloaded.get(i).getTags());
+            assertEquals(loaded.get(i).getMood(), reloaded.get(i).getMood());
+            assertEquals(loaded.get(i).isFavorite(), reloaded.get(i).isFavorite());
+        }
+    }
+
+    @Test
+    void testScanSavesMetadataWithoutReadingTheFilesAgain() throws Exception {
+        Files.delete(json);
+        long misses = EntryContent.cache().misses();
+
+        List<DiaryEntry> scanned = fileIOService.loadAllEntries();
+        assertEquals(3, scanned.size());
+        assertTrue(Files.exists(snapshot));
+        assertEquals(misses, EntryContent.cache().misses(), "no content was loaded to save the metadata");
+
+        // Loading from the saved metadata finds the same entries and content
+        List<DiaryEntry> reloaded = fileIOService.loadAllEntries();
+        assertEquals(ids(scanned), ids(reloaded));
+        for (DiaryEntry entry : reloaded) {
+            assertEquals(Files.readString(dataDir.resolve("entries").resolve(entry.getId() + ".txt")),
+                    entry.getContent());
+        }
+    }
+
+    @Test
+    void testDamagedSnapshotFailsToLoad() throws Exception {
+        fileIOService.loadAllEntries();     // converts the JSON metadata
+
+        // Flip a byte in the last entry's record
+        byte[] damaged = Files.readAllBytes(snapshot);
+        damaged[damaged.length - 3] ^= 0x55;
+        Files.write(snapshot, damaged);
+
+        DiaryException e = assertThrows(DiaryException.class, () -> fileIOService.loadAllEntries());
+        assertTrue(e.getCause().getMessage().contains("damaged"), e.getCause().getMessage());
+    }
+
+    @Test
+    void testDamagedLengthsFailToLoad() throws Exception {
+        fileIOService.loadAllEntries();     // converts the JSON metadata
+        byte[] saved = Files.readAllBytes(snapshot);
+        byte[] header = Arrays.copyOf(saved, 12);
+        byte[] records = Arrays.copyOfRange(saved, 12, saved.length);
+
+        // An entry count far beyond the file
+        byte[] count = saved.clone();
+        ByteBuffer.wrap(count).putInt(8, Integer.MAX_VALUE);
+        assertDamaged(count);
+
+        // A record length of 2 GiB, and one that decodes as negative
+        assertDamaged(concat(header, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, records));
+        assertDamaged(concat(header, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}, records));
+
+        // A record whose checksum is right, but whose ID claims more bytes than the record has
+        byte[] payload = {(byte) 0xC8, 0x01, 'a', 'b', 'c'};
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload);
+        assertDamaged(concat(header, new byte[]{(byte) payload.length},
+                ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array(), payload));
+    }
+
+    @Test
+    void testSavingAfterATornRecordKeepsEverySave() throws Exception {
+        DiaryEntry first = testEntry("Before the crash");
+        fileIOService.updateEntry(first);
+
+        // A crash mid-write leaves half a record, with no newline
+        String torn = "{\"op\":\"put\",\"metadata\":{\"id\":\"2001-02-03_040506_to";
+        Files.writeString(journal, torn, StandardOpenOption.APPEND);
+
+        DiaryEntry second = testEntry("After the crash");
+        fileIOService.updateEntry(second);
+        DiaryEntry third = testEntry("Later still");
+        fileIOService.updateEntry(third);
+
+        List<DiaryEntry> loaded = fileIOService.loadAllEntries();
+        assertEquals("Before the crash", find(loaded, first.getId()).getTitle());
+        assertEquals("After the crash", find(loaded, second.getId()).getTitle());
+        assertEquals("Later still", find(loaded, third.getId()).getTitle());
+        assertFalse(Files.readString(journal).contains(torn), "the torn record was cut off");
+    }
+
+    @Test
+    void testDamagedJournalIsNeverCheckpointed() throws Exception {
+        DiaryEntry first = testEntry("Before the damage");
+        fileIOService.updateEntry(first);
+        Files.writeString(journal, "not a record\n", StandardOpenOption.APPEND);
+        DiaryEntry second = testEntry("After the damage");
+        fileIOService.updateEntry(second);
+
+        DiaryException e = assertThrows(DiaryException.class, () -> fileIOService.loadAllEntries());
+        assertTrue(e.getCause().getMessage().contains("damaged at line 2"), e.getCause().getMessage());
+
+        // Enough saves to checkpoint a sound journal; this one keeps every record
+        for (int i = 0; i < 300; i++) {
+            second.setMood("Mood " + i);
+            fileIOService.updateEntry(second);
+        }
+        String records = Files.readString(journal);
+        assertTrue(journalSize() > 64 * 1024, "journal was " + journalSize() + " bytes");
+        assertTrue(records.contains("Before the damage") && records.contains("not a record\n"));
+    }
+
+    private void assertDamaged(byte[] damaged) throws IOException {
+        Files.write(snapshot, damaged);
+        DiaryException e = assertThrows(DiaryException.class, () -> fileIOService.loadAllEntries());
+        assertTrue(e.getCause().getMessage().contains("damaged"), e.getCause().getMessage());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private DiaryEntry testEntry(String title) {
+        DiaryEntry entry = new DiaryEntry(title, "Saved once, in its own file");
+        entry.addTag("journal");
+        entry.setCreatedDate(LocalDateTime.of(2001, 2, 3, 4, 5, 6));
+        return entry;
+    }
+
+    private static DiaryEntry find(List<DiaryEntry> entries, String id) {
+        return entries.stream().filter(e -> id.equals(e.getId())).findFirst().orElse(null);
+    }
+
+    private static List<String> ids(List<DiaryEntry> entries) {
+        return entries.stream().map(DiaryEntry::getId).collect(Collectors.toList());
+    }
+
+    private long journalSize() throws IOException {
+        return Files.exists(journal) ? Files.size(journal) : 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.diary.manager;
+
+import com.diary.manager.models.PorterStemmer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PorterStemmerTest {
+
+    private final PorterStemmer stemmer = new PorterStemmer();
+
+    // Examples from Porter's paper and the reference vocabulary
+    @ParameterizedTest
+    @CsvSource({
+            "caresses, caress", "ponies, poni", "ties, ti", "caress, caress", "cats, cat",
+            "feed, feed", "agreed, agre", "plastered, plaster", "bled, bled", "motoring, motor", "sing, sing",
+            "conflated, conflat", "troubled, troubl", "sized, size", "hopping, hop", "tanned, tan",
+            "falling, fall", "hissing, hiss", "fizzed, fizz", "failing, fail", "filing, file",
+            "happy, happi", "sky, sky",
+            "relational, relat", "conditional, condit", "rational, ration", "valenci, valenc",
+            "digitizer, digit", "generalization, gener", "operator, oper", "hopefulness, hope",
+            "triplicate, triplic", "formalize, formal", "electrical, electr", "goodness, good",
+            "revival, reviv", "allowance, allow", "adjustment, adjust", "adoption, adopt",
+            "probate, probat", "rate, rate", "cease, ceas", "controll, control", "roll, roll",
+            "running, run", "walking, walk", "walked, walk", "walks, walk"
+    })
+    void testStemsReferenceWords(String word, String stem) {
+        assertEquals(stem, stemmer.stem(word));
+    }
+
+    @Test
+    void testLeavesOtherWordsAlone() {
+        assertEquals("at", stemmer.stem("at"));
+        assertEquals("Walking", stemmer.stem("Walking"));
+        assertEquals("2024s", stemmer.stem("2024s"));
+        assertEquals("naïveties", stemmer.stem("naïveties"));
+        assertEquals("", stemmer.stem(""));
+    }
+}
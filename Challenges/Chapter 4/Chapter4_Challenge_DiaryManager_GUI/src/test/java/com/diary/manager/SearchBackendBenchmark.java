@@ -0,0 +1,102 @@
+package com.diary.manager;
+
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.SearchBackend;
+import com.diary.manager.models.SearchEngine;
+import com.diary.manager.services.SearchService;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Latency of the search the GUI runs, through the indexed SearchEngine and
+ * through the linear SearchService scan it replaced, on the same entries and
+ * queries. Not part of the unit test run; start it from the IDE or with:
+ * mvn test-compile exec:java -Dexec.mainClass=com.diary.manager.SearchBackendBenchmark -Dexec.classpathScope=test
+ *
+ * Entries are shorter than in SearchEngineBenchmark so a million of them
+ * fit in a few gigabytes of heap. Pass corpus sizes to run a subset.
+ */
+public class SearchBackendBenchmark {
+
+    private static final int[] CORPUS_SIZES = {10_000, 100_000, 1_000_000};
+    private static final int WORDS_PER_ENTRY = 30;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? CORPUS_SIZES
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        System.out.println("== GUI search: index vs scan ==");
+        for (int size : sizes) {
+            Random random = new Random(42);
+            ObservableList<DiaryEntry> entries = FXCollections.observableArrayList();
+            for (int i = 0; i < size; i++) {
+                DiaryEntry entry = new DiaryEntry("Entry " + SearchEngineBenchmark.word(random, size),
+                        text(random, size));
+                entry.addTag(SearchEngineBenchmark.word(random, 50));
+                entry.setFavorite(random.nextInt(10) == 0);
+                entry.setCreatedDate(LocalDateTime.now().minusDays(random.nextInt(365)));
+                entries.add(entry);
+            }
+
+            long start = System.nanoTime();
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+            long build = System.nanoTime() - start;
+
+            SearchBackend scan = new SearchService().over(entries);
+            double indexed = time(searchEngine, size, 200);
+            double scanned = time(scan, size, size >= 1_000_000 ? 5 : 20);
+
+            System.out.printf("%,9d entries: index %9.1f us/query, scan %11.1f us/query (%.0fx); "
+                            + "index built in %,d ms%n",
+                    size, indexed, scanned, scanned / indexed, build / 1_000_000);
+        }
+    }
+
+    // Average over a mix of what the search view sends: a common word, a common and a rare word,
+    // and a word with the last month's date range as the view starts with. The timed round
+    // uses other queries than the warm-up, so the index's result cache only helps on repeats.
+    private static double time(SearchBackend backend, int size, int queries) {
+        LocalDate today = LocalDate.now();
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < 2; round++) {
+            Random random = new Random(11 + round);
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                switch (i % 3) {
+                    case 0:
+                        backend.search(SearchEngineBenchmark.searchableWord(random),
+                                true, true, true, null, null, false);
+                        break;
+                    case 1:
+                        backend.search(SearchEngineBenchmark.searchableWord(random) + " "
+                                        + SearchEngineBenchmark.word(random, size * 5),
+                                true, true, true, null, null, false);
+                        break;
+                    default:
+                        backend.search(SearchEngineBenchmark.searchableWord(random),
+                                true, true, true, today.minusMonths(1), today, false);
+                        break;
+                }
+            }
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+        return elapsed / 1_000.0 / queries;
+    }
+
+    private static String text(Random random, int corpusSize) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_ENTRY; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(random.nextBoolean() ? SearchEngineBenchmark.word(random, 500)
+                    : SearchEngineBenchmark.word(random, corpusSize * 5));
+        }
+        return text.toString();
+    }
+}
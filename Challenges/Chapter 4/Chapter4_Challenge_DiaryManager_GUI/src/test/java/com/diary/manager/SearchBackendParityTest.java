@@ -0,0 +1,162 @@
+package com.diary.manager;
+
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.SearchBackend;
+import com.diary.manager.models.SearchEngine;
+import com.diary.manager.services.SearchService;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The indexed search the GUI uses against the linear scan it replaced.
+ *
+ * The scan matches substrings and any of the query words, the index whole
+ * words and all of them. On a corpus of same-length words, none of which can
+ * be part of another, single words therefore match the same entries in
+ * both, and several words joined with OR in the index match what the scan
+ * finds for them. Rankings differ, so results are compared as sets.
+ */
+class SearchBackendParityTest {
+
+    private static final int ENTRIES = 400;
+
+    private final Random random = new Random(5);
+    private List<String> vocabulary;
+    private ObservableList<DiaryEntry> entries;
+    private SearchBackend index;
+    private SearchBackend scan;
+
+    @BeforeEach
+    void setUp() {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < 120) {
+            words.add(randomWord());
+        }
+        vocabulary = new ArrayList<>(words);
+
+        entries = FXCollections.observableArrayList();
+        for (int i = 0; i < ENTRIES; i++) {
+            DiaryEntry entry = new DiaryEntry(words(2), words(20));
+            for (int t = random.nextInt(3); t > 0; t--) {
+                entry.addTag(word());
+            }
+            entry.setFavorite(random.nextInt(5) == 0);
+            entry.setCreatedDate(LocalDateTime.now().minusDays(random.nextInt(60)));
+            entries.add(entry);
+        }
+
+        SearchEngine searchEngine = new SearchEngine();
+        searchEngine.indexEntries(entries);
+        index = searchEngine;
+        scan = new SearchService().over(entries);
+    }
+
+    @Test
+    void testSingleWordsMatchTheSameEntries() {
+        for (String word : vocabulary) {
+            assertSameEntries(word, word, true, true, true, null, null, false);
+        }
+    }
+
+    @Test
+    void testFieldSelectionMatchesTheSameEntries() {
+        for (int i = 0; i < 200; i++) {
+            String word = word();
+            boolean title = random.nextBoolean();
+            boolean content = random.nextBoolean();
+            boolean tags = random.nextBoolean();
+            assertSameEntries(word, word, title, content, tags, null, null, false);
+        }
+    }
+
+    @Test
+    void testFiltersMatchTheSameEntries() {
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 200; i++) {
+            String word = word();
+            // The scan only filters by date when both ends are given
+            LocalDate from = today.minusDays(random.nextInt(60));
+            LocalDate to = from.plusDays(random.nextInt(30));
+            boolean favoritesOnly = random.nextBoolean();
+            assertSameEntries(word, word, true, true, true, from, to, favoritesOnly);
+        }
+    }
+
+    @Test
+    void testSeveralWordsMatchTheSameEntriesWithOr() {
+        for (int i = 0; i < 100; i++) {
+            String first = word();
+            String second = word();
+            assertSameEntries(first + " OR " + second, first + " " + second, true, true, true, null, null, false);
+
+            // Without OR the index wants both words, so finds a subset
+            Set<DiaryEntry> both = new HashSet<>(index.search(first + " " + second, true, true, true, null, null, false));
+            Set<DiaryEntry> either = new HashSet<>(scan.search(first + " " + second, true, true, true, null, null, false));
+            assertTrue(either.containsAll(both));
+            for (DiaryEntry entry : both) {
+                assertTrue(contains(entry, first) && contains(entry, second));
+            }
+        }
+    }
+
+    @Test
+    void testIndexFollowsEdits() {
+        SearchEngine searchEngine = (SearchEngine) index;
+        for (int i = 0; i < 50; i++) {
+            DiaryEntry entry = entries.get(random.nextInt(entries.size()));
+            if (random.nextBoolean()) {
+                entry.setContent(words(20));
+                searchEngine.updateIndex(entry, entry);
+            } else {
+                entries.remove(entry);
+                searchEngine.removeFromIndex(entry);
+            }
+        }
+        for (String word : vocabulary) {
+            assertSameEntries(word, word, true, true, true, null, null, false);
+        }
+    }
+
+    private void assertSameEntries(String indexQuery, String scanQuery, boolean title, boolean content,
+                                   boolean tags, LocalDate from, LocalDate to, boolean favoritesOnly) {
+        Set<DiaryEntry> expected = new HashSet<>(scan.search(scanQuery, title, content, tags, from, to, favoritesOnly));
+        List<DiaryEntry> actual = index.search(indexQuery, title, content, tags, from, to, favoritesOnly);
+        assertEquals(actual.size(), new HashSet<>(actual).size(), indexQuery);
+        assertEquals(expected, new HashSet<>(actual),
+                indexQuery + " title=" + title + " content=" + content + " tags=" + tags
+                        + " from=" + from + " to=" + to + " favorites=" + favoritesOnly);
+    }
+
+    private static boolean contains(DiaryEntry entry, String word) {
+        return entry.getTitle().contains(word) || entry.getContent().contains(word) || entry.getTags().contains(word);
+    }
+
+    // Five letters starting with a q, so never a stop word and never part of another word
+    private String randomWord() {
+        StringBuilder word = new StringBuilder("q");
+        for (int i = 0; i < 4; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private String word() {
+        return vocabulary.get(random.nextInt(vocabulary.size()));
+    }
+
+    private String words(int count) {
+        StringJoiner text = new StringJoiner(" ");
+        for (int i = 0; i < count; i++) {
+            text.add(word());
+        }
+        return text.toString();
+    }
+}
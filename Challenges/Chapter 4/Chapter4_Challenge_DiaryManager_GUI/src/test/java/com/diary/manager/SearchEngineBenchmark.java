@@ -0,0 +1,602 @@
+package com.diary.manager;
+
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.SearchEngine;
+import com.diary.manager.models.SearchPage;
+import com.diary.manager.models.Tokenizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-alone timing harness for SearchEngine. Not part of the unit test run;
+ * start it from the IDE or with:
+ * mvn test-compile exec:java -Dexec.mainClass=com.diary.manager.SearchEngineBenchmark -Dexec.classpathScope=test
+ */
+public class SearchEngineBenchmark {
+
+    private static final int[] CORPUS_SIZES = {1_000, 10_000, 100_000};
+    private static final int WORDS_PER_ENTRY = 200;
+
+    public static void main(String[] args) {
+        // Pass benchmark names (e.g. "update query") to run a subset
+        Set<String> selected = new HashSet<>(Arrays.asList(args));
+        if (selected.isEmpty() || selected.contains("build")) {
+            benchmarkBulkIndexing();
+        }
+        if (selected.isEmpty() || selected.contains("update")) {
+            benchmarkUpdateIndex();
+        }
+        if (selected.isEmpty() || selected.contains("memory")) {
+            benchmarkIndexMemory();
+        }
+        if (selected.isEmpty() || selected.contains("query")) {
+            benchmarkAndQuery();
+        }
+        if (selected.isEmpty() || selected.contains("boolean")) {
+            benchmarkBooleanQuery();
+        }
+        if (selected.isEmpty() || selected.contains("fuzzy")) {
+            benchmarkFuzzyQuery();
+        }
+        if (selected.isEmpty() || selected.contains("phrase")) {
+            benchmarkPhraseQuery();
+        }
+        if (selected.isEmpty() || selected.contains("page")) {
+            benchmarkFirstPage();
+        }
+        if (selected.isEmpty() || selected.contains("suggest")) {
+            benchmarkSuggestions();
+        }
+        if (selected.isEmpty() || selected.contains("tokenize")) {
+            benchmarkTokenizer();
+        }
+        if (selected.isEmpty() || selected.contains("analyze")) {
+            benchmarkAnalyzers();
+        }
+        if (selected.isEmpty() || selected.contains("persist")) {
+            benchmarkPersistence();
+        }
+    }
+
+    /**
+     * Cold indexEntries on one worker against the whole common pool. The
+     * speed-up should approach the number of cores.
+     */
+    private static void benchmarkBulkIndexing() {
+        System.out.println("== indexEntries ==");
+        int cores = ForkJoinPool.getCommonPoolParallelism();
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            ForkJoinPool singleWorker = new ForkJoinPool(1);
+            try {
+                long sequential = Long.MAX_VALUE;
+                long parallel = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    singleWorker.submit(() -> new SearchEngine().indexEntries(entries)).join();
+                    sequential = Math.min(sequential, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    new SearchEngine().indexEntries(entries);
+                    parallel = Math.min(parallel, System.nanoTime() - start);
+                }
+                System.out.printf("%,9d entries: 1 worker %8.1f ms, %d workers %8.1f ms%n",
+                        size, sequential / 1e6, cores, parallel / 1e6);
+            } finally {
+                singleWorker.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Writer latency of updateIndex as the corpus (and its vocabulary) grows,
+     * with updates back to back and spaced 2 ms apart, as saves from the
+     * editor are. With the forward index this should stay flat; merges run
+     * in the background, so spaced updates should not wait for them. The new
+     * texts are made before timing, so only the update itself is measured.
+     */
+    private static void benchmarkUpdateIndex() {
+        System.out.println("== updateIndex ==");
+        int updates = 2_000;
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            Random random = new Random(7);
+            for (long gapNanos : new long[]{0, 2_000_000}) {
+                DiaryEntry[] updated = new DiaryEntry[updates];
+                String[] texts = new String[updates];
+                for (int i = 0; i < updates; i++) {
+                    updated[i] = entries.get(random.nextInt(size));
+                    texts[i] = randomText(random, size);
+                }
+
+                usedHeap();     // start from a collected heap, as for the heap figures
+                long[] latencies = new long[updates];
+                long total = 0;
+                for (int i = 0; i < updates; i++) {
+                    updated[i].setContent(texts[i]);
+                    long updateStart = System.nanoTime();
+                    searchEngine.updateIndex(updated[i], updated[i]);
+                    latencies[i] = System.nanoTime() - updateStart;
+                    total += latencies[i];
+                    if (gapNanos > 0) {
+                        LockSupport.parkNanos(gapNanos);
+                    }
+                }
+                Arrays.sort(latencies);
+
+                System.out.printf("%,9d entries, %,9d terms, %s: %8.1f us/update, median %8.1f us, "
+                                + "p99 %8.1f us, slowest %8.1f us%n",
+                        size,
+                        searchEngine.getIndexStatistics().get("Content Index Size"),
+                        gapNanos == 0 ? "back to back" : "2 ms apart  ",
+                        total / 1_000.0 / updates,
+                        latencies[updates / 2] / 1_000.0,
+                        latencies[updates * 99 / 100] / 1_000.0,
+                        latencies[updates - 1] / 1_000.0);
+            }
+        }
+    }
+
+    /**
+     * Heap retained by the index alone (entries are kept reachable in both runs),
+     * with and without word positions.
+     */
+    private static void benchmarkIndexMemory() {
+        System.out.println("== index heap ==");
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            long[] kilobytes = new long[2];
+            for (int positions = 0; positions < 2; positions++) {
+                long before = usedHeap();
+                SearchEngine searchEngine = new SearchEngine();
+                searchEngine.setIndexPositions(positions == 1);
+                searchEngine.indexEntries(entries);
+                long after = usedHeap();
+                kilobytes[positions] = (after - before) / 1024;
+                Reference.reachabilityFence(searchEngine);
+            }
+
+            System.out.printf("%,9d entries: %,8d KB index, %,8d KB with positions%n",
+                    size, kilobytes[0], kilobytes[1]);
+        }
+    }
+
+    /**
+     * Two-term AND query mixing a common word with a rare one.
+     */
+    private static void benchmarkAndQuery() {
+        System.out.println("== AND query ==");
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            Random random = new Random(11);
+            int queries = 2_000;
+            long hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                String query = word(random, 500) + " " + word(random, size * 5);
+                hits += searchEngine.search(query).size();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%,9d entries: %8.1f us/query (%d hits)%n",
+                    size, elapsed / 1_000.0 / queries, hits);
+        }
+    }
+
+    /**
+     * A rare word with a typo, with one and two edits allowed. Planning
+     * (explainQuery) is where the term dictionary is walked, so it is timed
+     * on its own, against comparing the word with every term of the
+     * vocabulary. The walk only visits prefixes within reach of the word, so
+     * it should grow far slower than the vocabulary. The generated words are
+     * dense, so a typo has many neighbours and the searches score many hits.
+     */
+    private static void benchmarkFuzzyQuery() {
+        System.out.println("== fuzzy query ==");
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            int vocabularySize = size * 5;
+            Random random = new Random(11);
+            int queries = 200;
+            String[] typos = new String[queries];
+            for (int i = 0; i < queries; i++) {
+                String word = word(random, vocabularySize);
+                typos[i] = "content:" + word.substring(0, word.length() - 1) + "z" + word.charAt(word.length() - 1);
+            }
+
+            for (int edits = 1; edits <= 2; edits++) {
+                searchEngine.setFuzzyEdits(edits);
+                long plan = Long.MAX_VALUE;
+                long search = Long.MAX_VALUE;
+                long hits = 0;
+                for (int round = 0; round < 2; round++) {
+                    long start = System.nanoTime();
+                    for (String typo : typos) {
+                        searchEngine.explainQuery(typo);
+                    }
+                    plan = Math.min(plan, System.nanoTime() - start);
+
+                    hits = 0;
+                    start = System.nanoTime();
+                    for (String typo : typos) {
+                        hits += searchEngine.search(typo).size();
+                    }
+                    search = Math.min(search, System.nanoTime() - start);
+                }
+
+                long start = System.nanoTime();
+                for (String typo : typos) {
+                    String word = typo.substring("content:".length());
+                    for (int w = 0; w < vocabularySize; w++) {
+                        editDistance(word, "w" + Integer.toString(w, 36));
+                    }
+                }
+                long scan = System.nanoTime() - start;
+
+                System.out.printf("%,9d entries, %d edit(s): plan %8.1f us, search %8.1f us/query (%d hits); "
+                                + "scanning %,d terms %8.1f us/query%n",
+                        size, edits, plan / 1_000.0 / queries, search / 1_000.0 / queries, hits,
+                        vocabularySize, scan / 1_000.0 / queries);
+            }
+        }
+    }
+
+    private static int editDistance(String a, String b) {
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int above = row[j];
+                row[j] = Math.min(Math.min(row[j] + 1, row[j - 1] + 1),
+                        diagonal + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+                diagonal = above;
+            }
+        }
+        return row[b.length()];
+    }
+
+    /**
+     * OR of two common words, AND a rare one, minus a third common word. The
+     * plan starts from the rare word, so the cost should track its matches
+     * rather than the common words'.
+     */
+    private static void benchmarkBooleanQuery() {
+        System.out.println("== boolean query ==");
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            Random random = new Random(11);
+            int queries = 500;
+            long hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                String query = "(" + searchableWord(random) + " OR " + searchableWord(random) + ") "
+                        + word(random, size * 5) + " -" + searchableWord(random);
+                hits += searchEngine.search(query).size();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%,9d entries: %8.1f us/query (%d hits)%n",
+                    size, elapsed / 1_000.0 / queries, hits);
+        }
+    }
+
+    /**
+     * Quoted two-word phrase against the same words as a plain AND query. Both
+     * words are common, so the position check runs on many candidates.
+     */
+    private static void benchmarkPhraseQuery() {
+        System.out.println("== phrase query ==");
+        for (int size : CORPUS_SIZES) {
+            List<DiaryEntry> entries = generateEntries(size, new Random(42));
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            int queries = 500;
+            long[] hits = new long[2];
+            long[] elapsed = new long[2];
+            for (int phrase = 0; phrase < 2; phrase++) {
+                Random random = new Random(11);
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    String words = searchableWord(random) + " " + searchableWord(random);
+                    hits[phrase] += searchEngine.search(phrase == 1 ? "\"" + words + "\"" : words).size();
+                }
+                elapsed[phrase] = System.nanoTime() - start;
+            }
+
+            System.out.printf("%,9d entries: AND %8.1f us/query (%d hits), phrase %8.1f us/query (%d hits)%n",
+                    size, elapsed[0] / 1_000.0 / queries, hits[0], elapsed[1] / 1_000.0 / queries, hits[1]);
+        }
+    }
+
+    /**
+     * First page (and second page) of a query matching half the corpus, against
+     * a full ranked result list. Entries are short so a million of them fit in heap.
+     */
+    private static void benchmarkFirstPage() {
+        System.out.println("== first page of a common-word query ==");
+        for (int size : new int[]{100_000, 1_000_000}) {
+            List<DiaryEntry> entries = new ArrayList<>(size);
+            Random random = new Random(42);
+            for (int i = 0; i < size; i++) {
+                String content = (i % 2 == 0 ? "today " : "") + word(random, 2_000) + " " + word(random, 2_000);
+                entries.add(new DiaryEntry("Entry", content));
+            }
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(entries);
+
+            for (int warmup = 0; warmup < 5; warmup++) {
+                searchEngine.searchPage("today", 20, 0);
+                searchEngine.addToIndex(new DiaryEntry("Warmup", "warmup")); // invalidate cached hits
+            }
+
+            long start = System.nanoTime();
+            SearchPage first = searchEngine.searchPage("today", 20, 0);
+            long firstPage = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            searchEngine.searchPage("today", 20, 20);
+            long secondPage = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            searchEngine.search("today");
+            long fullList = System.nanoTime() - start;
+
+            System.out.printf("%,9d entries (%,d hits): first page %.1f ms, next page %.3f ms, full list %.1f ms%n",
+                    size, first.getTotalHits(),
+                    firstPage / 1e6, secondPage / 1e6, fullList / 1e6);
+        }
+    }
+
+    /**
+     * Top-10 autocomplete for one- and two-character prefixes. Should not grow
+     * with the vocabulary.
+     */
+    private static void benchmarkSuggestions() {
+        System.out.println("== getSuggestions ==");
+        for (int size : CORPUS_SIZES) {
+            SearchEngine searchEngine = new SearchEngine();
+            searchEngine.indexEntries(generateEntries(size, new Random(42)));
+            searchEngine.getSuggestions("w", 10); // builds the dictionary
+
+            String[] prefixes = {"w", "w1", "wa", "wz", "w3k"};
+            int rounds = 2_000;
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < rounds; i++) {
+                found += searchEngine.getSuggestions(prefixes[i % prefixes.length], 10).size();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%,9d entries: %8.1f us/lookup (%d suggestions)%n",
+                    size, elapsed / 1e3 / rounds, found);
+        }
+    }
+
+    /**
+     * Regex normalise + split (the old indexing path) against the single-pass
+     * Tokenizer, over the same texts
+     */
+    private static void benchmarkTokenizer() {
+        System.out.println("== tokenizer ==");
+        Random random = new Random(42);
+        List<String> texts = new ArrayList<>();
+        long chars = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String text = randomText(random, 100_000);
+            texts.add(text);
+            chars += text.length();
+        }
+
+        Tokenizer tokenizer = new Tokenizer();
+        long[] sink = new long[1];
+        Tokenizer.TermSink counter = (buffer, length) -> sink[0] += length;
+
+        for (int round = 0; round < 5; round++) {
+            boolean report = round == 4; // earlier rounds are JIT warmup
+
+            long start = System.nanoTime();
+            for (String text : texts) {
+                for (String term : Tokenizer.split(Tokenizer.normalize(text, true))) {
+                    sink[0] += term.length();
+                }
+            }
+            long regexTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String text : texts) {
+                tokenizer.tokenize(text, true, counter);
+            }
+            long tokenizerTime = System.nanoTime() - start;
+
+            if (report) {
+                double megabytes = chars * 2 / 1e6;
+                System.out.printf("regex:     %7.1f MB/s%n", megabytes / (regexTime / 1e9));
+                System.out.printf("tokenizer: %7.1f MB/s%n", megabytes / (tokenizerTime / 1e9));
+            }
+        }
+        if (sink[0] == 42) {
+            System.out.println(); // consume the result so the loops are not optimised away
+        }
+    }
+
+    /**
+     * indexEntries throughput with the analyzers off, with stemming, and with
+     * stemming and synonyms, over English-like text (letters only, inflected
+     * words and some synonym-group words, so every filter has work to do)
+     */
+    private static void benchmarkAnalyzers() {
+        System.out.println("== indexEntries with analyzers ==");
+        String[] names = {"plain", "stemming", "stemming+synonyms"};
+        for (int size : new int[]{10_000, 100_000}) {
+            Random random = new Random(42);
+            List<DiaryEntry> entries = new ArrayList<>(size);
+            long chars = 0;
+            for (int i = 0; i < size; i++) {
+                DiaryEntry entry = new DiaryEntry(englishText(random, size, 4), englishText(random, size, WORDS_PER_ENTRY));
+                chars += entry.getTitle().length() + entry.getContent().length();
+                entries.add(entry);
+            }
+
+            for (int mode = 0; mode < names.length; mode++) {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    SearchEngine searchEngine = new SearchEngine();
+                    searchEngine.setUseStemming(mode >= 1);
+                    searchEngine.setUseSynonyms(mode == 2);
+                    long start = System.nanoTime();
+                    searchEngine.indexEntries(entries);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%,9d entries, %-18s %8.1f ms, %,9.0f entries/s, %6.1f MB/s%n",
+                        size, names[mode] + ":", best / 1e6, size / (best / 1e9), chars * 2 / 1e6 / (best / 1e9));
+            }
+        }
+    }
+
+    /**
+     * Starting from a saved index against indexing from scratch: loading an
+     * unchanged index, and one with 1% of the entries edited since it was saved.
+     */
+    private static void benchmarkPersistence() {
+        System.out.println("== saveIndex / loadIndex ==");
+        try {
+            Path file = Files.createTempFile("search", ".idx");
+            try {
+                for (int size : new int[]{10_000, 100_000}) {
+                    List<DiaryEntry> entries = generateEntries(size, new Random(42));
+                    long build = Long.MAX_VALUE;
+                    long save = Long.MAX_VALUE;
+                    long load = Long.MAX_VALUE;
+                    for (int round = 0; round < 3; round++) {
+                        SearchEngine searchEngine = new SearchEngine();
+                        long start = System.nanoTime();
+                        searchEngine.indexEntries(entries);
+                        build = Math.min(build, System.nanoTime() - start);
+
+                        start = System.nanoTime();
+                        searchEngine.saveIndex(file);
+                        save = Math.min(save, System.nanoTime() - start);
+
+                        start = System.nanoTime();
+                        new SearchEngine().loadIndex(file, entries);
+                        load = Math.min(load, System.nanoTime() - start);
+                    }
+
+                    Random random = new Random(7);
+                    for (int i = 0; i < size / 100; i++) {
+                        DiaryEntry entry = entries.get(random.nextInt(size));
+                        entry.setContent(randomText(random, size));
+                    }
+                    long catchUp = System.nanoTime();
+                    int reindexed = new SearchEngine().loadIndex(file, entries);
+                    catchUp = System.nanoTime() - catchUp;
+
+                    System.out.printf("%,9d entries, %6.1f MB: build %8.1f ms, save %7.1f ms, load %7.1f ms, "
+                                    + "load + %,d edited %7.1f ms%n",
+                            size, Files.size(file) / 1e6, build / 1e6, save / 1e6, load / 1e6,
+                            reindexed, catchUp / 1e6);
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static List<DiaryEntry> generateEntries(int count, Random random) {
+        List<DiaryEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DiaryEntry entry = new DiaryEntry("Entry " + word(random, count), randomText(random, count));
+            entry.addTag(word(random, 50));
+            entry.setFavorite(random.nextInt(10) == 0);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    // Zipf-like mix: common words shared by everyone plus a vocabulary that grows with the corpus
+    static String randomText(Random random, int corpusSize) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_ENTRY; i++) {
+            if (i > 0) {
+                text.append(i % 15 == 0 ? ". " : " ");
+            }
+            text.append(random.nextBoolean() ? word(random, 500) : word(random, corpusSize * 5));
+        }
+        return text.toString();
+    }
+
+    // A common word long enough to be searched for (generated words are 2 to 5 characters)
+    static String searchableWord(Random random) {
+        String word;
+        do {
+            word = word(random, 500);
+        } while (word.length() <= 2);
+        return word;
+    }
+
+    private static final String[] SUFFIXES = {"", "", "", "s", "ed", "ing", "er", "ly", "ness", "ation", "ful"};
+    private static final String[] SYNONYMS = {"glad", "joyful", "cheerful", "walked", "strolling", "job", "office",
+            "journey", "vacation", "tired", "exhausted", "buddy", "friends", "movie", "film"};
+
+    // Letters-only words: a stem from a corpus-sized vocabulary with an English suffix
+    static String englishText(Random random, int corpusSize, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            if (random.nextInt(20) == 0) {
+                text.append(SYNONYMS[random.nextInt(SYNONYMS.length)]);
+                continue;
+            }
+            int stem = random.nextBoolean() ? random.nextInt(500) : random.nextInt(corpusSize * 5);
+            for (int n = stem + 26 * 26; n > 0; n /= 26) {
+                text.append((char) ('a' + n % 26));
+            }
+            text.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+        }
+        return text.toString();
+    }
+
+    static String word(Random random, int vocabularySize) {
+        return "w" + Integer.toString(random.nextInt(vocabularySize), 36);
+    }
+}
@@ -0,0 +1,827 @@
+package com.diary.manager;
+
+import com.diary.manager.models.DiaryEntry;
+import com.diary.manager.models.SearchEngine;
+import com.diary.manager.models.SearchPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchEngineTest {
+
+    private SearchEngine searchEngine;
+
+    @BeforeEach
+    void setUp() {
+        searchEngine = new SearchEngine();
+    }
+
+    @Test
+    void testSearch() {
+        DiaryEntry entry1 = new DiaryEntry("Beach Holiday", "Swimming in the ocean all afternoon");
+        entry1.addTag("travel");
+        DiaryEntry entry2 = new DiaryEntry("Work Notes", "Quarterly planning meeting");
+
+        searchEngine.indexEntries(List.of(entry1, entry2));
+
+        assertEquals(List.of(entry1), searchEngine.search("ocean"));
+        assertEquals(List.of(entry2), searchEngine.search("quarterly planning"));
+        assertEquals(List.of(entry1), searchEngine.searchByTag("travel"));
+        assertTrue(searchEngine.search("mountains").isEmpty());
+    }
+
+    @Test
+    void testRemoveFromIndex() {
+        DiaryEntry entry = new DiaryEntry("Garden", "Planted tomatoes today");
+        entry.addTag("garden");
+        searchEngine.addToIndex(entry);
+
+        searchEngine.removeFromIndex(entry);
+
+        assertTrue(searchEngine.search("tomatoes").isEmpty());
+        assertTrue(searchEngine.searchByTag("garden").isEmpty());
+        assertEquals(0, searchEngine.getIndexStatistics().get("Content Index Size"));
+        assertEquals(0, searchEngine.getIndexStatistics().get("Date Index Size"));
+    }
+
+    @Test
+    void testUpdateIndexAfterInPlaceEdit() {
+        DiaryEntry entry = new DiaryEntry("Morning", "Coffee and newspaper");
+        searchEngine.addToIndex(entry);
+
+        // The editor mutates the same instance before asking for a re-index
+        entry.setContent("Tea and crossword");
+        searchEngine.updateIndex(entry, entry);
+
+        assertTrue(searchEngine.search("coffee").isEmpty());
+        assertEquals(List.of(entry), searchEngine.search("crossword"));
+    }
+
+    @Test
+    void testEntryRenamedBySavingStaysOneDoc() {
+        // A new entry is indexed under a generated ID; saving renames it to its
+        // file name, and again when its title changes
+        DiaryEntry entry = new DiaryEntry("Trip", "A day at the beach");
+        searchEngine.addToIndex(entry);
+        entry.setId("2024-06-01_120000_trip");
+        searchEngine.updateIndex(entry, entry);
+        entry.setTitle("Beach trip");
+        entry.setId("2024-06-01_120000_beach_trip");
+        searchEngine.updateIndex(entry, entry);
+
+        assertEquals(List.of(entry), searchEngine.search("beach"));
+        searchEngine.removeFromIndex(entry);
+        assertTrue(searchEngine.search("beach").isEmpty());
+        assertEquals(0, searchEngine.getIndexStatistics().get("Content Index Size"));
+
+        // The same holds for an entry indexed by a rebuild
+        DiaryEntry loaded = new DiaryEntry("Lake", "Swimming in the lake");
+        searchEngine.indexEntries(List.of(loaded));
+        loaded.setId("2024-06-02_090000_lake");
+        searchEngine.updateIndex(loaded, loaded);
+        assertEquals(List.of(loaded), searchEngine.search("lake"));
+
+        // Another copy of an entry, under its ID, still replaces it
+        DiaryEntry copy = new DiaryEntry("Lake", "Rowing on the lake");
+        copy.setId(loaded.getId());
+        searchEngine.addToIndex(copy);
+        assertEquals(List.of(copy), searchEngine.search("lake"));
+        searchEngine.removeFromIndex(copy);
+        assertTrue(searchEngine.search("lake").isEmpty());
+    }
+
+    @Test
+    void testRemoveLeavesSharedTerms() {
+        DiaryEntry entry1 = new DiaryEntry("Run", "Morning run by the river");
+        DiaryEntry entry2 = new DiaryEntry("Walk", "Evening walk by the river");
+        searchEngine.indexEntries(List.of(entry1, entry2));
+
+        searchEngine.removeFromIndex(entry1);
+
+        assertEquals(List.of(entry2), searchEngine.search("river"));
+        assertTrue(searchEngine.search("morning").isEmpty());
+    }
+
+    @Test
+    void testAndQueryNeedsEveryTerm() {
+        DiaryEntry entry1 = new DiaryEntry("Trip", "Train to the mountains");
+        DiaryEntry entry2 = new DiaryEntry("Commute", "Train to the office");
+        DiaryEntry entry3 = new DiaryEntry("Hike", "Walked up the mountains");
+        searchEngine.indexEntries(List.of(entry1, entry2, entry3));
+
+        assertEquals(List.of(entry1), searchEngine.search("train mountains"));
+        assertEquals(2, searchEngine.search("train").size());
+        assertTrue(searchEngine.search("train beach").isEmpty());
+    }
+
+    @Test
+    void testRepeatedUpdatesCompactDocIds() {
+        DiaryEntry entry = new DiaryEntry("Counter", "version 0");
+        searchEngine.addToIndex(entry);
+
+        for (int i = 1; i <= 5_000; i++) {
+            entry.setContent("version " + i);
+            searchEngine.updateIndex(entry, entry);
+        }
+
+        assertEquals(1, searchEngine.getIndexStatistics().get("Total Entries"));
+        assertTrue(searchEngine.getIndexStatistics().get("Doc ID Range") < 2_100);
+        assertEquals(List.of(entry), searchEngine.search("counter"));
+    }
+
+    @Test
+    void testRelevanceRanking() {
+        DiaryEntry inContent = new DiaryEntry("Saturday", "We talked about the concert for a while");
+        DiaryEntry inTitle = new DiaryEntry("Concert", "Great night out with friends");
+        DiaryEntry repeated = new DiaryEntry("Music", "Concert, concert, concert. The concert was loud");
+        searchEngine.indexEntries(List.of(inContent, inTitle, repeated));
+
+        List<DiaryEntry> results = searchEngine.search("concert");
+
+        assertEquals(3, results.size());
+        assertEquals(inContent, results.get(2)); // single mention in a long body ranks last
+        assertTrue(results.indexOf(inTitle) < results.indexOf(inContent));
+        assertTrue(results.indexOf(repeated) < results.indexOf(inContent));
+    }
+
+    @Test
+    void testPagedSearchMatchesFullRanking() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            // Varying repetition gives every entry a different score
+            entries.add(new DiaryEntry("Day " + i, "walk ".repeat(i % 7 + 1) + "filler text " + i));
+        }
+        searchEngine.indexEntries(entries);
+
+        List<DiaryEntry> full = searchEngine.search("walk");
+        List<DiaryEntry> paged = new ArrayList<>();
+        for (int offset = 0; offset < full.size(); offset += 8) {
+            SearchPage page = searchEngine.searchPage("walk", 8, offset);
+            paged.addAll(page.getEntries());
+            assertEquals(50, page.getTotalHits());
+        }
+
+        assertEquals(full, paged);
+        assertTrue(searchEngine.searchPage("walk", 10, 100).getEntries().isEmpty());
+    }
+
+    @Test
+    void testPagedSearchSeesIndexChanges() {
+        DiaryEntry entry1 = new DiaryEntry("Lake", "Swim in the lake");
+        searchEngine.addToIndex(entry1);
+        assertEquals(List.of(entry1), searchEngine.searchPage("lake", 10, 0).getEntries());
+
+        DiaryEntry entry2 = new DiaryEntry("Lake again", "Another lake day");
+        searchEngine.addToIndex(entry2);
+
+        assertEquals(2, searchEngine.searchPage("lake", 10, 0).getEntries().size());
+    }
+
+    @Test
+    void testResultCacheServesRepeatsUntilIndexChanges() {
+        DiaryEntry entry1 = new DiaryEntry("Lake", "Swim in the lake");
+        entry1.setFavorite(true);
+        searchEngine.addToIndex(entry1);
+
+        assertEquals(List.of(entry1), searchEngine.search("lake"));
+        assertEquals(List.of(entry1), searchEngine.search("lake", true, true, true, null, null, true));
+        // Toggling the filter back, and normalising to the same query, are hits
+        assertEquals(List.of(entry1), searchEngine.search("lake"));
+        assertEquals(List.of(entry1), searchEngine.search("  LAKE "));
+        Map<String, Integer> stats = searchEngine.getIndexStatistics();
+        assertEquals(2, stats.get("Result Cache Hits"));
+        assertEquals(2, stats.get("Result Cache Misses"));
+        assertEquals(2, stats.get("Cached Queries"));
+
+        // Any write makes the cached results stale
+        DiaryEntry entry2 = new DiaryEntry("Lake again", "Another lake day");
+        searchEngine.addToIndex(entry2);
+        assertEquals(2, searchEngine.search("lake").size());
+        stats = searchEngine.getIndexStatistics();
+        assertEquals(2, stats.get("Result Cache Hits"));
+        assertEquals(1, stats.get("Cached Queries"));
+
+        // Least recently used queries are evicted first
+        for (int i = 0; i < 100; i++) {
+            searchEngine.search("lake" + i);
+            searchEngine.search("lake");
+        }
+        assertTrue(searchEngine.getIndexStatistics().get("Cached Queries") <= 64);
+        int hits = searchEngine.getIndexStatistics().get("Result Cache Hits");
+        searchEngine.search("lake");
+        searchEngine.search("lake0");
+        assertEquals(hits + 1, searchEngine.getIndexStatistics().get("Result Cache Hits"));
+    }
+
+    @Test
+    void testRefinedSearchesMatchFullSearches() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            String content = "walk" + (i % 2 == 0 ? " river" : "") + (i % 3 == 0 ? " lake" : "")
+                    + (i % 5 == 0 ? " rain" : "") + " note" + (i % 7);
+            DiaryEntry entry = new DiaryEntry("Day " + i, content);
+            entry.setFavorite(i % 4 == 0);
+            entry.setCreatedDate(LocalDateTime.now().minusDays(i % 30));
+            entries.add(entry);
+        }
+        searchEngine.indexEntries(entries);
+        SearchEngine unrefined = new SearchEngine();
+        unrefined.indexEntries(entries);
+
+        // Each search narrows down an earlier one, as while typing and setting filters
+        LocalDate today = LocalDate.now();
+        Object[][] searches = {
+                {"river lake", null, null, false},
+                {"river lake walk", null, null, false},
+                {"river lake walk", null, null, true},
+                {"river lake walk", today.minusDays(20), null, true},
+                {"river lake walk", today.minusDays(20), today.minusDays(5), true},
+                {"river lake walk -rain", today.minusDays(20), today.minusDays(5), true},
+                {"river lake walk -rain note3", today.minusDays(20), today.minusDays(5), true},
+        };
+        List<List<DiaryEntry>> refined = new ArrayList<>();
+        for (Object[] search : searches) {
+            refined.add(searchEngine.search((String) search[0], true, true, true,
+                    (LocalDate) search[1], (LocalDate) search[2], (Boolean) search[3]));
+        }
+        assertEquals(6, searchEngine.getIndexStatistics().get("Refined Searches"));
+
+        // Narrowest first, no search has a cached wider one to start from
+        for (int i = searches.length - 1; i >= 0; i--) {
+            Object[] search = searches[i];
+            assertEquals(unrefined.search((String) search[0], true, true, true,
+                    (LocalDate) search[1], (LocalDate) search[2], (Boolean) search[3]), refined.get(i),
+                    Arrays.toString(search));
+        }
+        assertEquals(0, unrefined.getIndexStatistics().get("Refined Searches"));
+        assertFalse(refined.get(refined.size() - 1).isEmpty());
+
+        // Changing the fields or dropping a word is not a refinement
+        searchEngine.search("river lake walk", true, false, true, null, null, false);
+        searchEngine.search("river walk", true, true, true, null, null, false);
+        searchEngine.search("lake rain", true, true, true, null, null, true);
+        assertEquals(6, searchEngine.getIndexStatistics().get("Refined Searches"));
+    }
+
+    @Test
+    void testInterruptedSearchIsCancelled() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(new DiaryEntry("Day " + i, "walk by the river"));
+        }
+        searchEngine.indexEntries(entries);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> searchEngine.search("river"));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Nothing partial was cached
+        assertEquals(100, searchEngine.search("river").size());
+        assertEquals(0, searchEngine.getIndexStatistics().get("Result Cache Hits"));
+    }
+
+    @Test
+    void testParallelBuildMatchesSequentialIndexing() throws Exception {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 6_000; i++) {
+            DiaryEntry entry = new DiaryEntry("Day " + (i % 97), "walk river " + (i % 13) + " note" + (i % 101));
+            entry.addTag("tag" + (i % 11));
+            entry.setFavorite(i % 7 == 0);
+            entries.add(entry);
+        }
+        entries.add(entries.get(10)); // listed twice: the later occurrence wins
+
+        // Enough workers that the list is split into shards and merged
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pool.submit(() -> searchEngine.indexEntries(entries)).get();
+        } finally {
+            pool.shutdown();
+        }
+        SearchEngine sequential = new SearchEngine();
+        entries.forEach(sequential::addToIndex);
+
+        // Only the doc ID range differs: adding the duplicate one at a time leaves a hole.
+        // The segment count depends on how far the merger has got.
+        Map<String, Integer> expectedStats = sequential.getIndexStatistics();
+        Map<String, Integer> actualStats = searchEngine.getIndexStatistics();
+        expectedStats.remove("Doc ID Range");
+        expectedStats.remove("Segments");
+        assertEquals(1, actualStats.remove("Segments"));
+        assertEquals(6_000, actualStats.remove("Doc ID Range"));
+        assertEquals(expectedStats, actualStats);
+        for (String query : List.of("walk", "river note42", "day", "tag3", "walk note7")) {
+            assertEquals(sequential.search(query), searchEngine.search(query), query);
+        }
+        assertEquals(sequential.searchByTag("tag5"), searchEngine.searchByTag("tag5"));
+        assertEquals(sequential.searchFavorites(), searchEngine.searchFavorites());
+
+        // The merged forward index must still find every posting on removal
+        entries.forEach(searchEngine::removeFromIndex);
+        assertEquals(0, searchEngine.getIndexStatistics().get("Content Index Size"));
+        assertEquals(0, searchEngine.getIndexStatistics().get("Favorites"));
+    }
+
+    @Test
+    void testEditedIndexScoresLikeFreshIndex() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            entries.add(new DiaryEntry("Walk " + i, "walk ".repeat(i % 5 + 1) + "park bench " + (i % 17)));
+        }
+        searchEngine.indexEntries(entries);
+
+        // Edits land in the small delta segment and delete from the base
+        List<DiaryEntry> edited = new ArrayList<>();
+        for (int i = 0; i < 300; i += 7) {
+            DiaryEntry entry = entries.get(i);
+            entry.setContent("walk in the rain " + i);
+            searchEngine.updateIndex(entry, entry);
+            edited.add(entry);
+        }
+        searchEngine.removeFromIndex(entries.get(1));
+
+        List<DiaryEntry> expectedOrder = new ArrayList<>(entries);
+        expectedOrder.removeAll(edited);
+        expectedOrder.remove(entries.get(1));
+        expectedOrder.addAll(edited);
+        SearchEngine fresh = new SearchEngine();
+        fresh.indexEntries(expectedOrder);
+
+        for (String query : List.of("walk", "rain", "park bench", "walk 14")) {
+            assertEquals(fresh.search(query), searchEngine.search(query), query);
+        }
+        assertEquals(fresh.getIndexStatistics().get("Content Index Size"),
+                searchEngine.getIndexStatistics().get("Content Index Size"));
+    }
+
+    @Test
+    void testBackgroundMergesKeepSegmentsFew() throws Exception {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            DiaryEntry entry = new DiaryEntry("Autosave " + i, "draft text " + (i % 13));
+            entries.add(entry);
+            // Each write is its own segment; in a burst like this one the writer
+            // merges them as it goes, otherwise the merger thread does
+            searchEngine.addToIndex(entry);
+            assertTrue(searchEngine.getIndexStatistics().get("Segments") <= 64);
+        }
+        for (int i = 0; i < 1_000; i += 3) {
+            DiaryEntry entry = entries.get(i);
+            entry.setContent("final text " + (i % 13));
+            searchEngine.updateIndex(entry, entry);
+        }
+
+        // 1,000 docs settle into at most 7 segments per size tier
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (searchEngine.getIndexStatistics().get("Segments") > 28 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(searchEngine.getIndexStatistics().get("Segments") <= 28);
+
+        SearchEngine fresh = new SearchEngine();
+        fresh.indexEntries(entries);
+        for (String query : List.of("draft", "final text", "autosave 999", "text 7")) {
+            assertEquals(sortedByTitle(fresh.search(query)), sortedByTitle(searchEngine.search(query)), query);
+        }
+        assertEquals(1_000, searchEngine.getIndexStatistics().get("Total Entries"));
+    }
+
+    @Test
+    void testSearchesNeverSeeHalfAnUpdate() throws Exception {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(new DiaryEntry("Note " + i, "lighthouse keeper log " + i));
+        }
+        searchEngine.indexEntries(entries);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                int hits = searchEngine.search("lighthouse").size();
+                int total = searchEngine.getIndexStatistics().get("Total Entries");
+                if (hits != 200 || total != 200) {
+                    failure.compareAndSet(null, hits + " hits, " + total + " entries");
+                }
+            }
+        });
+        reader.start();
+
+        Random random = new Random(3);
+        for (int i = 0; i < 2_000; i++) {
+            DiaryEntry entry = entries.get(random.nextInt(entries.size()));
+            DiaryEntry replacement = new DiaryEntry(entry.getTitle(), "lighthouse keeper log " + i);
+            replacement.setId(entry.getId());
+            searchEngine.updateIndex(entry, replacement);
+            entries.set(entries.indexOf(entry), replacement);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    void testSuggestionsRankByDocumentFrequency() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(new DiaryEntry("Walking " + i, "notes"));
+        }
+        for (int i = 0; i < 3; i++) {
+            DiaryEntry entry = new DiaryEntry("Walls " + i, "notes");
+            entry.addTag("walls");
+            entries.add(entry);
+        }
+        entries.add(new DiaryEntry("Waltz", "notes"));
+        searchEngine.indexEntries(entries);
+
+        assertEquals(List.of("walking", "walls"), searchEngine.getSuggestions("wal", 2));
+        assertEquals(List.of("walking", "walls", "waltz"), searchEngine.getSuggestions("Wal", 10));
+        assertTrue(searchEngine.getSuggestions("xyz", 5).isEmpty());
+
+        // Counts add up across the segments written since, and deleted docs drop out
+        for (int i = 0; i < 4; i++) {
+            DiaryEntry entry = new DiaryEntry("Waltz again", "notes");
+            searchEngine.addToIndex(entry);
+        }
+        entries.subList(0, 5).forEach(searchEngine::removeFromIndex);
+
+        assertEquals(List.of("waltz", "walls"), searchEngine.getSuggestions("wal", 10));
+    }
+
+    @Test
+    void testPhraseAndNearQueries() {
+        DiaryEntry park = new DiaryEntry("Sunday", "A long walk in the park with the dog");
+        DiaryEntry reversed = new DiaryEntry("Monday", "The park was closed, so the walk was short");
+        DiaryEntry split = new DiaryEntry("Walk in", "the park later");
+        searchEngine.indexEntries(List.of(park, reversed, split));
+
+        // Every word matches all three, but only one has them in order
+        assertEquals(3, searchEngine.search("walk park").size());
+        assertEquals(List.of(park), searchEngine.search("\"walk in the park\""));
+        // Stop words still take up their place in the phrase
+        assertTrue(searchEngine.search("\"walk the park\"").isEmpty());
+        // Phrases and NEAR never span two fields
+        assertEquals(List.of(split), searchEngine.search("\"park later\""));
+        assertTrue(searchEngine.search("later NEAR/5 walk").isEmpty());
+
+        assertEquals(List.of(park), searchEngine.search("walk NEAR/3 park"));
+        assertEquals(List.of(reversed, park), sortedByTitle(searchEngine.search("park NEAR/5 walk")));
+        assertTrue(searchEngine.search("dog NEAR/2 walk").isEmpty());
+        assertEquals(List.of(park), searchEngine.search("\"long walk\" dog"));
+    }
+
+    @Test
+    void testPositionsSurviveEditsAndMerges() {
+        Random random = new Random(42);
+        String[] words = {"rain", "umbrella", "coffee", "morning", "river", "garden"};
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 12; w++) {
+                content.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            DiaryEntry entry = new DiaryEntry("Entry " + i, content.toString());
+            entries.add(entry);
+            // One at a time, so postings are copied through several merges
+            searchEngine.addToIndex(entry);
+        }
+        for (int i = 0; i < 100; i++) {
+            DiaryEntry entry = entries.get(random.nextInt(entries.size()));
+            entry.setContent("rain umbrella " + entry.getContent());
+            searchEngine.updateIndex(entry, entry);
+        }
+
+        for (String first : words) {
+            for (String second : words) {
+                String phrase = first + " " + second;
+                List<DiaryEntry> expected = new ArrayList<>();
+                for (DiaryEntry entry : entries) {
+                    if ((" " + entry.getContent()).contains(" " + phrase + " ")) {
+                        expected.add(entry);
+                    }
+                }
+                assertEquals(sortedByTitle(expected), sortedByTitle(searchEngine.search("\"" + phrase + "\"")),
+                        phrase);
+            }
+        }
+    }
+
+    @Test
+    void testBooleanQueriesWithFieldPrefixes() {
+        DiaryEntry trip = new DiaryEntry("Weekend trip", "Drove to the coast");
+        trip.addTag("road trip");
+        trip.setMood("Happy");
+        DiaryEntry travel = new DiaryEntry("Airport", "Long delays but a good trip");
+        travel.addTag("travel");
+        travel.addTag("work");
+        travel.setMood("Tired");
+        DiaryEntry office = new DiaryEntry("Office", "Planning the next trip");
+        office.addTag("work");
+        office.setMood("Happy");
+        searchEngine.indexEntries(List.of(trip, travel, office));
+
+        assertEquals(List.of(trip), searchEngine.search("title:trip"));
+        assertEquals(List.of(travel, office), sortedByTitle(searchEngine.search("content:trip")));
+        assertEquals(List.of(travel, trip), sortedByTitle(searchEngine.search("title:trip OR tag:travel")));
+        assertEquals(List.of(trip), searchEngine.search("title:trip OR tag:travel -work mood:happy"));
+        assertEquals(List.of(trip), searchEngine.search("tag:\"road trip\""));
+        assertEquals(List.of(office), searchEngine.search("trip NOT title:trip NOT tag:travel"));
+        assertEquals(List.of(office, trip), sortedByTitle(searchEngine.search("mood:HAPPY")));
+        assertEquals(List.of(travel, trip), sortedByTitle(searchEngine.search("(coast OR delays) trip")));
+        // A query of negations alone starts from every entry
+        assertEquals(List.of(trip), searchEngine.search("-work"));
+        assertEquals(List.of(travel, trip), sortedByTitle(searchEngine.search("-office")));
+        // Malformed input still searches for what it can
+        assertEquals(List.of(trip), searchEngine.search("OR coast ) NOT"));
+    }
+
+    @Test
+    void testQueryPlanRunsMostSelectiveTermFirst() {
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            DiaryEntry entry = new DiaryEntry("Day " + i, i % 10 == 0 ? "common rare" : "common");
+            entry.setMood(i % 2 == 0 ? "calm" : "busy");
+            entries.add(entry);
+        }
+        searchEngine.indexEntries(entries);
+
+        String plan = searchEngine.explainQuery("common mood:calm rare -\"rare common\"");
+        assertTrue(plan.indexOf("rare (5)") < plan.indexOf("mood:calm (25)"), plan);
+        assertTrue(plan.indexOf("mood:calm (25)") < plan.indexOf("common (50)"), plan);
+        assertTrue(plan.indexOf("EXCEPT") > plan.indexOf("common (50)"), plan);
+        assertEquals(5, searchEngine.search("common mood:calm rare -\"common common\"").size());
+        assertTrue(searchEngine.search("common mood:calm rare -\"common rare\"").isEmpty());
+    }
+
+    @Test
+    void testStemmingAndSynonymsApplyAtIndexTime() {
+        DiaryEntry walk = new DiaryEntry("Walking the dogs", "We walked along the river and felt glad");
+        walk.addTag("walking");
+        DiaryEntry party = new DiaryEntry("Birthday", "A joyful celebration with friends");
+        searchEngine.indexEntries(List.of(walk, party));
+
+        // Off by default: words match as written
+        assertTrue(searchEngine.search("walks").isEmpty());
+        assertTrue(searchEngine.search("happy").isEmpty());
+
+        searchEngine.setUseStemming(true);
+        searchEngine.setUseSynonyms(true);
+        // Settings apply from the next rebuild; until then queries follow the index
+        assertTrue(searchEngine.search("walks").isEmpty());
+        searchEngine.indexEntries(List.of(walk, party));
+
+        assertEquals(List.of(walk), searchEngine.search("walks"));
+        assertEquals(List.of(walk), searchEngine.search("title:dog"));
+        assertEquals(List.of(walk), searchEngine.search("\"walk along\""));
+        assertEquals(List.of(party, walk), sortedByTitle(searchEngine.search("happy")));
+        assertEquals(List.of(party, walk), sortedByTitle(searchEngine.search("cheerful")));
+        assertEquals(List.of(party), searchEngine.search("party"));
+        // Tags are labels, matched as written
+        assertEquals(List.of(walk), searchEngine.search("tag:walking"));
+        assertTrue(searchEngine.search("tag:walk").isEmpty());
+        assertEquals(List.of(walk), searchEngine.searchByTag("Walking"));
+        // Suggestions offer words as written, not stems
+        assertEquals(List.of("walking"), searchEngine.getSuggestions("wal", 5));
+
+        // Entries added later are analysed the same way
+        DiaryEntry later = new DiaryEntry("Evening", "Another stroll by the river");
+        searchEngine.addToIndex(later);
+        assertEquals(List.of(later, walk), sortedByTitle(searchEngine.search("walking")));
+    }
+
+    @Test
+    void testFuzzySearchFindsTypos() {
+        DiaryEntry hiking = new DiaryEntry("Mountain hiking", "Reached the summit before sunrise");
+        DiaryEntry baking = new DiaryEntry("Baking", "Bread and biscuits for the neighbours");
+        searchEngine.indexEntries(List.of(hiking, baking));
+
+        // Off by default
+        assertTrue(searchEngine.search("sumit").isEmpty());
+
+        searchEngine.setFuzzyEdits(2);
+        assertEquals(List.of(hiking), searchEngine.search("sumit"));
+        assertEquals(List.of(hiking), searchEngine.search("mountian"));
+        assertEquals(List.of(baking), searchEngine.search("bred"));
+        // Words of five letters or fewer get one edit
+        assertTrue(searchEngine.search("brxxd").isEmpty());
+        // Exact matches rank above near ones
+        assertEquals(List.of(hiking, baking), searchEngine.search("hiking"));
+        // Phrases stay exact
+        assertTrue(searchEngine.search("\"befor sunrise\"").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> searchEngine.setFuzzyEdits(3));
+
+        // Against edit distance worked out for every word
+        Random random = new Random(11);
+        List<String> words = new ArrayList<>();
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            String word = randomWord(random);
+            words.add(word);
+            entries.add(new DiaryEntry("Entry " + i, word));
+        }
+        searchEngine.indexEntries(entries);
+        searchEngine.setFuzzyEdits(1);
+        for (int q = 0; q < 50; q++) {
+            String query = q % 2 == 0 ? randomWord(random) : words.get(random.nextInt(words.size())) + "x";
+            List<DiaryEntry> expected = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                if (editDistance(query, words.get(i)) <= 1) {
+                    expected.add(entries.get(i));
+                }
+            }
+            assertEquals(sortedByTitle(expected), sortedByTitle(searchEngine.search("content:" + query)), query);
+        }
+    }
+
+    @Test
+    void testDateRangeFiltersMatchLinearScan() {
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        Random random = new Random(11);
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            DiaryEntry entry = new DiaryEntry("Day " + i, (i % 3 == 0 ? "garden " : "") + "notes");
+            entry.setCreatedDate(start.plusDays(random.nextInt(365)).atTime(9, 0));
+            entry.setFavorite(i % 4 == 0);
+            entries.add(entry);
+        }
+        searchEngine.indexEntries(entries);
+        // Spread the entries over several segments, some with deletions
+        for (int i = 0; i < 40; i++) {
+            DiaryEntry entry = entries.get(random.nextInt(entries.size()));
+            entry.setCreatedDate(start.plusDays(random.nextInt(365)).atTime(18, 0));
+            searchEngine.updateIndex(entry, entry);
+        }
+
+        LocalDate[][] ranges = {
+                {start.plusDays(10), start.plusDays(12)},   // narrower than the query
+                {start.plusDays(30), start.plusDays(300)},  // wider than the query
+                {null, start.plusDays(5)},
+                {start.plusDays(360), null},
+                {start.plusDays(20), start.plusDays(10)},   // empty
+                {LocalDate.MIN, LocalDate.MAX},
+        };
+        for (LocalDate[] range : ranges) {
+            for (String query : new String[]{"", "garden", "notes -garden"}) {
+                for (boolean favoritesOnly : new boolean[]{false, true}) {
+                    List<DiaryEntry> expected = new ArrayList<>();
+                    for (DiaryEntry entry : entries) {
+                        LocalDate date = entry.getCreatedDate().toLocalDate();
+                        boolean inRange = (range[0] == null || !date.isBefore(range[0]))
+                                && (range[1] == null || !date.isAfter(range[1]));
+                        boolean garden = entry.getContent().contains("garden");
+                        boolean matches = query.isEmpty() || (query.equals("garden") == garden);
+                        if (inRange && matches && (!favoritesOnly || entry.isFavorite())) {
+                            expected.add(entry);
+                        }
+                    }
+                    assertEquals(sortedByTitle(expected), sortedByTitle(searchEngine.search(query, true, true, true,
+                            range[0], range[1], favoritesOnly)), query + " " + Arrays.toString(range));
+                }
+            }
+            if (range[0] != null || range[1] != null) {
+                List<DiaryEntry> byDate = searchEngine.searchByDateRange(range[0], range[1]);
+                assertEquals(sortedByTitle(searchEngine.search("", true, true, true, range[0], range[1], false)),
+                        sortedByTitle(byDate), Arrays.toString(range));
+            }
+        }
+    }
+
+    @Test
+    void testSavedIndexLoadsLikeFreshIndex(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("search.idx");
+        List<DiaryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            DiaryEntry entry = new DiaryEntry("Walk " + i, "walk ".repeat(i % 5 + 1) + "park bench " + (i % 17));
+            entry.addTag(i % 2 == 0 ? "outdoors" : "city");
+            entry.setMood(i % 3 == 0 ? "Happy" : "Calm");
+            entry.setFavorite(i % 4 == 0);
+            entry.setCreatedDate(LocalDate.of(2024, 1, 1).plusDays(i).atTime(8, 0));
+            entries.add(entry);
+        }
+        searchEngine.indexEntries(entries);
+        searchEngine.saveIndex(file);
+
+        // The next start loads the same entries from disk, with one edited,
+        // one deleted and one added since the index was saved
+        List<DiaryEntry> reloaded = new ArrayList<>();
+        for (DiaryEntry entry : entries) {
+            reloaded.add(copyOf(entry));
+        }
+        DiaryEntry edited = reloaded.get(5);
+        edited.setContent("walk in the rain");
+        reloaded.remove(9);
+        DiaryEntry added = new DiaryEntry("Rain", "Stayed in while it rained, no walk");
+        reloaded.add(added);
+
+        SearchEngine loaded = new SearchEngine();
+        assertEquals(2, loaded.loadIndex(file, reloaded));
+
+        List<DiaryEntry> expectedOrder = new ArrayList<>(reloaded);
+        expectedOrder.remove(edited);
+        expectedOrder.remove(added);
+        expectedOrder.add(edited);
+        expectedOrder.add(added);
+        SearchEngine fresh = new SearchEngine();
+        fresh.indexEntries(expectedOrder);
+
+        for (String query : List.of("walk", "rain", "\"park bench\"", "walk 14", "tag:outdoors", "mood:happy")) {
+            assertEquals(fresh.search(query), loaded.search(query), query);
+        }
+        assertEquals(fresh.searchFavorites(), loaded.searchFavorites());
+        assertEquals(fresh.searchByDateRange(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29)),
+                loaded.searchByDateRange(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29)));
+        // Stale docs stay behind as deletions, so only the doc ID range differs
+        Map<String, Integer> freshStats = fresh.getIndexStatistics();
+        Map<String, Integer> loadedStats = loaded.getIndexStatistics();
+        for (String statistic : List.of("Total Entries", "Title Index Size", "Content Index Size",
+                "Tag Index Size", "Date Index Size", "Favorites")) {
+            assertEquals(freshStats.get(statistic), loadedStats.get(statistic), statistic);
+        }
+
+        // Saved again with the catch-up merged in, nothing is left to index
+        loaded.saveIndex(file);
+        SearchEngine again = new SearchEngine();
+        assertEquals(0, again.loadIndex(file, reloaded));
+        assertEquals(fresh.search("walk rain"), again.search("walk rain"));
+
+        // A damaged or mismatched file is rebuilt from the entries
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        SearchEngine rebuilt = new SearchEngine();
+        assertEquals(reloaded.size(), rebuilt.loadIndex(file, reloaded));
+        assertEquals(fresh.search("walk").size(), rebuilt.search("walk").size());
+
+        rebuilt.saveIndex(file);
+        assertEquals(0, new SearchEngine().loadIndex(file, reloaded));
+        SearchEngine stemming = new SearchEngine();
+        stemming.setUseStemming(true);
+        assertEquals(reloaded.size(), stemming.loadIndex(file, reloaded));
+    }
+
+    // The entry as it would be read back from disk: same ID and times, new object
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 4 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(6)));
+        }
+        return word.toString();
+    }
+
+    private static int editDistance(String a, String b) {
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int above = row[j];
+                row[j] = Math.min(Math.min(row[j] + 1, row[j - 1] + 1),
+                        diagonal + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+                diagonal = above;
+            }
+        }
+        return row[b.length()];
+    }
+
+    private static DiaryEntry copyOf(DiaryEntry entry) {
+        DiaryEntry copy = new DiaryEntry(entry.getTitle(), entry.getContent());
+        copy.setId(entry.getId());
+        copy.setTags(new ArrayList<>(entry.getTags()));
+        copy.setMood(entry.getMood());
+        copy.setFavorite(entry.isFavorite());
+        copy.setCreatedDate(entry.getCreatedDate());
+        copy.setModifiedDate(entry.getModifiedDate());
+        return copy;
+    }
+
+    private static List<DiaryEntry> sortedByTitle(List<DiaryEntry> entries) {
+        List<DiaryEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(DiaryEntry::getTitle));
+        return sorted;
+    }
+}
@@ -0,0 +1,71 @@
+package com.diary.manager;
+
+import com.diary.manager.models.Tokenizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenizerTest {
+
+    // Letters, numbers, separators and the characters String.toLowerCase treats specially
+    private static final String ALPHABET = "aZz09' \t\n.,;!?-_/\"()éÉßøÆΣσςİıΩ日本語½Ⅻ\u0301\u00A0\u2003ﬁ";
+    private static final String[] SUPPLEMENTARY = {"😀", "𝐀", "𐐀", "\uD800"};
+
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Test
+    void testSimpleText() {
+        assertEquals(List.of("it's", "a", "sunny", "day", "2024"),
+                tokenize("  It's a SUNNY day -- 2024!", true));
+        assertEquals(List.of("Hello", "World"), tokenize("Hello, World", false));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void testMatchesRegexPipeline(boolean lowerCase) {
+        Random random = new Random(1234);
+        for (int i = 0; i < 5_000; i++) {
+            String text = randomText(random);
+            assertEquals(reference(text, lowerCase), tokenize(text, lowerCase), () -> "Text: " + text);
+        }
+    }
+
+    @Test
+    void testLongTermGrowsBuffer() {
+        String longWord = "x".repeat(1_000);
+        assertEquals(List.of(longWord, "end"), tokenize(longWord + " end", true));
+    }
+
+    private List<String> tokenize(String text, boolean lowerCase) {
+        List<String> terms = new ArrayList<>();
+        tokenizer.tokenize(text, lowerCase, (buffer, length) -> terms.add(new String(buffer, 0, length)));
+        return terms;
+    }
+
+    private static List<String> reference(String text, boolean lowerCase) {
+        return Arrays.stream(Tokenizer.split(Tokenizer.normalize(text, lowerCase)))
+                .filter(term -> !term.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(10) == 0) {
+                text.append(SUPPLEMENTARY[random.nextInt(SUPPLEMENTARY.length)]);
+            } else {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+        }
+        return text.toString();
+    }
+}
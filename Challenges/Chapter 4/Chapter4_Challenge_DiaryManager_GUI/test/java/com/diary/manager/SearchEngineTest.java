@@ -1,12 +0,0 @@
-package com.diary.manager;
-
-import org.junit.jupiter.api.Test;
-import static org.junit.jupiter.api.Assertions.*;
-
-public class SearchEngineTest {
-
-    @Test
-    public void testSearch() {
-        // Test logic here
-    }
-}
\ No newline at end of file